@@ -0,0 +1,99 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.relay;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// SERVER BENCHMARK
+//
+// Time reads against a relay whose history is full. Reading from the start
+// and reading the newest bundles are the two ends of what a team server asks
+// for.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerBenchmark {
+
+  private static final Uuid TEAM = new Uuid(100);
+  private static final Secret SECRET = new Secret((byte) 0xAB);
+
+  private static final int MAX_READ = 32;
+
+  @Param({ "1024", "16384" })
+  public int history;
+
+  private Server server;
+  private Uuid newest;
+
+  @Setup
+  public void setup() {
+
+    server = new Server(history, MAX_READ);
+    server.addTeam(TEAM, SECRET);
+
+    final Relay.Bundle.Component user = server.pack(new Uuid(1), "user", Time.now());
+    final Relay.Bundle.Component conversation = server.pack(new Uuid(2), "conversation", Time.now());
+
+    for (int i = 0; i < history; i++) {
+      server.write(TEAM, SECRET, user, conversation, server.pack(new Uuid(3 + i), "message", Time.now()));
+    }
+
+    // Page through the history the same way a team server would to find
+    // the start of the last page.
+    Uuid root = Uuid.NULL;
+    Uuid previous = Uuid.NULL;
+    Collection<Relay.Bundle> found = server.read(TEAM, SECRET, root, MAX_READ);
+    while (found.size() == MAX_READ) {
+      previous = root;
+      for (final Relay.Bundle bundle : found) {
+        root = bundle.id();
+      }
+      found = server.read(TEAM, SECRET, root, MAX_READ);
+    }
+    newest = previous;
+  }
+
+  @Benchmark
+  public Collection<Relay.Bundle> readFromStart() {
+    return server.read(TEAM, SECRET, Uuid.NULL, MAX_READ);
+  }
+
+  @Benchmark
+  public Collection<Relay.Bundle> readNewest() {
+    return server.read(TEAM, SECRET, newest, MAX_READ);
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// MODEL BENCHMARK
+//
+// Time the server side of sending and reading messages: adding a message to a
+// model that already holds "size" messages, and looking up a page of messages
+// by id through the view.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+  private static final int PAGE = 32;
+
+  private static final Uuid AUTHOR = new Uuid(1);
+  private static final Uuid CONVERSATION = new Uuid(2);
+
+  @Param({ "1000", "10000" })
+  public int size;
+
+  private Model model;
+  private View view;
+  private List<Uuid> page;
+  private int next;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+
+    model = new Model();
+    view = new View(model);
+
+    for (int i = 0; i < size; i++) {
+      model.add(message(i));
+    }
+
+    // Ask for the newest messages, the ones a client is most likely to want.
+    page = new ArrayList<>();
+    for (int i = size - PAGE; i < size; i++) {
+      page.add(new Uuid(new Uuid(100), i));
+    }
+
+    next = size;
+  }
+
+  @Benchmark
+  public Model addMessage() {
+    model.add(message(next++));
+    return model;
+  }
+
+  @Benchmark
+  public Collection<Message> getMessagesById() {
+    return view.getMessages(CONVERSATION, AUTHOR, page);
+  }
+
+  private static Message message(int i) {
+    return new Message(
+        new Uuid(new Uuid(100), i),
+        Uuid.NULL,
+        Uuid.NULL,
+        Time.fromMs(i),
+        AUTHOR,
+        "message " + i,
+        CONVERSATION);
+  }
+}
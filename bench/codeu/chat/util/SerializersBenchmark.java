@@ -0,0 +1,77 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import codeu.chat.common.Message;
+
+// SERIALIZERS BENCHMARK
+//
+// Time a full write and read of the values that are sent most often: messages
+// and the uuids inside them.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializersBenchmark {
+
+  private Message message;
+  private Uuid uuid;
+
+  @Setup
+  public void setup() {
+    uuid = new Uuid(new Uuid(new Uuid(100), 101), 123456789);
+    message = new Message(
+        new Uuid(uuid, 1),
+        Uuid.NULL,
+        Uuid.NULL,
+        Time.fromMs(1500000000000L),
+        new Uuid(uuid, 2),
+        "The quick brown fox jumps over the lazy dog. The quick brown fox jumps over the lazy dog.",
+        new Uuid(uuid, 3));
+  }
+
+  @Benchmark
+  public Message messageRoundTrip() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    Message.SERIALIZER.write(out, message);
+    return Message.SERIALIZER.read(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  @Benchmark
+  public Uuid uuidRoundTrip() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+    Uuid.SERIALIZER.write(out, uuid);
+    return Uuid.SERIALIZER.read(new ByteArrayInputStream(out.toByteArray()));
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// STORE BENCHMARK
+//
+// Time filling a new store with "size" values. Sequential keys is how ids and
+// times are added in practice. Duplicate keys is how the text stores see many
+// messages with the same content.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoreBenchmark {
+
+  private static final Comparator<Integer> INTEGER_COMPARE = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) {
+      return a.compareTo(b);
+    }
+  };
+
+  @Param({ "1000", "10000" })
+  public int size;
+
+  @Benchmark
+  public Store<Integer, Integer> insertSequentialKeys() {
+    final Store<Integer, Integer> store = new Store<>(INTEGER_COMPARE);
+    for (int i = 0; i < size; i++) {
+      store.insert(i, i);
+    }
+    return store;
+  }
+
+  @Benchmark
+  public Store<Integer, Integer> insertDuplicateKeys() {
+    final Store<Integer, Integer> store = new Store<>(INTEGER_COMPARE);
+    for (int i = 0; i < size; i++) {
+      store.insert(0, i);
+    }
+    return store;
+  }
+}
@@ -31,6 +31,12 @@
 #   run <class path> [ arguments ... ] : Run the specified class. All arguments
 #                                        after the class path will be passed to
 #                                        the java class when it runs.
+#
+#   bench [ jmh arguments ... ] : Build the project with the JMH benchmarks in
+#                                 the bench directory and run them. Results are
+#                                 written as JSON to bench_results/<commit>.json.
+#                                 Any arguments are passed to JMH, for example
+#                                 a regular expression to pick benchmarks.
 ###############################################################################
 
 import os
@@ -53,6 +59,24 @@ CONFIG = {
   }
 }
 
+# Settings for the benchmarks. They are built into their own output directory
+# so that the JMH jars and generated code never end up in the normal build.
+BENCH_CONFIG = {
+  'out' : 'bench_bin',
+  'src' : [ 'src', 'bench' ],
+  'libraries' : [
+    'third_party/jmh-core-1.37.jar',
+    'third_party/jopt-simple-5.0.4.jar',
+    'third_party/commons-math3-3.6.1.jar'
+  ],
+  'processors' : [
+    'third_party/jmh-generator-annprocess-1.37.jar',
+    'third_party/jmh-core-1.37.jar'
+  ],
+  'results' : 'bench_results',
+  'separators' : CONFIG['separators']
+}
+
 
 # CLEAN
 #
@@ -94,11 +118,18 @@ def build(config) :
   command += [ 'javac' ]
   command += [ '-d', out ]
   command += [ '-cp', separator.join([ out ] + libraries) ]
+  if 'processors' in config :
+    command += [ '-processorpath', separator.join(config['processors']) ]
   command += [ '-Xlint' ]
   command += src_files
 
+  if not os.path.isdir(out) :
+    os.makedirs(out)
+
   print('running : %s' % command)
-  print('Build %s' % ('PASSED' if subprocess.call(command) == 0 else 'FAILED'))
+  passed = subprocess.call(command) == 0
+  print('Build %s' % ('PASSED' if passed else 'FAILED'))
+  return passed
 
 
 # RUN
@@ -123,12 +154,46 @@ def run(config, start_class_path, arguments):
   print('Run %s' % ('PASSED' if subprocess.call(command) == 0 else 'FAILED'))
 
 
+# BENCH
+#
+# Build and run the JMH benchmarks. The results file is named after the
+# current commit so that runs from different commits can be compared.
+#
+def bench(config, arguments) :
+  if not build(config) :
+    return
+
+  libraries = config['libraries']
+  out = config['out']
+  results = config['results']
+  separator = config['separators'][os.name]
+
+  try :
+    commit = subprocess.check_output([ 'git', 'rev-parse', '--short', 'HEAD' ]).decode().strip()
+  except Exception :
+    commit = 'unknown'
+
+  if not os.path.isdir(results) :
+    os.makedirs(results)
+
+  command = [ ]
+  command += [ 'java' ]
+  command += [ '-cp', separator.join([ out ] + libraries) ]
+  command += [ 'org.openjdk.jmh.Main' ]
+  command += [ '-rf', 'json' ]
+  command += [ '-rff', os.path.join(results, '%s.json' % commit) ]
+  command += arguments
+
+  print('running : %s' % command)
+  print('Bench %s' % ('PASSED' if subprocess.call(command) == 0 else 'FAILED'))
+
+
 # USAGE
 #
 # Print basic usage info.
 #
 def usage() :
-  print('Usage: python build.py clean | build | rebuild | run | help')
+  print('Usage: python build.py clean | build | rebuild | run | bench | help')
   print('  clean   : Remove all files in the output directory.')
   print('            This does not remove the root of the output tree.')
   print('  build   : Build the full project. This will build all java files')
@@ -137,6 +202,8 @@ def usage() :
   print('  run <class path> [ arguments ... ] : Run the specified class.')
   print('            All arguments after the class path will be passed to')
   print('            the java class when it runs.')
+  print('  bench [ jmh arguments ... ] : Build and run the JMH benchmarks.')
+  print('            Results are written as JSON to bench_results/<commit>.json.')
   print('  help    : Print this helpful message.')
 
 
@@ -153,6 +220,8 @@ def main(args) :
     elif 'rebuild' == command :
       clean(CONFIG)
       build(CONFIG)
+    elif 'bench' == command :
+      bench(BENCH_CONFIG, args[2:])
     elif 'run' == command :
       if len(args) > 2 :
         java_class = args[2]
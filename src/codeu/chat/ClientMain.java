@@ -24,6 +24,7 @@ import codeu.chat.util.Logger;
 import codeu.chat.util.RemoteAddress;
 import codeu.chat.util.connections.ClientConnectionSource;
 import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.MultiplexedConnectionSource;
 
 final class ClientMain {
 
@@ -43,10 +44,16 @@ final class ClientMain {
 
     final RemoteAddress address = RemoteAddress.parse(args[0]);
 
-    final ConnectionSource source = new ClientConnectionSource(address.host, address.port);
+    // Send every request over one long-lived connection rather than opening a
+    // new socket for each call.
+    final ConnectionSource source = new MultiplexedConnectionSource(address.host, address.port);
+
+    // Subscriptions keep a connection of their own open for the server to push
+    // messages down, so they need plain sockets.
+    final ConnectionSource pushSource = new ClientConnectionSource(address.host, address.port);
 
     LOG.info("Creating client...");
-    final Chat chat = new Chat(new Context(source));
+    final Chat chat = new Chat(new Context(source, pushSource));
 
     LOG.info("Created client");
 
@@ -15,8 +15,11 @@
 package codeu.chat;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import codeu.chat.common.Secret;
 import codeu.chat.relay.Server;
@@ -32,6 +35,24 @@ final class RelayMain {
 
   private static final Logger.Log LOG = Logger.newLog(RelayMain.class);
 
+  // Servers can hold a connection open while they wait for new bundles, so
+  // connections are handled on their own threads rather than on the
+  // timeline. This is enough for one waiting read per team and a few writes
+  // at the same time.
+  private static final int CONNECTION_THREADS = 64;
+
+  // How long bundles are kept on disk when the history is saved, and the most
+  // space they can use.
+  private static final long HISTORY_RETENTION_MS = 7L * 24 * 60 * 60 * 1000;
+  private static final long HISTORY_MAX_BYTES = 4L * 1024 * 1024 * 1024;
+
+  // Arguments:
+  //   <port>          The port to listen for servers on.
+  //   <team file>     The file of "<team id>:<team secret>" lines.
+  //   [<history dir>] Optional. The directory to save the relay history in so
+  //                   that it survives a restart. Without it, the history is
+  //                   only held in memory.
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -48,9 +69,11 @@ final class RelayMain {
 
     try (final ConnectionSource source = ServerConnectionSource.forPort(myPort)) {
 
-      // Limit the number of messages that the server tracks to be 1024 and limit the
-      // max number of messages that the relay will send out to be 16.
-      final Server relay = new Server(1024, 16);
+      // Limit the number of messages that the server holds in memory to be 65536 and limit the
+      // max number of messages that the relay will send out to be 256.
+      final Server relay = args.length > 2 ?
+          new Server(65536, 256, new File(args[2]), HISTORY_RETENTION_MS, HISTORY_MAX_BYTES) :
+          new Server(65536, 256);
 
       LOG.info("Relay object created.");
 
@@ -73,6 +96,8 @@ final class RelayMain {
     final Timeline timeline = new Timeline();
     LOG.info("Relay timeline created.");
 
+    final ExecutorService connections = Executors.newFixedThreadPool(CONNECTION_THREADS);
+
     timeline.scheduleNow(new Runnable() {
       @Override
       public void run() {
@@ -95,7 +120,7 @@ final class RelayMain {
         final Connection connection = source.connect();
         LOG.info("Connection established.");
 
-        timeline.scheduleNow(new Runnable() {
+        connections.execute(new Runnable() {
           @Override
           public void run() {
             try {
@@ -103,6 +128,12 @@ final class RelayMain {
             } catch (Exception ex) {
               LOG.error(ex, "Exception handling connection.");
             }
+            // Closing sends whatever is left of the response.
+            try {
+              connection.close();
+            } catch (Exception ex) {
+              LOG.error(ex, "Exception closing connection.");
+            }
           }
         });
 
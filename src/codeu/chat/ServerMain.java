@@ -54,13 +54,15 @@ final class ServerMain {
     // of the server.
     File persistentPath = null;
     RemoteAddress relayAddress = null;
+    int workerThreads = Server.DEFAULT_WORKER_THREADS;
 
     try {
       id = Uuid.parse(args[0]);
       secret = Secret.parse(args[1]);
       port = Integer.parseInt(args[2]);
       persistentPath = new File(args[3]);
-      relayAddress = args.length > 4 ? RemoteAddress.parse(args[4]) : null;
+      relayAddress = args.length > 4 && !"-".equals(args[4]) ? RemoteAddress.parse(args[4]) : null;
+      workerThreads = args.length > 5 ? Integer.parseInt(args[5]) : workerThreads;
     } catch (Exception ex) {
       LOG.error(ex, "Failed to read command arguments");
       System.exit(1);
@@ -77,7 +79,7 @@ final class ServerMain {
     ) {
 
       LOG.info("Starting server...");
-      runServer(id, secret, serverSource, relaySource,persistentPath);
+      runServer(id, secret, serverSource, relaySource, persistentPath, workerThreads);
 
     } catch (IOException ex) {
 
@@ -90,13 +92,14 @@ final class ServerMain {
                                 Secret secret,
                                 ConnectionSource serverSource,
                                 ConnectionSource relaySource,
-                                File localFilePath) {
+                                File localFilePath,
+                                int workerThreads) {
 
     final Relay relay = relaySource == null ?
                         new NoOpRelay() :
                         new RemoteRelay(relaySource);
 
-    final Server server = new Server(id, secret, relay, localFilePath);
+    final Server server = new Server(id, secret, relay, localFilePath, workerThreads);
 
     LOG.info("Created server.");
     
@@ -20,16 +20,22 @@ import java.util.Stack;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 
 import codeu.chat.client.core.Context;
 import codeu.chat.client.core.ConversationContext;
 import codeu.chat.client.core.MessageContext;
+import codeu.chat.client.core.Subscription;
 import codeu.chat.client.core.UserContext;
 import codeu.chat.common.Bookmark;
+import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.InterestSet;
+import codeu.chat.common.Message;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
 import codeu.chat.common.User;
+import codeu.chat.util.Metrics;
 import codeu.chat.util.Sort;
 import codeu.chat.util.Time;
 import codeu.chat.util.Tokenizer;
@@ -47,6 +53,10 @@ public final class Chat {
   private final Stack<Panel> panels = new Stack<>();
   private Context context; // made global because more than one Panel type uses this.
 
+  // The messages being pushed by the server for the signed in user, if they
+  // asked for them with "s-watch".
+  private Subscription watching;
+
   public Chat(Context context) {
   	this.context = context;
     this.panels.push(createRootPanel(context));
@@ -135,6 +145,9 @@ public final class Chat {
         System.out.println("    Sign in as the user with the given name.");
         System.out.println("  info");
         System.out.println("    Get session information.");
+        System.out.println("  stats");
+        System.out.println("    Show the server's counters, queue depths and request latencies,");
+        System.out.println("    and how well the client's message cache is doing.");
         System.out.println("  exit");
         System.out.println("    Exit the program.");       
       }
@@ -197,7 +210,7 @@ public final class Chat {
           final String name = args.get(0);
           args.remove(0);
           if (name.length() > 0) {
-            final UserContext user = findUserLogin(name);
+            final UserContext user = context.findUser(name);
             if (user == null) {
               System.out.format("ERROR: Failed to sign in as '%s'\n", name);
             } else {
@@ -208,17 +221,6 @@ public final class Chat {
           }
         }
       }
-
-      // Find the first user with the given name and return a user context
-      // for that user. If no user is found, the function will return null.
-      private UserContext findUserLogin(String name) {
-        for (final UserContext user : context.allUsers()) {
-          if (user.user.name.equals(name)) {
-            return user;
-          }
-        }
-        return null;
-      }
     });
     
     // info (Server info)
@@ -240,6 +242,30 @@ public final class Chat {
           }
         }
     });
+
+    // STATS (server stats)
+    //
+    // Print the server's metrics: every counter and gauge, then a latency
+    // summary for every request type and background job.
+    //
+    panel.register("stats", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        final ServerStats stats = context.getStats();
+        if (stats == null) {
+          System.out.println("ERROR: Failed to read server stats");
+        } else {
+          System.out.format("Server stats at %s\n", stats.time);
+          for (final Map.Entry<String, Long> value : stats.values.entrySet()) {
+            System.out.format("  %-40s %d\n", value.getKey(), value.getValue());
+          }
+          for (final Map.Entry<String, Metrics.Summary> latency : stats.latencies.entrySet()) {
+            System.out.format("  %-40s %s\n", latency.getKey(), latency.getValue());
+          }
+        }
+        System.out.format("Client message cache: %s\n", context.cacheStats());
+      }
+    });
     
     // Now that the panel has all its commands registered, return the panel
     // so that it can be used.
@@ -248,6 +274,9 @@ public final class Chat {
 
   private Panel createUserPanel(final UserContext user) {
 
+    // Only the signed in user's messages are watched.
+    stopWatching();
+
     final Panel panel = new Panel();
 
     // HELP
@@ -267,6 +296,10 @@ public final class Chat {
         System.out.println("    Join the conversation as the current user.");
         System.out.println("  status-update");
         System.out.println("    Get updates on the interests you're following.");
+        System.out.println("  s-watch");
+        System.out.println("    Print new messages from the interests you're following as they are sent.");
+        System.out.println("  s-unwatch");
+        System.out.println("    Stop printing new messages as they are sent.");
         System.out.println("  info");
         System.out.println("    Display all info for the current user");
         System.out.println("  back");
@@ -338,7 +371,7 @@ public final class Chat {
           final String name = args.get(0);
           args.remove(0);
           if (name.length() > 0) {
-            final ConversationContext conversation = find(name);
+            final ConversationContext conversation = user.findConversation(name);
             if (conversation == null) {
               System.out.format("ERROR: No conversation with name '%s'\n", name);
             } else {
@@ -349,17 +382,6 @@ public final class Chat {
           }
         }
       }
-
-      // Find the first conversation with the given name and return its context.
-      // If no conversation has the given name, this will return null.
-      private ConversationContext find(String title) {
-        for (final ConversationContext conversation : user.conversations()) {
-          if (title.equals(conversation.conversation.title)) {
-            return conversation;
-          }
-        }
-        return null;
-      }
     });
 	
 	// STATUS-UPDATE (retrieve new interesting messages)
@@ -373,6 +395,44 @@ public final class Chat {
 	  }
 	});
 	
+    // S-WATCH (watch interests)
+    //
+    // Add a command that will have the server push every new message in the
+    // conversations and from the users that the current user follows, and
+    // print them as they arrive, when the user enters "s-watch" while on the
+    // user panel. Unlike "status-update" nothing is polled.
+    //
+    panel.register("s-watch", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        stopWatching();
+        watching = context.subscribe(user.user.id, new Subscription.Listener() {
+          @Override
+          public void onMessage(ConversationHeader conversation, Message message) {
+            System.out.format("\n--- new message in %s from %s ---\n%s\n>>> ",
+                              conversation.title,
+                              findUsername(message.author),
+                              message.content());
+          }
+        });
+        if (watching == null) {
+          System.out.println("ERROR: Failed to watch interests");
+        }
+      }
+    });
+
+    // S-UNWATCH (stop watching interests)
+    //
+    // Add a command that will stop printing new messages as they are sent
+    // when the user enters "s-unwatch" while on the user panel.
+    //
+    panel.register("s-unwatch", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        stopWatching();
+      }
+    });
+
     // INFO
     //
     // Add a command that will print info about the current context when the
@@ -409,6 +469,9 @@ public final class Chat {
         System.out.println("    List all messages in the current conversation.");
         System.out.println("  m-add <message>");
         System.out.println("    Add a new message to the current conversation as the current user.");
+        System.out.println("  m-search <words> [page]");
+        System.out.println("    Find messages in the current conversation with any of the words, best first.");
+        System.out.println("    Quote several words. Pages of 10 start at 1.");
         System.out.println("  m-auth <username> <authority>");
         System.out.println("    Change user rank. o: Owner m: Member b: Banned");
         System.out.println("    Only the creator and owners can do this!");
@@ -457,14 +520,12 @@ public final class Chat {
       @Override
       public void invoke(List<String> args) {
         System.out.println("--- start of conversation ---");
-        for (MessageContext message = conversation.firstMessage();
-                            message != null;
-                            message = message.next()) {
+        for (final MessageContext message : conversation.messages()) {
           System.out.println();
           System.out.format("USER : %s\n", findUsername(message.message.author));
           System.out.format("SENT : %s\n", message.message.creation);
           System.out.println();
-          System.out.println(message.message.content);
+          System.out.println(message.message.content());
           System.out.println();
         }
         System.out.println("---  end of conversation  ---");
@@ -500,6 +561,51 @@ public final class Chat {
       
     });
     
+    // M-SEARCH (search messages)
+    //
+    // Add a command to find messages in the current conversation by their
+    // words when the user enters "m-search" while on the conversation panel.
+    //
+    panel.register("m-search", new Panel.Command() {
+
+      private static final int PAGE_SIZE = 10;
+
+      @Override
+      public void invoke(List<String> args) {
+        if (args.size() < 1) {
+          System.out.println("ERROR: Missing <words>");
+          return;
+        }
+
+        int page = 1;
+        if (args.size() > 1) {
+          try {
+            page = Integer.parseInt(args.get(1));
+          } catch (NumberFormatException ex) {
+            page = 0;
+          }
+          if (page < 1) {
+            System.out.println("ERROR: <page> must be a number from 1");
+            return;
+          }
+        }
+
+        int found = 0;
+        for (final MessageContext message : conversation.search(args.get(0), (page - 1) * PAGE_SIZE, PAGE_SIZE)) {
+          System.out.println();
+          System.out.format("USER : %s\n", findUsername(message.message.author));
+          System.out.format("SENT : %s\n", message.message.creation);
+          System.out.println();
+          System.out.println(message.message.content());
+          found += 1;
+        }
+
+        if (found == 0) {
+          System.out.println("No messages found");
+        }
+      }
+    });
+
     panel.register("m-auth", new Panel.Command(){
       @Override
       public void invoke(List<String> args){
@@ -581,7 +687,7 @@ public final class Chat {
     	ConversationContext c = findConversation(b.conversation.title, user);
         System.out.println("--- new conversation "+c.conversation.title+" from "+findUsername(c.conversation.owner)+" ---");
           if(c.firstMessage() != null){
-            updates += displayMessages(c.firstMessage(), c,"");
+            updates += displayMessages(c.messages(), c,"");
               
           } else {
             System.out.println("---  go start that conversation!  ---\n");
@@ -607,19 +713,14 @@ public final class Chat {
 	
     for (Bookmark b : mainDisplay){
       ConversationContext conversation = findConversation(b.conversation.title, user);
-      MessageContext msg;
-
       // If the bookmark was taken before the chat was started, this display loop will 
       // replay the whole chat. Otherwise, the first message printed is the one directly
       // after the bookmark.
-      if (b.bookmark == null) {
-        msg = conversation.firstMessage();
-      } else {
-        msg = conversation.getMessage(b.bookmark.id).next();
-      }
+      final Iterable<MessageContext> messages =
+          conversation.messagesAfter(b.bookmark == null ? Uuid.NULL : b.bookmark.id);
       
       String leading = "--- new from "+conversation.conversation.title+" ---";
-      updates += displayMessages(msg, conversation, leading);
+      updates += displayMessages(messages, conversation, leading);
         
       b.bookmark = conversation.lastMessage().message;
 	   
@@ -709,12 +810,7 @@ public final class Chat {
       }
       
       private ConversationContext findConversation(String name) {
-        for (final ConversationContext conversation : user.conversations()) {
-          if (conversation.conversation.title.equals(name)) {
-            return conversation;
-          }
-        }
-        return null;
+        return user.findConversation(name);
       }
       
     });
@@ -780,12 +876,7 @@ public final class Chat {
       }
       
       private ConversationContext findConversation(String name) {
-        for (final ConversationContext conversation : user.conversations()) {
-          if (conversation.conversation.title.equals(name)) {
-            return conversation;
-          }
-        }
-        return null;
+        return user.findConversation(name);
       }
       
       private HashSet<Bookmark> conversationsOfUser(User trash){
@@ -861,11 +952,9 @@ private HashSet<ConversationContext> conversationsOfUser(User friend, UserContex
         return resultSet;
       }
 
-private int displayMessages(MessageContext msg, ConversationContext conversation, String leading) {
+private int displayMessages(Iterable<MessageContext> messages, ConversationContext conversation, String leading) {
        int updates = 0;
-       for (MessageContext message = msg;
-                           message != null;
-                           message = message.next()) {
+       for (MessageContext message : messages) {
          
          if(updates == 0)
            System.out.println(leading);
@@ -873,7 +962,7 @@ private int displayMessages(MessageContext msg, ConversationContext conversation
          System.out.format("USER : %s\n", findUsername(message.message.author));
          System.out.format("SENT : %s\n", message.message.creation);
          System.out.println();
-         System.out.println(message.message.content);
+         System.out.println(message.message.content());
          System.out.println();
          updates++;
        }
@@ -884,23 +973,21 @@ private int displayMessages(MessageContext msg, ConversationContext conversation
 }
 
 private ConversationContext findConversation(String name, UserContext user) {
-        for (final ConversationContext conversation : user.conversations()) {
-          if (conversation.conversation.title.equals(name)) {
-            return conversation;
-          }
-        }
-        return null;
+        return user.findConversation(name);
       }
 
 private User findUser(String name) {
-        for (final UserContext user : context.allUsers()) {
-          if (user.user.name.equals(name)) {
-            return user.user;
-          }
-        }
-        return null;
+        final UserContext user = context.findUser(name);
+        return user == null ? null : user.user;
       }
       
+private void stopWatching() {
+  if (watching != null) {
+    watching.close();
+    watching = null;
+  }
+}
+
 private String findUsername(Uuid author) {
         for (final UserContext user : context.allUsers()) {
           if (user.user.id.equals(author)) {
@@ -0,0 +1,256 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import codeu.chat.common.BasicView;
+import codeu.chat.common.Changes;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationHeader.ConversationUuid;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.InterestSet;
+import codeu.chat.common.Message;
+import codeu.chat.common.ServerInfo;
+import codeu.chat.common.User;
+import codeu.chat.util.Uuid;
+
+// CACHING VIEW
+//
+// A view that keeps the messages it has seen so that reading them again does
+// not go back to the server. Everything else is passed on to the view it
+// wraps (View already keeps its own copy of the users and conversation
+// headers, see View.sync).
+//
+// A message never changes once it is made except for "next", which is set
+// once when the next message in the conversation is added. So a message whose
+// "next" is set can be served from the cache forever, while one whose "next"
+// is still NULL (the newest message of its conversation, as far as the cache
+// knows) is always fetched again. Conversation payloads change with every new
+// message so they are never cached.
+//
+// The cache is bounded by the size of the messages in it, not their number,
+// and drops the least recently used messages first.
+//
+// The server only sends a user the messages of conversations they are a
+// member of, so what is cached for one user must not be served to another:
+// the cache is emptied whenever a different user asks. A cached message is
+// also only served for the conversation it belongs to.
+final class CachingView implements BasicView {
+
+  public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+  // A rough cost of a message beyond its content: the object, its ids and its
+  // entry in the cache.
+  private static final long MESSAGE_OVERHEAD_BYTES = 200;
+
+  private final BasicView view;
+  private final long maxBytes;
+
+  // In access order, so the first entry is the least recently used.
+  private final LinkedHashMap<Uuid, Message> messages = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes = 0;
+
+  // The user whose messages are cached.
+  private Uuid owner = null;
+
+  private long hits = 0;
+  private long misses = 0;
+
+  public CachingView(BasicView view) {
+    this(view, DEFAULT_MAX_BYTES);
+  }
+
+  public CachingView(BasicView view, long maxBytes) {
+    this.view = view;
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public Collection<User> getUsers() {
+    return view.getUsers();
+  }
+
+  @Override
+  public Collection<User> getUsersByPrefix(String prefix, int limit) {
+    return view.getUsersByPrefix(prefix, limit);
+  }
+
+  @Override
+  public Collection<ConversationHeader> getConversations() {
+    return view.getConversations();
+  }
+
+  @Override
+  public Collection<ConversationHeader> getConversationsByPrefix(String prefix, int limit) {
+    return view.getConversationsByPrefix(prefix, limit);
+  }
+
+  @Override
+  public Changes getChanges(long epoch, long since) {
+    return view.getChanges(epoch, since);
+  }
+
+  @Override
+  public Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
+    return view.getConversationPayloads(ids);
+  }
+
+  @Override
+  public synchronized Collection<Message> getMessages(Uuid conversation, Uuid user, Collection<Uuid> ids) {
+
+    useFor(user);
+
+    final Uuid root = rootOf(conversation);
+    final Collection<Message> found = new ArrayList<>();
+    final Collection<Uuid> missing = new ArrayList<>();
+
+    for (final Uuid id : ids) {
+      final Message message = messages.get(id);
+      if (isFinal(message, root)) {
+        hits += 1;
+        found.add(message);
+      } else {
+        misses += 1;
+        missing.add(id);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      found.addAll(keep(view.getMessages(conversation, user, missing)));
+    }
+
+    return found;
+  }
+
+  @Override
+  public synchronized Collection<Message> getMessagePage(Uuid conversation,
+                                                         Uuid user,
+                                                         Uuid cursor,
+                                                         int count,
+                                                         boolean forward) {
+
+    useFor(user);
+
+    // A page going forward from a known message can be read by following
+    // "next" through the cache. If any link is missing, ask for the page.
+    if (forward && !Uuid.equals(cursor, Uuid.NULL)) {
+
+      final Uuid root = rootOf(conversation);
+      final Collection<Message> page = new ArrayList<>();
+      Message at = messages.get(cursor);
+
+      while (page.size() < count && isFinal(at, root)) {
+        at = messages.get(at.next);
+        if (at == null || !Uuid.equals(at.conversation, root)) {
+          break;
+        }
+        page.add(at);
+      }
+
+      if (page.size() == count) {
+        hits += count;
+        return page;
+      }
+    }
+
+    misses += count;
+    return keep(view.getMessagePage(conversation, user, cursor, count, forward));
+  }
+
+  @Override
+  public synchronized Collection<Message> searchMessages(Uuid conversation,
+                                                         Uuid user,
+                                                         String query,
+                                                         int offset,
+                                                         int count) {
+    useFor(user);
+    return keep(view.searchMessages(conversation, user, query, offset, count));
+  }
+
+  @Override
+  public ServerInfo getInfo() {
+    return view.getInfo();
+  }
+
+  @Override
+  public InterestSet getInterestSet(Uuid id) {
+    return view.getInterestSet(id);
+  }
+
+  // HIT RATE
+  //
+  // The share of messages asked for that were served from the cache, from 0
+  // to 1.
+  public synchronized double hitRate() {
+    return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("messages=%d bytes=%d hits=%d misses=%d hit-rate=%.1f%%",
+                         messages.size(), bytes, hits, misses, 100 * hitRate());
+  }
+
+  private static boolean isFinal(Message message, Uuid conversation) {
+    return message != null &&
+           !Uuid.equals(message.next, Uuid.NULL) &&
+           Uuid.equals(message.conversation, conversation);
+  }
+
+  // Messages are stored with the root of their conversation's id, read the
+  // argument the same way the server does.
+  private static Uuid rootOf(Uuid conversation) {
+    return ConversationUuid.fromChain(conversation).root();
+  }
+
+  // Empty the cache if it holds another user's messages.
+  private void useFor(Uuid user) {
+    if (!Uuid.equals(owner, user)) {
+      messages.clear();
+      bytes = 0;
+      owner = user;
+    }
+  }
+
+  // Add messages from the server to the cache, replacing older copies, and
+  // return them.
+  private Collection<Message> keep(Collection<Message> fetched) {
+
+    for (final Message message : fetched) {
+      final Message old = messages.put(message.id, message);
+      if (old != null) {
+        bytes -= size(old);
+      }
+      bytes += size(message);
+    }
+
+    final Iterator<Map.Entry<Uuid, Message>> oldest = messages.entrySet().iterator();
+    while (bytes > maxBytes && oldest.hasNext()) {
+      bytes -= size(oldest.next().getValue());
+      oldest.remove();
+    }
+
+    return fetched;
+  }
+
+  private static long size(Message message) {
+    return MESSAGE_OVERHEAD_BYTES + 2L * message.content().length();
+  }
+}
@@ -20,17 +20,28 @@ import java.util.Collection;
 import codeu.chat.common.InterestSet;
 import codeu.chat.common.User;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.ConnectionSource;
 
 public final class Context {
 
-  private final View view;
+  private final View remote;
+  private final CachingView view;
   private final Controller controller;
+  private final ConnectionSource pushSource;
 
   public Context(ConnectionSource source) {
-    this.view = new View(source);
+    this(source, source);
+  }
+
+  // "pushSource" is used for subscriptions, which hold their connection open
+  // (see Subscription), while every other request goes through "source".
+  public Context(ConnectionSource source, ConnectionSource pushSource) {
+    this.remote = new View(source);
+    this.view = new CachingView(remote);
     this.controller = new Controller(source);
+    this.pushSource = pushSource;
   }
 
   public UserContext create(String name) {
@@ -40,6 +51,19 @@ public final class Context {
         new UserContext(user, view, controller);
   }
 
+  // FIND USER
+  //
+  // The user with exactly this name, or null if there is none. Only the users
+  // whose names start with it are sent by the server, not every user.
+  public UserContext findUser(String name) {
+    for (final User user : view.getUsersByPrefix(name, UserContext.MAX_MATCHES)) {
+      if (user.name.equals(name)) {
+        return new UserContext(user, view, controller);
+      }
+    }
+    return null;
+  }
+
   public Iterable<UserContext> allUsers() {
     final Collection<UserContext> users = new ArrayList<>();
     for (final User user : view.getUsers()) {
@@ -64,4 +88,28 @@ public final class Context {
   public ServerInfo getInfo() {
       return view.getInfo();
   }
+
+  // SUBSCRIBE
+  //
+  // Have the server push every new message the user is interested in to
+  // "listener" until the subscription is closed. Returns null if it could not
+  // be started.
+  public Subscription subscribe(Uuid user, Subscription.Listener listener) {
+    return Subscription.open(pushSource, user, listener);
+  }
+
+  // GET STATS
+  //
+  // Get the server's metrics, or null if they could not be read.
+  public ServerStats getStats() {
+    return remote.getStats();
+  }
+
+  // CACHE STATS
+  //
+  // How many messages are cached and how often reads were served from the
+  // cache.
+  public String cacheStats() {
+    return view.toString();
+  }
 }
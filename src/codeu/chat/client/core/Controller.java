@@ -39,14 +39,13 @@ final class Controller implements BasicController {
 
   @Override
   public Message newMessage(Uuid author, ConversationUuid chatId, String body) {
-    Uuid conversation = chatId.root();
     Message response = null;
 
     try (final Connection connection = source.connect()) {
 
       Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_MESSAGE_REQUEST);
       Uuid.SERIALIZER.write(connection.out(), author);
-      Uuid.SERIALIZER.write(connection.out(), conversation);
+      ConversationUuid.SERIALIZER.write(connection.out(), chatId);
       Serializers.STRING.write(connection.out(), body);
 
       int reply = Serializers.INTEGER.read(connection.in());
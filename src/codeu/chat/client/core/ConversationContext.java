@@ -14,9 +14,12 @@
 
 package codeu.chat.client.core;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import codeu.chat.common.BasicController;
 import codeu.chat.common.BasicView;
@@ -28,6 +31,9 @@ import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 
 public final class ConversationContext {
+
+  // The number of messages asked for at a time when walking a conversation.
+  private static final int PAGE_SIZE = 32;
  
   public final User user;
   public final ConversationHeader conversation;
@@ -79,8 +85,74 @@ public final class ConversationContext {
         getMessage(updated.lastMessage);
   }
 
+  // MESSAGES
+  //
+  // All the messages in the conversation from oldest to newest. Messages are
+  // fetched from the server a page at a time as the iteration goes on, rather
+  // than one request per message.
+  public Iterable<MessageContext> messages() {
+    return messagesAfter(Uuid.NULL);
+  }
+
+  // MESSAGES AFTER
+  //
+  // The messages that were added after the message "start", oldest first. If
+  // "start" is Uuid.NULL this is every message.
+  public Iterable<MessageContext> messagesAfter(final Uuid start) {
+    return new Iterable<MessageContext>() {
+      @Override
+      public Iterator<MessageContext> iterator() {
+        return new Iterator<MessageContext>() {
+
+          private Iterator<Message> page = Collections.emptyIterator();
+          private Uuid cursor = start;
+          private boolean done = false;
+
+          @Override
+          public boolean hasNext() {
+            while (!page.hasNext() && !done) {
+              final Collection<Message> next =
+                  view.getMessagePage(conversation.id, user.id, cursor, PAGE_SIZE, true);
+              done = next.size() < PAGE_SIZE;
+              page = next.iterator();
+            }
+            return page.hasNext();
+          }
+
+          @Override
+          public MessageContext next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            final Message message = page.next();
+            cursor = message.id;
+            return new MessageContext(message, view);
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  // SEARCH
+  //
+  // Up to "count" messages that have any of the words in "query", best matches
+  // first, skipping the first "offset" matches.
+  public Iterable<MessageContext> search(String query, int offset, int count) {
+    final Collection<MessageContext> found = new ArrayList<>();
+    for (final Message message : view.searchMessages(conversation.id, user.id, query, offset, count)) {
+      found.add(new MessageContext(message, view));
+    }
+    return found;
+  }
+
   private ConversationPayload getUpdated() {
-    final Collection<Uuid> ids = Arrays.asList(conversation.id);
+    // Payloads are stored by the root of the conversation id.
+    final Collection<Uuid> ids = Arrays.asList(conversation.id.root());
     final Iterator<ConversationPayload> payloads = view.getConversationPayloads(ids).iterator();
     return payloads.hasNext() ? payloads.next() : null;
   }
@@ -19,6 +19,7 @@ import java.util.Iterator;
 
 import codeu.chat.common.BasicView;
 import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationHeader.ConversationUuid;
 import codeu.chat.common.Message;
 import codeu.chat.common.User;
 import codeu.chat.util.Uuid;
@@ -42,7 +43,11 @@ public final class MessageContext {
   }
 
   private MessageContext getMessage(Uuid id) {
-    final Iterator<Message> messages = view.getMessages(message.conversation, message.author, Arrays.asList(id)).iterator();
+    // Messages only know the root of their conversation's id, the server
+    // expects the full id.
+    final Iterator<Message> messages = view.getMessages(new ConversationUuid(message.conversation),
+                                                        message.author,
+                                                        Arrays.asList(id)).iterator();
     return messages.hasNext() ? new MessageContext(messages.next(), view) : null;
   }
 }
@@ -0,0 +1,138 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// SUBSCRIPTION
+//
+// A connection that the server pushes new messages down as they are sent,
+// for the conversations and users in a user's InterestSet. The messages are
+// passed to a listener on a background thread until the subscription is
+// closed or the server goes away.
+//
+// The connection is held open for as long as the subscription is, so it must
+// come from a source that gives a plain connection (not the framed requests
+// of a MultiplexedConnectionSource).
+public final class Subscription {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscription.class);
+
+  public interface Listener {
+    void onMessage(ConversationHeader conversation, Message message);
+  }
+
+  private final Connection connection;
+  private volatile boolean closed = false;
+
+  private Subscription(Connection connection) {
+    this.connection = connection;
+  }
+
+  // OPEN
+  //
+  // Ask the server to start pushing messages for "user". Returns null if the
+  // server does not know the user or could not be reached.
+  public static Subscription open(ConnectionSource source, Uuid user, final Listener listener) {
+
+    Connection connection = null;
+
+    try {
+
+      connection = source.connect();
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SUBSCRIBE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), user);
+
+      if (Serializers.INTEGER.read(connection.in()) != NetworkCode.SUBSCRIBE_RESPONSE) {
+        LOG.error("Response from server failed.");
+      } else if (!Serializers.BOOLEAN.read(connection.in())) {
+        LOG.error("Server refused subscription for %s", user);
+      } else {
+        final Subscription subscription = new Subscription(connection);
+        subscription.start(listener);
+        return subscription;
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (Exception ex) {
+        LOG.error(ex, "Exception while closing subscription.");
+      }
+    }
+
+    return null;
+  }
+
+  // CLOSE
+  //
+  // Stop listening. The server notices the connection closing and forgets the
+  // subscription.
+  public void close() {
+    closed = true;
+    try {
+      connection.close();
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while closing subscription.");
+    }
+  }
+
+  private void start(final Listener listener) throws IOException {
+
+    final InputStream in = connection.in();
+
+    final Thread reader = new Thread("subscription") {
+      @Override
+      public void run() {
+        try {
+          while (Serializers.INTEGER.read(in) == NetworkCode.NEW_MESSAGE_EVENT) {
+            listener.onMessage(ConversationHeader.SERIALIZER.read(in), Message.SERIALIZER.read(in));
+          }
+          LOG.error("Unexpected event from server, ending subscription.");
+        } catch (EOFException ex) {
+          LOG.info("Subscription ended by the server.");
+        } catch (Exception ex) {
+          if (!closed) {
+            LOG.error(ex, "Exception while reading subscription.");
+          }
+        }
+        if (!closed) {
+          close();
+        }
+      }
+    };
+
+    reader.setDaemon(true);
+    reader.start();
+  }
+}
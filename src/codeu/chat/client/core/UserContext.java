@@ -25,6 +25,10 @@ import codeu.chat.common.User;
 
 public final class UserContext {
 
+  // How many names to ask for when looking for an exact one. Matches that
+  // differ only by case come first, so this only needs to cover those.
+  static final int MAX_MATCHES = 64;
+
   public final User user;
   private final BasicView view;
   private final BasicController controller;
@@ -46,6 +50,19 @@ public final class UserContext {
   	return controller.getInterestSet(user.id);
   }
 
+  // FIND CONVERSATION
+  //
+  // The conversation with exactly this title, or null if there is none. Only
+  // the conversations whose titles start with it are sent by the server.
+  public ConversationContext findConversation(String title) {
+    for (final ConversationHeader conversation : view.getConversationsByPrefix(title, MAX_MATCHES)) {
+      if (conversation.title.equals(title)) {
+        return new ConversationContext(user, conversation, view, controller);
+      }
+    }
+    return null;
+  }
+
   public Iterable<ConversationContext> conversations() {
 
     // Use all the ids to get all the conversations and convert them to
@@ -18,14 +18,18 @@ import java.io.IOException;
 import java.rmi.UnexpectedException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import codeu.chat.common.BasicView;
+import codeu.chat.common.Changes;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.InterestSet;
 import codeu.chat.common.Message;
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
 import codeu.chat.common.User;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Serializers;
@@ -45,20 +49,97 @@ final class View implements BasicView {
 
   private final ConnectionSource source;
 
+  // Every user and conversation seen so far, in the order the server added
+  // them. Users and conversation headers do not change once made, so rather
+  // than download all of them on every call, each call asks the server only
+  // for what was added since the last one (see Changes) and adds it here.
+  private final Map<Uuid, User> users = new LinkedHashMap<>();
+  private final Map<Uuid, ConversationHeader> conversations = new LinkedHashMap<>();
+  private long epoch = 0;
+  private long lastChange = 0;
+
   public View(ConnectionSource source) {
     this.source = source;
   }
 
   @Override
-  public Collection<User> getUsers() {
+  public synchronized Collection<User> getUsers() {
+    sync();
+    return new ArrayList<>(users.values());
+  }
+
+  @Override
+  public synchronized Collection<ConversationHeader> getConversations() {
+    sync();
+    return new ArrayList<>(conversations.values());
+  }
+
+  // SYNC
+  //
+  // Bring the copies of the users and conversations up to date. If the server
+  // can not be reached the copies are left as they are.
+  private void sync() {
+
+    final Changes changes = getChanges(epoch, lastChange);
+
+    if (changes == null) {
+      return;
+    }
+
+    if (changes.reset) {
+      users.clear();
+      conversations.clear();
+    }
+
+    for (final User user : changes.users) {
+      users.put(user.id, user);
+    }
+    for (final ConversationHeader conversation : changes.conversations) {
+      conversations.put(conversation.id.root(), conversation);
+    }
+
+    epoch = changes.epoch;
+    lastChange = changes.last;
+  }
+
+  // GET CHANGES
+  //
+  // Returns null if the changes could not be read.
+  @Override
+  public Changes getChanges(long epoch, long since) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CHANGES_REQUEST);
+      Serializers.LONG.write(connection.out(), epoch);
+      Serializers.LONG.write(connection.out(), since);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CHANGES_RESPONSE) {
+        return Changes.SERIALIZER.read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return null;
+  }
+
+  @Override
+  public Collection<User> getUsersByPrefix(String prefix, int limit) {
 
     final Collection<User> users = new ArrayList<>();
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_REQUEST);
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_BY_PREFIX_REQUEST);
+      Serializers.STRING.write(connection.out(), prefix);
+      Serializers.INTEGER.write(connection.out(), limit);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_RESPONSE) {
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_BY_PREFIX_RESPONSE) {
         users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -73,16 +154,18 @@ final class View implements BasicView {
   }
 
   @Override
-  public Collection<ConversationHeader> getConversations() {
+  public Collection<ConversationHeader> getConversationsByPrefix(String prefix, int limit) {
 
-    final Collection<ConversationHeader> summaries = new ArrayList<>();
+    final Collection<ConversationHeader> conversations = new ArrayList<>();
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_ALL_CONVERSATIONS_REQUEST);
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_PREFIX_REQUEST);
+      Serializers.STRING.write(connection.out(), prefix);
+      Serializers.INTEGER.write(connection.out(), limit);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE) {
-        summaries.addAll(Serializers.collection(ConversationHeader.SERIALIZER).read(connection.in()));
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_PREFIX_RESPONSE) {
+        conversations.addAll(Serializers.collection(ConversationHeader.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -92,7 +175,7 @@ final class View implements BasicView {
       LOG.error(ex, "Exception during call on server.");
     }
 
-    return summaries;
+    return conversations;
   }
 
   @Override
@@ -145,6 +228,66 @@ final class View implements BasicView {
 
     return messages;
   }
+  @Override
+  public Collection<Message> getMessagePage(Uuid conversation, Uuid user, Uuid cursor, int count, boolean forward) {
+
+    final Collection<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_PAGE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Uuid.SERIALIZER.write(connection.out(), user);
+      Uuid.SERIALIZER.write(connection.out(), cursor);
+      Serializers.INTEGER.write(connection.out(), count);
+      Serializers.BOOLEAN.write(connection.out(), forward);
+
+      final int access = Serializers.INTEGER.read(connection.in());
+      if (access == NetworkCode.GET_MESSAGES_PAGE_RESPONSE) {
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      } else if (access == NetworkCode.CONVERSATION_ACCESS_DENIED) {
+        System.out.println("WARNING: Access denied.");
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
+  @Override
+  public Collection<Message> searchMessages(Uuid conversation, Uuid user, String query, int offset, int count) {
+
+    final Collection<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SEARCH_MESSAGES_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Uuid.SERIALIZER.write(connection.out(), user);
+      Serializers.STRING.write(connection.out(), query);
+      Serializers.INTEGER.write(connection.out(), offset);
+      Serializers.INTEGER.write(connection.out(), count);
+
+      final int access = Serializers.INTEGER.read(connection.in());
+      if (access == NetworkCode.SEARCH_MESSAGES_RESPONSE) {
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      } else if (access == NetworkCode.CONVERSATION_ACCESS_DENIED) {
+        System.out.println("WARNING: Access denied.");
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
   /**
    * Get the info of the server; version info should be returned currently.
    * @return The infomation of the server. If fails, null will be returned.
@@ -171,6 +314,24 @@ final class View implements BasicView {
     return null;
   }
   
+  // GET STATS
+  //
+  // Get the server's metrics. Returns null if they could not be read.
+  public ServerStats getStats() {
+    try (final Connection connection = this.source.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SERVER_STATS_REQUEST);
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SERVER_STATS_RESPONSE) {
+        return ServerStats.SERIALIZER.read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+    return null;
+  }
+
   public InterestSet getInterestSet(Uuid id) {
     try (final Connection connection = this.source.connect()) {
       Serializers.INTEGER.write(connection.out(), NetworkCode.INTEREST_SET_REQUEST);
@@ -38,11 +38,30 @@ public interface BasicView {
   //   Return all users whose id is found in the given collection.
   Collection<User> getUsers();
 
+  // GET USERS BY PREFIX
+  //
+  //   Return up to "limit" users whose name starts with "prefix", ignoring
+  //   case, in name order. Names that match "prefix" exactly come first.
+  Collection<User> getUsersByPrefix(String prefix, int limit);
+
   // GET ALL CONVERSATIONS
   //
   //   Return a summary of each converation.
   Collection<ConversationHeader> getConversations();
 
+  // GET CONVERSATIONS BY PREFIX
+  //
+  //   Return up to "limit" conversations whose title starts with "prefix",
+  //   ignoring case, in title order.
+  Collection<ConversationHeader> getConversationsByPrefix(String prefix, int limit);
+
+  // GET CHANGES
+  //
+  //   Return the users and conversations added after change "since" of
+  //   "epoch" (see Changes). Pass 0 and 0 to get everything. If "epoch" is
+  //   not the server's current epoch, everything is returned.
+  Changes getChanges(long epoch, long since);
+
   // GET CONVERSATIONS
   //
   //   Return all conversations whose id is found in the given collection.
@@ -53,6 +72,24 @@ public interface BasicView {
   //   Return all messages whose id is found in the given collection.
   Collection<Message> getMessages(Uuid conversation,Uuid user,Collection<Uuid> ids);    
 
+  // GET MESSAGE PAGE
+  //
+  //   Return up to "count" messages from a conversation in the order they
+  //   were sent, walking forward (oldest to newest) or backward (newest to
+  //   oldest). The page starts right after the message "cursor", or at the
+  //   first (or last) message when "cursor" is Uuid.NULL. Pass the id of the
+  //   last message of one page as the cursor to get the next page. A page
+  //   with fewer than "count" messages means the end was reached.
+  Collection<Message> getMessagePage(Uuid conversation, Uuid user, Uuid cursor, int count, boolean forward);
+
+  // SEARCH MESSAGES
+  //
+  //   Return up to "count" messages from a conversation that have any of the
+  //   words in "query", best matches first: messages with more of the words
+  //   come before messages with fewer, and newer before older. The first
+  //   "offset" matches are skipped, so pages can be read one after another.
+  Collection<Message> searchMessages(Uuid conversation, Uuid user, String query, int offset, int count);
+
   //GET INFO
   //
   //  Return the info from server
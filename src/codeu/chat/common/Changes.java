@@ -0,0 +1,76 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// CHANGES
+//
+// The users and conversations added to the server after some point, and the
+// point to ask from next time. The server numbers everything it adds; a point
+// is the last number seen, along with the epoch the numbers belong to (they
+// start over when the server restarts). A client that keeps its own copy can
+// stay up to date by asking only for what changed since the last time.
+public final class Changes {
+
+  public static final Serializer<Changes> SERIALIZER = new Serializer<Changes>() {
+
+    @Override
+    public void write(OutputStream out, Changes value) throws IOException {
+      Serializers.LONG.write(out, value.epoch);
+      Serializers.LONG.write(out, value.last);
+      Serializers.BOOLEAN.write(out, value.reset);
+      Serializers.collection(User.SERIALIZER).write(out, value.users);
+      Serializers.collection(ConversationHeader.SERIALIZER).write(out, value.conversations);
+    }
+
+    @Override
+    public Changes read(InputStream in) throws IOException {
+      return new Changes(Serializers.LONG.read(in),
+                         Serializers.LONG.read(in),
+                         Serializers.BOOLEAN.read(in),
+                         Serializers.collection(User.SERIALIZER).read(in),
+                         Serializers.collection(ConversationHeader.SERIALIZER).read(in));
+    }
+  };
+
+  public final long epoch;
+  public final long last;
+
+  // True when the point asked from was from another epoch, so these are all
+  // the users and conversations and any older copy should be dropped.
+  public final boolean reset;
+
+  public final Collection<User> users;
+  public final Collection<ConversationHeader> conversations;
+
+  public Changes(long epoch,
+                 long last,
+                 boolean reset,
+                 Collection<User> users,
+                 Collection<ConversationHeader> conversations) {
+    this.epoch = epoch;
+    this.last = last;
+    this.reset = reset;
+    this.users = users;
+    this.conversations = conversations;
+  }
+}
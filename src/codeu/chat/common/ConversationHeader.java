@@ -40,7 +40,7 @@ public final class ConversationHeader{
     @Override
     public ConversationHeader read(InputStream in) throws IOException {
       return new ConversationHeader(
-          new ConversationUuid( Uuid.SERIALIZER.read(in)),
+          ConversationUuid.SERIALIZER.read(in),
           Uuid.SERIALIZER.read(in),
           Time.SERIALIZER.read(in),
           Serializers.STRING.read(in)
@@ -72,12 +72,26 @@ public final class ConversationHeader{
 
 	  @Override
 	  public ConversationUuid read(InputStream in) throws IOException {
-	    return (ConversationUuid) Uuid.SERIALIZER.read(in);
+	    // A conversation id repeats the last id of its root (see the constructor
+	    // below), so rebuild it from the root rather than adding another link.
+	    return fromChain(Uuid.SERIALIZER.read(in));
       }
     };
+
+	// FROM CHAIN
+	//
+	// Rebuild a conversation id from a plain Uuid with the same ids, such as one
+	// read with Uuid.SERIALIZER or passed through the relay.
+	public static ConversationUuid fromChain(Uuid chain) {
+	  return chain.root() == null ?
+	      new ConversationUuid(chain.id()) :
+	      new ConversationUuid(chain.root());
+	}
 	  
+	// Same as the conversation id of "new Uuid(id)", so that every conversation
+	// id has a root to be looked up by.
 	public ConversationUuid(int id) {
-		super(id);
+		this(new Uuid(id));
 	}
 	
 	public ConversationUuid(Uuid root){
@@ -66,7 +66,7 @@
     for(Bookmark b : bookmarks){
       result += "\n"+b.conversation.title+": ";
       if (b.bookmark != null){
-        result += " "+b.bookmark.content+"\n";
+        result += " "+b.bookmark.content()+"\n";
       } else {
         result += "<NULL MARKER>";
       }
@@ -34,7 +34,7 @@ public final class Message{
       Uuid.SERIALIZER.write(out, value.previous);
       Time.SERIALIZER.write(out, value.creation);
       Uuid.SERIALIZER.write(out, value.author);
-      Serializers.STRING.write(out, value.content);
+      Serializers.STRING.write(out, value.content());
       Uuid.SERIALIZER.write(out, value.conversation);
     }
 
@@ -54,15 +54,35 @@ public final class Message{
     }
   };
 
+  // TEXT
+  //
+  // Somewhere the content of a message can be read from when it is needed.
+  // The server uses this to leave the content of saved messages in a mapped
+  // file instead of holding every message's content on the heap.
+  public interface Text {
+    String read();
+  }
+
   public final Uuid id;
   public final Uuid previous;
   public final Time creation;
   public final Uuid author;
-  public final String content;
-  public Uuid next;
+  public volatile Uuid next;
   public final Uuid conversation;
 
+  // Only one of these is set.
+  private final String content;
+  private final Text text;
+
   public Message(Uuid id, Uuid next, Uuid previous, Time creation, Uuid author, String content,Uuid conversation) {
+    this(id, next, previous, creation, author, content, null, conversation);
+  }
+
+  public Message(Uuid id, Uuid next, Uuid previous, Time creation, Uuid author, Text text, Uuid conversation) {
+    this(id, next, previous, creation, author, null, text, conversation);
+  }
+
+  private Message(Uuid id, Uuid next, Uuid previous, Time creation, Uuid author, String content, Text text, Uuid conversation) {
 
     this.id = id;
     this.next = next;
@@ -70,6 +90,15 @@ public final class Message{
     this.creation = creation;
     this.author = author;
     this.content = content;
+    this.text = text;
     this.conversation = conversation;
   }
+
+  // CONTENT
+  //
+  // The body of the message. If it is kept somewhere else it is read each
+  // time, so callers that need it more than once should hold on to it.
+  public String content() {
+    return text == null ? content : text.read();
+  }
 }
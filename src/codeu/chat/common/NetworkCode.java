@@ -14,6 +14,7 @@
 
 package codeu.chat.common;
 
+import java.lang.reflect.Field;
 
 public final class NetworkCode {
 
@@ -44,6 +45,51 @@ public final class NetworkCode {
       INTEREST_SET_RECORD = 35,
       CONVERSATION_ACCESS_DENIED = 36,
       CONVERSATION_AUTHORITY_REQUEST = 37,
-      CONVERSATION_AUTHORITY_RESPONSE = 38;
+      CONVERSATION_AUTHORITY_RESPONSE = 38,
+      // Sent as the first value on a connection to keep it open and carry
+      // many framed requests (see codeu.chat.util.connections.Frame).
+      SESSION_REQUEST = 39,
+      GET_MESSAGES_PAGE_REQUEST = 40,
+      GET_MESSAGES_PAGE_RESPONSE = 41,
+      RELAY_SUBSCRIBE_REQUEST = 42,
+      RELAY_SUBSCRIBE_RESPONSE = 43,
+      // A relay read that waits for new bundles, answered with
+      // RELAY_READ_RESPONSE.
+      RELAY_WAIT_REQUEST = 44,
+      RELAY_WRITE_BATCH_REQUEST = 45,
+      RELAY_WRITE_BATCH_RESPONSE = 46,
+      SERVER_STATS_REQUEST = 47,
+      SERVER_STATS_RESPONSE = 48,
+      SEARCH_MESSAGES_REQUEST = 49,
+      SEARCH_MESSAGES_RESPONSE = 50,
+      GET_USERS_BY_PREFIX_REQUEST = 51,
+      GET_USERS_BY_PREFIX_RESPONSE = 52,
+      GET_CONVERSATIONS_BY_PREFIX_REQUEST = 53,
+      GET_CONVERSATIONS_BY_PREFIX_RESPONSE = 54,
+      GET_CHANGES_REQUEST = 55,
+      GET_CHANGES_RESPONSE = 56,
+      // Sent as the first value on a connection, followed by a user id, to
+      // keep it open and have the server push a NEW_MESSAGE_EVENT for every
+      // new message the user is interested in.
+      SUBSCRIBE_REQUEST = 57,
+      SUBSCRIBE_RESPONSE = 58,
+      NEW_MESSAGE_EVENT = 59;
+
+  // NAME
+  //
+  // The name of a code as it is written above, or the number if it is not
+  // one of them. Meant for logs and metrics, not for anything on the wire.
+  public static String name(int code) {
+    for (final Field field : NetworkCode.class.getFields()) {
+      try {
+        if (field.getType() == int.class && field.getInt(null) == code) {
+          return field.getName();
+        }
+      } catch (IllegalAccessException ex) {
+        // Every field found by getFields is public.
+      }
+    }
+    return Integer.toString(code);
+  }
 
 }
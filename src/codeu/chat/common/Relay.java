@@ -14,6 +14,7 @@
 
 package codeu.chat.common;
 
+import java.io.IOException;
 import java.util.Collection;
 
 import codeu.chat.util.Time;
@@ -104,12 +105,32 @@ public interface Relay {
 
   }
 
+  // PACKET
+  //
+  // The three components that describe one message being written to the relay.
+  // Packets let many messages be written at once (see the batch "write").
+  interface Packet {
+
+    Bundle.Component user();
+
+    Bundle.Component conversation();
+
+    Bundle.Component message();
+
+  }
+
   // PACK
   //
   // Pack together a uuid, string, and time into a component. This is to make
   // the signature for "write" to be shorter and easier to read.
   Bundle.Component pack(Uuid id, String text, Time time);
 
+  // PACK
+  //
+  // Pack together the components of one message so that it can be written
+  // as part of a batch.
+  Packet pack(Bundle.Component user, Bundle.Component conversation, Bundle.Component message);
+
   // WRITE
   //
   // Write a single message and all its extra data to the relay server. A message
@@ -123,6 +144,19 @@ public interface Relay {
                 Bundle.Component conversation,
                 Bundle.Component message);
 
+  // WRITE
+  //
+  // Write many messages to the relay at once. This is the same as calling the
+  // single "write" for each packet in order, but the team only needs to be
+  // checked once and, for a remote relay, it all goes over one connection.
+  // Either every packet is written or none are.
+  //
+  // Returns false if the relay refused the batch, which sending it again will
+  // not change (the team could not be authenticated, or the relay does not
+  // know how to take batches). Throws IOException if the relay could not be
+  // reached, in which case the batch may be sent again later.
+  boolean write(Uuid teamId, Secret teamSecret, Collection<Packet> packets) throws IOException;
+
   // READ
   //
   // Read a series of bundles from the relay. Given a Uuid as the starting point
@@ -133,4 +167,23 @@ public interface Relay {
   // was given Uuids.NULL.
   Collection<Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range);
 
+  // READ
+  //
+  // The same as "read" above, except that if there is nothing to read yet the
+  // relay waits up to "timeoutMs" for something to be written before
+  // answering. This lets a server get new bundles as soon as they are written
+  // without asking over and over. The relay may wait less than asked.
+  Collection<Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range, long timeoutMs);
+
+  // SUBSCRIBE
+  //
+  // Choose whose bundles "read" returns to a team. Until a team subscribes it
+  // reads every bundle, including the ones it wrote. If "includeSelf" is false
+  // the team's own bundles are left out, and if "teams" is not empty only
+  // bundles from the listed teams are returned. The relay does the filtering
+  // so bundles a team does not want are never sent to it. Subscribing again
+  // replaces the previous subscription. Returns false if the team could not
+  // be authenticated.
+  boolean subscribe(Uuid teamId, Secret teamSecret, boolean includeSelf, Collection<Uuid> teams);
+
 }
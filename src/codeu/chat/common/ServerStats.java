@@ -0,0 +1,90 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import codeu.chat.util.Metrics;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+
+// SERVER STATS
+//
+// What the server's metrics (see codeu.chat.util.Metrics) read at one point in
+// time: every counter and gauge as a number and every latency as a summary,
+// each by name.
+public final class ServerStats {
+
+  public static final Serializer<ServerStats> SERIALIZER = new Serializer<ServerStats>() {
+
+    @Override
+    public void write(OutputStream out, ServerStats value) throws IOException {
+
+      Time.SERIALIZER.write(out, value.time);
+
+      Serializers.INTEGER.write(out, value.values.size());
+      for (final Map.Entry<String, Long> entry : value.values.entrySet()) {
+        Serializers.STRING.write(out, entry.getKey());
+        Serializers.LONG.write(out, entry.getValue());
+      }
+
+      Serializers.INTEGER.write(out, value.latencies.size());
+      for (final Map.Entry<String, Metrics.Summary> entry : value.latencies.entrySet()) {
+        Serializers.STRING.write(out, entry.getKey());
+        Metrics.Summary.SERIALIZER.write(out, entry.getValue());
+      }
+    }
+
+    @Override
+    public ServerStats read(InputStream in) throws IOException {
+
+      final Time time = Time.SERIALIZER.read(in);
+
+      final SortedMap<String, Long> values = new TreeMap<>();
+      for (int i = Serializers.INTEGER.read(in); i > 0; i--) {
+        values.put(Serializers.STRING.read(in), Serializers.LONG.read(in));
+      }
+
+      final SortedMap<String, Metrics.Summary> latencies = new TreeMap<>();
+      for (int i = Serializers.INTEGER.read(in); i > 0; i--) {
+        latencies.put(Serializers.STRING.read(in), Metrics.Summary.SERIALIZER.read(in));
+      }
+
+      return new ServerStats(time, values, latencies);
+    }
+  };
+
+  public final Time time;
+  public final SortedMap<String, Long> values;
+  public final SortedMap<String, Metrics.Summary> latencies;
+
+  public ServerStats(Time time,
+                     SortedMap<String, Long> values,
+                     SortedMap<String, Metrics.Summary> latencies) {
+    this.time = time;
+    this.values = values;
+    this.latencies = latencies;
+  }
+
+  public ServerStats(Metrics metrics) {
+    this(Time.now(), metrics.values(), metrics.latencies());
+  }
+}
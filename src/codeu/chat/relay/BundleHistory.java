@@ -0,0 +1,320 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.relay;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Uuid;
+
+// BUNDLE HISTORY
+//
+// The most recent bundles written to the relay, held in a ring buffer. The
+// relay gives its bundles sequential ids (see Server) so the position of a
+// bundle in the ring can be worked out from its id alone. That turns a read
+// from a cursor into a seek and a copy of at most "limit" bundles, no matter
+// how long the history is.
+//
+// The ring starts small and doubles as needed up to "capacity", so a large
+// capacity does not cost anything until the relay is actually that busy.
+//
+// Each team that has bundles in the history also has a TeamIndex of where
+// they are, so a read limited to some teams only touches those teams' bundles.
+//
+// A history can also be backed by a BundleLog. Then every bundle is written to
+// the log and the ring only caches the newest ones. Reads from before the
+// ring go to the log, and a history opened on an existing log carries on from
+// where it left off.
+final class BundleHistory {
+
+  private static final Logger.Log LOG = Logger.newLog(BundleHistory.class);
+
+  private static final int INITIAL_SLOTS = 1024;
+
+  private final int capacity;
+
+  private Relay.Bundle[] ring;
+
+  // The slot of the oldest bundle and how many bundles are held. The ids of
+  // the held bundles run from "oldestId" to "oldestId + size - 1".
+  private int head = 0;
+  private int size = 0;
+  private long oldestId = 0;
+
+  private final Map<Uuid, TeamIndex> byTeam = new HashMap<>();
+
+  // Null when the history is only held in memory, or after the log has failed.
+  // Volatile so that "sync" can be called without the caller's lock.
+  private volatile BundleLog log;
+
+  public BundleHistory(int capacity) {
+    this.capacity = Math.max(0, capacity);
+    this.ring = new Relay.Bundle[Math.min(this.capacity, INITIAL_SLOTS)];
+  }
+
+  public BundleHistory(int capacity, BundleLog log) throws IOException {
+
+    this(capacity);
+
+    if (!log.isEmpty()) {
+      final long from = Math.max(log.first(), log.last() - this.capacity + 1);
+      for (final Relay.Bundle bundle : log.read(from, log.last() + 1, this.capacity, null)) {
+        cache(bundle);
+      }
+    }
+
+    this.log = log;
+  }
+
+  // SIZE
+  //
+  // The number of bundles held in memory.
+  public int size() {
+    return size;
+  }
+
+  // LAST
+  //
+  // The sequence number of the newest bundle, or 0 if there are none.
+  public long last() {
+    if (size > 0) {
+      return oldestId + size - 1;
+    }
+    return (log == null || log.isEmpty()) ? 0 : log.last();
+  }
+
+  // ADD
+  //
+  // Add a bundle to the end of the history, dropping the oldest bundle from
+  // memory if the ring is full. The id of the bundle must be one more than the
+  // id of the last bundle added.
+  //
+  // If the bundle can not be written to the log, the log is closed and the
+  // history carries on in memory only. The relay is more useful serving what
+  // it has than refusing every write.
+  public void add(Relay.Bundle bundle) {
+
+    if (log != null) {
+      try {
+        log.append(bundle);
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to write bundle %s to the relay history, continuing in memory", bundle.id());
+        close();
+      }
+    }
+
+    cache(bundle);
+  }
+
+  // SYNC
+  //
+  // Force every bundle added so far to disk. Unlike the other methods this may
+  // run while another thread adds bundles, so that the caller does not have to
+  // hold its lock while waiting on the disk. Returns false if the log failed;
+  // the caller should then "close" it (while holding its lock) and carry on in
+  // memory.
+  public boolean sync() {
+    final BundleLog current = log;
+    if (current != null) {
+      try {
+        current.sync();
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to sync the relay history, continuing in memory");
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public void close() {
+    if (log != null) {
+      try {
+        log.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to close the relay history");
+      }
+      log = null;
+    }
+  }
+
+  private void cache(Relay.Bundle bundle) {
+
+    if (capacity == 0) {
+      return;
+    }
+
+    final long id = sequence(bundle.id());
+
+    if (size > 0 && id != oldestId + size) {
+      throw new IllegalArgumentException(String.format(
+          "Bundle %s does not follow bundle %d", bundle.id(), oldestId + size - 1));
+    }
+
+    if (size == ring.length && ring.length < capacity) {
+      grow();
+    }
+
+    if (size == 0) {
+      oldestId = id;
+    }
+
+    if (size == ring.length) {
+      // Full - overwrite the oldest.
+      final Uuid dropped = ring[head].team();
+      final TeamIndex droppedIndex = byTeam.get(dropped);
+      droppedIndex.removeFirst();
+      if (droppedIndex.size() == 0) {
+        byTeam.remove(dropped);
+      }
+      ring[head] = bundle;
+      head = (head + 1) % ring.length;
+      oldestId += 1;
+    } else {
+      ring[(head + size) % ring.length] = bundle;
+      size += 1;
+    }
+
+    TeamIndex index = byTeam.get(bundle.team());
+    if (index == null) {
+      index = new TeamIndex();
+      byTeam.put(bundle.team(), index);
+    }
+    index.add(id);
+  }
+
+  // READ
+  //
+  // Up to "limit" bundles that come after "after". If "after" is not in the
+  // history (it is NULL, was dropped, or was never from this relay) reading
+  // starts from the oldest bundle.
+  public Collection<Relay.Bundle> read(Uuid after, int limit) {
+
+    final long first = start(after);
+    final Collection<Relay.Bundle> found = readLog(first, limit, null);
+
+    final int start = (int) (Math.max(first, oldestId) - oldestId);
+    final int count = Math.max(0, Math.min(limit - found.size(), size - start));
+
+    for (int i = 0; i < count; i++) {
+      found.add(ring[(head + start + i) % ring.length]);
+    }
+
+    return found;
+  }
+
+  // READ
+  //
+  // The same as "read" above, but only bundles written by one of "teams" are
+  // returned. The teams' indexes are merged in id order, so the cost depends
+  // on the number of teams and "limit", not on how much other teams wrote.
+  public Collection<Relay.Bundle> read(Uuid after, int limit, Collection<Uuid> teams) {
+
+    final long first = start(after);
+    final Collection<Relay.Bundle> found = readLog(first, limit, teams);
+
+    final long start = Math.max(first, oldestId);
+
+    final Collection<TeamIndex> indexes = new ArrayList<>();
+    for (final Uuid team : teams) {
+      final TeamIndex index = byTeam.get(team);
+      if (index != null) {
+        indexes.add(index);
+      }
+    }
+
+    final TeamIndex[] merging = indexes.toArray(new TeamIndex[indexes.size()]);
+    final int[] next = new int[merging.length];
+    for (int i = 0; i < merging.length; i++) {
+      next[i] = merging[i].after(start - 1);
+    }
+
+    while (found.size() < limit) {
+
+      int lowest = -1;
+      for (int i = 0; i < merging.length; i++) {
+        if (next[i] < merging[i].size() &&
+            (lowest < 0 || merging[i].get(next[i]) < merging[lowest].get(next[lowest]))) {
+          lowest = i;
+        }
+      }
+
+      if (lowest < 0) {
+        break;
+      }
+
+      final long sequence = merging[lowest].get(next[lowest]);
+      found.add(ring[(int) ((head + (sequence - oldestId)) % ring.length)]);
+      next[lowest] += 1;
+    }
+
+    return found;
+  }
+
+  // The sequence number of the first bundle to return when reading after
+  // "after". If "after" is not in the history, that is the oldest bundle.
+  private long start(Uuid after) {
+
+    final long id = sequence(after);
+
+    if (log == null || log.isEmpty()) {
+      return (size > 0 && id >= oldestId && id < oldestId + size) ? id + 1 : oldestId;
+    }
+
+    final long first = size > 0 ? Math.min(log.first(), oldestId) : log.first();
+    return (id >= first && id <= last()) ? id + 1 : first;
+  }
+
+  // The bundles from "start" that are older than the ring and have to come
+  // from the log. If the log can not be read they are skipped, the bundles
+  // in the ring are still good.
+  private Collection<Relay.Bundle> readLog(long start, int limit, Collection<Uuid> teams) {
+
+    final long cached = size > 0 ? oldestId : last() + 1;
+
+    if (log != null && start < cached) {
+      try {
+        return log.read(start, cached, limit, teams);
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to read the relay history from %d", start);
+      }
+    }
+
+    return new ArrayList<>();
+  }
+
+  private void grow() {
+
+    final Relay.Bundle[] larger = new Relay.Bundle[(int) Math.min((long) capacity, 2L * ring.length)];
+
+    for (int i = 0; i < size; i++) {
+      larger[i] = ring[(head + i) % ring.length];
+    }
+
+    ring = larger;
+    head = 0;
+  }
+
+  // Bundle ids are single link Uuids holding a positive int. Anything else
+  // maps to -1, which is never in the history.
+  static long sequence(Uuid id) {
+    return (id == null || id.root() != null) ? -1 : id.id() & 0xFFFFFFFFL;
+  }
+}
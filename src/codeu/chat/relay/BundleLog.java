@@ -0,0 +1,463 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.BufferInputStream;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Uuid;
+
+// BUNDLE LOG
+//
+// The relay's history on disk. Bundles are appended to a series of segment
+// files named "segment.<first sequence number>.log". Each record is written
+// as:
+//
+//   [ length : int ][ checksum : int ][ bundle : length bytes ]
+//
+// where the checksum is the CRC32 of the bundle. Once a segment is larger than
+// "segmentBytes" it is sealed and the next bundle starts a new one.
+//
+// Segments are read by mapping them into memory, not by reading them onto the
+// heap. All that is kept on the heap for a segment is where every
+// INDEX_INTERVAL'th record starts and which teams wrote to it. A read seeks to
+// the closest indexed record and steps forward from there, and a read for some
+// teams skips segments that those teams never wrote to. This lets the log
+// hold days of traffic without the heap growing with it.
+//
+// Each time a segment is sealed, sealed segments are deleted, oldest first,
+// while their newest bundle is older than "retentionMs" or the log is larger
+// than "maxBytes". A limit of zero turns that check off. The segment being
+// written to is never deleted.
+//
+// When opened, every record is checked. As with the server's Journal, a record
+// that is cut short or fails its checksum marks the end of the log and
+// everything after it is dropped.
+final class BundleLog implements Closeable {
+
+  private static final Logger.Log LOG = Logger.newLog(BundleLog.class);
+
+  private static final int INDEX_INTERVAL = 64;
+
+  // Record offsets are kept as ints, so a segment must stay well under 2GB.
+  private static final long MAX_SEGMENT_BYTES = 1024L * 1024 * 1024;
+
+  private static final String PREFIX = "segment.";
+  private static final String SUFFIX = ".log";
+
+  private static final class Segment {
+
+    public final File file;
+    public final long first;
+
+    public int count = 0;
+    public long size = 0;
+    public long newest = 0;
+
+    // The offset of records 0, INDEX_INTERVAL, 2 * INDEX_INTERVAL, ...
+    public int[] index = new int[16];
+
+    public final Set<Uuid> teams = new HashSet<>();
+
+    private MappedByteBuffer mapped;
+
+    public Segment(File file, long first) {
+      this.file = file;
+      this.first = first;
+    }
+
+    public void added(long offset, int length, Relay.Bundle bundle) {
+
+      if (count % INDEX_INTERVAL == 0) {
+        final int slot = count / INDEX_INTERVAL;
+        if (slot == index.length) {
+          index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[slot] = (int) offset;
+      }
+
+      count += 1;
+      size = offset + 8 + length;
+      newest = Math.max(newest, bundle.time().inMs());
+      teams.add(bundle.team());
+    }
+
+    // A view of the whole segment. The segment that is being written to is
+    // mapped again when it has grown since it was last mapped.
+    public ByteBuffer map() throws IOException {
+      if (mapped == null || mapped.capacity() < size) {
+        try (final RandomAccessFile in = new RandomAccessFile(file, "r")) {
+          mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+      }
+      final ByteBuffer view = mapped.duplicate();
+      view.limit((int) size);
+      return view;
+    }
+  }
+
+  private final File directory;
+  private final long segmentBytes;
+  private final long retentionMs;
+  private final long maxBytes;
+
+  private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+
+  private long totalBytes = 0;
+
+  // The channel for the last segment, or null if there are no segments.
+  // Volatile so that "sync" can be called without the caller's lock.
+  private volatile FileChannel out;
+
+  public BundleLog(File directory, long segmentBytes, long retentionMs, long maxBytes)
+      throws IOException {
+
+    this.directory = directory;
+    this.segmentBytes = Math.max(1, Math.min(segmentBytes, MAX_SEGMENT_BYTES));
+    this.retentionMs = Math.max(0, retentionMs);
+    this.maxBytes = Math.max(0, maxBytes);
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create relay history directory " + directory);
+    }
+
+    load();
+
+    if (!segments.isEmpty()) {
+      out = openForAppend(segments.lastEntry().getValue());
+    }
+
+    trim(System.currentTimeMillis());
+  }
+
+  public boolean isEmpty() {
+    return segments.isEmpty();
+  }
+
+  // FIRST
+  //
+  // The sequence number of the oldest bundle in the log. Only valid when the
+  // log is not empty.
+  public long first() {
+    return segments.firstKey();
+  }
+
+  // LAST
+  //
+  // The sequence number of the newest bundle in the log. Only valid when the
+  // log is not empty.
+  public long last() {
+    final Segment segment = segments.lastEntry().getValue();
+    return segment.first + segment.count - 1;
+  }
+
+  public long bytes() {
+    return totalBytes;
+  }
+
+  // APPEND
+  //
+  // Add a bundle to the end of the log. Its sequence number must be one more
+  // than the last bundle's. The bundle is handed to the operating system
+  // straight away but is not forced to disk until "sync".
+  public void append(Relay.Bundle bundle) throws IOException {
+
+    final long sequence = BundleHistory.sequence(bundle.id());
+
+    if (!isEmpty() && sequence != last() + 1) {
+      throw new IllegalArgumentException(String.format(
+          "Bundle %s does not follow bundle %d", bundle.id(), last()));
+    }
+
+    if (isEmpty() || segments.lastEntry().getValue().size >= segmentBytes) {
+      roll(sequence);
+    }
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(new byte[8]);
+    ServerFrontEnd.BUNDLE_SERIALIZER.write(bytes, bundle);
+
+    final ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+    final int length = record.capacity() - 8;
+
+    final CRC32 checksum = new CRC32();
+    checksum.update(record.array(), 8, length);
+
+    record.putInt(0, length);
+    record.putInt(4, (int) checksum.getValue());
+
+    final Segment segment = segments.lastEntry().getValue();
+    final long offset = segment.size;
+
+    while (record.hasRemaining()) {
+      out.write(record, offset + record.position());
+    }
+
+    segment.added(offset, length, bundle);
+    totalBytes += 8 + length;
+  }
+
+  // SYNC
+  //
+  // Force every appended bundle to disk. Unlike the rest of the log this may
+  // run while another thread appends, so the caller does not have to hold its
+  // lock while waiting on the disk.
+  public void sync() throws IOException {
+    final FileChannel current = out;
+    if (current != null) {
+      try {
+        current.force(false);
+      } catch (ClosedChannelException ex) {
+        // The segment was sealed (or the log closed) after "current" was read.
+        // Closing forces the channel first, so everything is on disk already.
+      }
+    }
+  }
+
+  // READ
+  //
+  // Up to "limit" bundles with sequence numbers from "from" up to, but not
+  // including, "to". If "teams" is not null, only bundles written by those
+  // teams are returned.
+  public Collection<Relay.Bundle> read(long from, long to, int limit, Collection<Uuid> teams)
+      throws IOException {
+
+    final Collection<Relay.Bundle> found = new ArrayList<>();
+
+    if (isEmpty() || limit <= 0 || from >= to) {
+      return found;
+    }
+
+    final Long floor = segments.floorKey(from);
+
+    for (final Segment segment : segments.tailMap(floor == null ? from : floor, true).values()) {
+
+      if (segment.first >= to || found.size() >= limit) {
+        break;
+      }
+
+      if (teams != null && Collections.disjoint(segment.teams, teams)) {
+        continue;
+      }
+
+      final int skip = (int) Math.max(0, from - segment.first);
+      if (skip >= segment.count) {
+        continue;
+      }
+
+      final ByteBuffer buffer = segment.map();
+      buffer.position(segment.index[skip / INDEX_INTERVAL]);
+
+      for (int i = skip - skip % INDEX_INTERVAL; i < skip; i++) {
+        buffer.position(buffer.position() + 8 + buffer.getInt(buffer.position()));
+      }
+
+      for (long sequence = segment.first + skip;
+           sequence < segment.first + segment.count && sequence < to && found.size() < limit;
+           sequence++) {
+
+        final int length = buffer.getInt();
+        buffer.getInt();  // checksum, checked when the segment was loaded
+
+        final ByteBuffer payload = buffer.slice();
+        payload.limit(length);
+        buffer.position(buffer.position() + length);
+
+        final Relay.Bundle bundle = ServerFrontEnd.BUNDLE_SERIALIZER.read(new BufferInputStream(payload));
+
+        if (teams == null || teams.contains(bundle.team())) {
+          found.add(bundle);
+        }
+      }
+    }
+
+    return found;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (out != null) {
+      out.force(false);
+      out.close();
+      out = null;
+    }
+  }
+
+  // Seal the last segment and start a new one whose first bundle will be
+  // "sequence".
+  private void roll(long sequence) throws IOException {
+
+    close();
+
+    final Segment segment = new Segment(new File(directory, PREFIX + sequence + SUFFIX), sequence);
+    segments.put(sequence, segment);
+    out = openForAppend(segment);
+
+    LOG.info("Started relay history segment %s", segment.file);
+
+    trim(System.currentTimeMillis());
+  }
+
+  private void trim(long now) {
+
+    while (segments.size() > 1) {
+
+      final Segment oldest = segments.firstEntry().getValue();
+
+      final boolean expired = retentionMs > 0 && oldest.newest < now - retentionMs;
+      final boolean tooLarge = maxBytes > 0 && totalBytes > maxBytes;
+
+      if (!expired && !tooLarge) {
+        break;
+      }
+
+      segments.remove(oldest.first);
+      totalBytes -= oldest.size;
+
+      if (oldest.file.delete()) {
+        LOG.info("Deleted relay history segment %s", oldest.file);
+      } else {
+        LOG.warning("Failed to delete relay history segment %s", oldest.file);
+      }
+    }
+  }
+
+  private FileChannel openForAppend(Segment segment) throws IOException {
+    final FileChannel channel = new RandomAccessFile(segment.file, "rw").getChannel();
+    channel.truncate(segment.size);
+    return channel;
+  }
+
+  // Find and check every segment in the directory. Segments must follow on
+  // from each other; a damaged record or a gap ends the log and every
+  // segment after that point is deleted.
+  private void load() throws IOException {
+
+    final NavigableMap<Long, File> files = new TreeMap<>();
+
+    final File[] children = directory.listFiles();
+    for (final File child : children == null ? new File[0] : children) {
+      final String name = child.getName();
+      if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+        try {
+          files.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), child);
+        } catch (NumberFormatException ex) {
+          LOG.warning("Ignoring unexpected file %s in relay history", child);
+        }
+      }
+    }
+
+    boolean ended = false;
+
+    for (final Map.Entry<Long, File> entry : files.entrySet()) {
+
+      final File file = entry.getValue();
+
+      if (!ended && !isEmpty() && entry.getKey() != last() + 1) {
+        LOG.warning("Relay history segment %s does not follow bundle %d", file, last());
+        ended = true;
+      }
+
+      if (ended) {
+        if (!file.delete()) {
+          LOG.warning("Failed to delete relay history segment %s", file);
+        }
+        continue;
+      }
+
+      final Segment segment = new Segment(file, entry.getKey());
+      ended = !check(segment);
+
+      if (segment.count == 0) {
+        file.delete();
+      } else {
+        segments.put(segment.first, segment);
+        totalBytes += segment.size;
+      }
+    }
+  }
+
+  // Step through every record in "segment". Returns false if the segment
+  // ended with a damaged record, in which case the file is cut back to the
+  // last good one.
+  private static boolean check(Segment segment) throws IOException {
+
+    try (final RandomAccessFile file = new RandomAccessFile(segment.file, "rw")) {
+
+      final long length = file.length();
+      final ByteBuffer buffer = file.getChannel().map(
+          FileChannel.MapMode.READ_ONLY, 0, Math.min(length, Integer.MAX_VALUE));
+
+      while (buffer.remaining() >= 8) {
+
+        final int offset = buffer.position();
+        final int recordLength = buffer.getInt();
+        final int expected = buffer.getInt();
+
+        if (recordLength < 0 || recordLength > buffer.remaining()) {
+          break;
+        }
+
+        final byte[] record = new byte[recordLength];
+        buffer.get(record);
+
+        final CRC32 checksum = new CRC32();
+        checksum.update(record, 0, record.length);
+
+        if ((int) checksum.getValue() != expected) {
+          break;
+        }
+
+        final Relay.Bundle bundle = ServerFrontEnd.BUNDLE_SERIALIZER.read(new BufferInputStream(ByteBuffer.wrap(record)));
+
+        if (BundleHistory.sequence(bundle.id()) != segment.first + segment.count) {
+          break;
+        }
+
+        segment.added(offset, recordLength, bundle);
+      }
+
+      if (segment.size < length) {
+        LOG.warning("Relay history segment %s is damaged at %d, dropping the rest of the history",
+                    segment.file,
+                    segment.size);
+        file.setLength(segment.size);
+        return false;
+      }
+
+      return true;
+    }
+  }
+}
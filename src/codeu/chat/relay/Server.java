@@ -14,12 +14,14 @@
 
 package codeu.chat.relay;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
 
 import codeu.chat.common.LinearUuidGenerator;
 import codeu.chat.common.Relay;
@@ -100,18 +102,44 @@ public final class Server implements Relay {
 
   }
 
-  private final Queue<Relay.Bundle> history = new LinkedList<>();
+  // SUBSCRIPTION
+  //
+  // Which teams' bundles a team wants to read. "teams" is empty for every team.
+  private static final class Subscription {
+
+    public final boolean includeSelf;
+    public final Set<Uuid> teams;
+
+    public Subscription(boolean includeSelf, Collection<Uuid> teams) {
+      this.includeSelf = includeSelf;
+      this.teams = new HashSet<>(teams);
+    }
+  }
+
+  private final BundleHistory history;
+
+  // Held while waiting for the history to reach the disk, instead of the lock
+  // on the server.
+  private final Object syncLock = new Object();
   private final Map<Uuid, Secret> teamSecrets = new HashMap<>();
+  private final Map<Uuid, Subscription> subscriptions = new HashMap<>();
 
-  private final int maxHistory;
   private final int maxRead;
 
-  // Okay, some reasoning behind why I'm using a statically initialized linear
-  // generator for the ids for the relay server.
+  // The longest a read will wait for new bundles, no matter what the caller
+  // asks for, so that a waiting connection is never held forever.
+  public static final long MAX_WAIT_MS = 30000;
+
+  // Okay, some reasoning behind why I'm using a linear generator for the ids
+  // for the relay server.
   //
   //   Point A : The ids only need to be uniqiue for a single run time of the
   //             relay. Ids from the relay are only used as a position into its
-  //             history. If it repeats an id its not a problem.
+  //             history. If it repeats an id its not a problem. Since they
+  //             count up by one, the history can find a bundle from its id
+  //             without searching (see BundleHistory). When the history is
+  //             kept on disk the generator starts after the last bundle in it,
+  //             so a server's cursor is still good after the relay restarts.
   //
   //   Point B : The chance that the history would be so long that an id could
   //             be reused and appear along side's twin is way too small. The
@@ -123,17 +151,38 @@ public final class Server implements Relay {
   // As a side note, the ids start at 1 and not 0 to avoid the first id from
   // matching the NULL id which is defined as (null, 0);
 
- private final Uuid.Generator idGenerator = new LinearUuidGenerator(null, 1, Integer.MAX_VALUE);
+  private final Uuid.Generator idGenerator;
+
+  // The size of each file of history on disk.
+  private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
 
   // SERVER
   //
   // When initializing the server keep the following in mind.
-  //   - Keep "maxHistory" small enough to avoid using too much memory.
+  //   - Keep "maxHistory" small enough to avoid using too much memory. Reads
+  //     do not get slower as it grows.
   //   - Keep "maxRead" small enough to avoid any one client from connecting to
   //     the server for too long.
   public Server(int maxHistory, int maxRead) {
-    this.maxHistory = Math.max(0, maxHistory);
+    this(new BundleHistory(maxHistory), maxRead);
+  }
+
+  // SERVER
+  //
+  // A server whose history is kept in "directory" as well as in memory. The
+  // newest "maxHistory" bundles are held in memory and the rest are read from
+  // disk. Bundles are kept on disk until they are older than "retentionMs" or
+  // there are more than "maxBytes" of them (zero for no limit).
+  public Server(int maxHistory, int maxRead, File directory, long retentionMs, long maxBytes)
+      throws IOException {
+    this(new BundleHistory(maxHistory, new BundleLog(directory, SEGMENT_BYTES, retentionMs, maxBytes)),
+         maxRead);
+  }
+
+  private Server(BundleHistory history, int maxRead) {
     this.maxRead = Math.max(0, maxRead);
+    this.history = history;
+    this.idGenerator = new LinearUuidGenerator(null, (int) Math.max(1, history.last()), Integer.MAX_VALUE);
   }
 
   // ADD TEAM
@@ -141,7 +190,7 @@ public final class Server implements Relay {
   // Let the relay know of a team's secret so that it will accept messages from that
   // team. If there is already a team entry, the secret will NOT be updated and the
   // call will return false.
-  public boolean addTeam(Uuid id, Secret secret) {
+  public synchronized boolean addTeam(Uuid id, Secret secret) {
 
     LOG.info("Adding team to relay %s", id);
 
@@ -163,6 +212,21 @@ public final class Server implements Relay {
     return new Component(id, text, time);
   }
 
+  @Override
+  public Relay.Packet pack(final Relay.Bundle.Component user,
+                           final Relay.Bundle.Component conversation,
+                           final Relay.Bundle.Component message) {
+
+    return new Relay.Packet() {
+      @Override
+      public Relay.Bundle.Component user() { return user; }
+      @Override
+      public Relay.Bundle.Component conversation() { return conversation; }
+      @Override
+      public Relay.Bundle.Component message() { return message; }
+    };
+  }
+
   @Override
   public boolean write(Uuid teamId,
                        Secret teamSecret,
@@ -170,43 +234,132 @@ public final class Server implements Relay {
                        Relay.Bundle.Component conversation,
                        Relay.Bundle.Component message) {
 
-    if (authenticate(teamId, teamSecret)) {
+    synchronized (this) {
 
-      LOG.info(
-          "Writing to server team=%s user=%s conversation=%s message=%s",
-          teamId,
-          user.id(),
-          conversation.id(),
-          message.id());
+      if (!authenticate(teamId, teamSecret)) {
+
+        LOG.warning(
+            "Unauthorized write attempt to server team=%s user=%s conversation=%s message=%s",
+            teamId,
+            user.id(),
+            conversation.id(),
+            message.id());
 
-      if (history.size() >= maxHistory) {
-         history.remove();
+        return false;
       }
 
-      return history.offer(new Bundle(
-          idGenerator.make(),
-          Time.now(),
-          teamId,
-          user,
-          conversation,
-          message));
-    } else {
+      if (!valid(user, conversation, message)) {
+        LOG.warning("Refusing incomplete write from team=%s", teamId);
+        return false;
+      }
 
-      LOG.warning(
-          "Unauthorized write attempt to server team=%s user=%s conversation=%s message=%s",
-          teamId,
-          user.id(),
-          conversation.id(),
-          message.id());
+      add(teamId, user, conversation, message);
+    }
 
-      return false;
+    sync();
+
+    return true;
+  }
+
+  @Override
+  public boolean write(Uuid teamId, Secret teamSecret, Collection<Relay.Packet> packets) {
+
+    synchronized (this) {
+
+      if (!authenticate(teamId, teamSecret)) {
+
+        LOG.warning(
+            "Unauthorized batch write attempt to server team=%s size=%d",
+            teamId,
+            packets.size());
+
+        return false;
+      }
+
+      // Check the whole batch before adding any of it, so that a bad packet
+      // can not leave part of the batch in the history. Once checked, adding
+      // can not fail (a history that can not write to disk carries on in
+      // memory).
+      for (final Relay.Packet packet : packets) {
+        if (packet == null || !valid(packet.user(), packet.conversation(), packet.message())) {
+          LOG.warning("Refusing batch with an incomplete packet from team=%s", teamId);
+          return false;
+        }
+      }
+
+      LOG.info("Writing batch to server team=%s size=%d", teamId, packets.size());
+
+      for (final Relay.Packet packet : packets) {
+        add(teamId, packet.user(), packet.conversation(), packet.message());
+      }
     }
+
+    // One sync for the whole batch.
+    sync();
+
+    return true;
+  }
+
+  // SYNC
+  //
+  // Force what has been added to disk, then wake up any reads that are waiting
+  // for something new. The disk is waited on outside the lock so that reads and
+  // other writes carry on meanwhile; syncs are still done one at a time and a
+  // sync covers everything added before it started.
+  private void sync() {
+
+    final boolean synced;
+
+    synchronized (syncLock) {
+      synced = history.sync();
+    }
+
+    synchronized (this) {
+      if (!synced) {
+        history.close();
+      }
+      notifyAll();
+    }
+  }
+
+  private static boolean valid(Relay.Bundle.Component user,
+                               Relay.Bundle.Component conversation,
+                               Relay.Bundle.Component message) {
+    return valid(user) && valid(conversation) && valid(message);
+  }
+
+  private static boolean valid(Relay.Bundle.Component component) {
+    return component != null &&
+           component.id() != null &&
+           component.text() != null &&
+           component.time() != null;
+  }
+
+  private void add(Uuid teamId,
+                   Relay.Bundle.Component user,
+                   Relay.Bundle.Component conversation,
+                   Relay.Bundle.Component message) {
+
+    LOG.info(
+        "Writing to server team=%s user=%s conversation=%s message=%s",
+        teamId,
+        user.id(),
+        conversation.id(),
+        message.id());
+
+    history.add(new Bundle(
+        idGenerator.make(),
+        Time.now(),
+        teamId,
+        user,
+        conversation,
+        message));
   }
 
   @Override
-  public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
+  public synchronized Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
 
-    final Collection<Relay.Bundle> found = new ArrayList<>();
+    Collection<Relay.Bundle> found = new ArrayList<>();
 
     if (authenticate(teamId, teamSecret)) {
 
@@ -215,19 +368,11 @@ public final class Server implements Relay {
           range,
           maxRead);
 
-      for (final Relay.Bundle message : history) {
+      final Subscription subscription = subscriptions.get(teamId);
 
-        // Only add a message if there is room. We cannot stop
-        // searching in case we see the root later on.
-        if (found.size() < Math.min(range, maxRead)) {
-          found.add(message);
-        }
-
-        // If the start is found, drop all previous messages.
-        if (message.id().equals(root)) {
-          found.clear();
-        }
-      }
+      found = subscription == null ?
+          history.read(root, Math.min(range, maxRead)) :
+          history.read(root, Math.min(range, maxRead), subscribedTeams(teamId, subscription));
 
       LOG.info(
           "Read request complete requested=%d fullfilled=%d",
@@ -244,6 +389,76 @@ public final class Server implements Relay {
     return found;
   }
 
+  @Override
+  public synchronized Collection<Relay.Bundle> read(Uuid teamId,
+                                                    Secret teamSecret,
+                                                    Uuid root,
+                                                    int range,
+                                                    long timeoutMs) {
+
+    final long deadline = System.currentTimeMillis() + Math.min(Math.max(0, timeoutMs), MAX_WAIT_MS);
+
+    Collection<Relay.Bundle> found = read(teamId, teamSecret, root, range);
+
+    // Nothing is ever sent to a team that can not authenticate, so there is
+    // no point in making it wait.
+    while (found.isEmpty() && authenticate(teamId, teamSecret)) {
+
+      final long remaining = deadline - System.currentTimeMillis();
+
+      if (remaining <= 0) {
+        break;
+      }
+
+      try {
+        wait(remaining);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+
+      found = read(teamId, teamSecret, root, range);
+    }
+
+    return found;
+  }
+
+  @Override
+  public synchronized boolean subscribe(Uuid teamId, Secret teamSecret, boolean includeSelf, Collection<Uuid> teams) {
+
+    if (authenticate(teamId, teamSecret)) {
+
+      LOG.info(
+          "Subscribing team=%s includeSelf=%s teams=%d",
+          teamId,
+          includeSelf,
+          teams.size());
+
+      subscriptions.put(teamId, new Subscription(includeSelf, teams));
+      return true;
+
+    } else {
+
+      LOG.warning("Unauthorized attempt to subscribe team=%s", teamId);
+      return false;
+    }
+  }
+
+  // The teams whose bundles "team" should read. Only known teams can write,
+  // so when a subscription does not list any teams every known team is used.
+  private Collection<Uuid> subscribedTeams(Uuid team, Subscription subscription) {
+
+    final Set<Uuid> teams = new HashSet<>(subscription.teams.isEmpty() ?
+                                          teamSecrets.keySet() :
+                                          subscription.teams);
+
+    if (!subscription.includeSelf) {
+      teams.remove(team);
+    }
+
+    return teams;
+  }
+
   private boolean authenticate(Uuid id, Secret secret) {
     return id != null && secret != null && secret.equals(teamSecrets.get(id));
   }
@@ -63,7 +63,36 @@ public final class ServerFrontEnd {
     }
   };
 
-  private static final Serializer<Relay.Bundle> BUNDLE_SERIALIZER =
+  private static final Serializer<Relay.Packet> PACKET_SERIALIZER =
+      new Serializer<Relay.Packet>() {
+
+    @Override
+    public Relay.Packet read(InputStream in) throws IOException {
+
+      final Relay.Bundle.Component user = COMPONENT_SERIALIZER.read(in);
+      final Relay.Bundle.Component conversation = COMPONENT_SERIALIZER.read(in);
+      final Relay.Bundle.Component message = COMPONENT_SERIALIZER.read(in);
+
+      return new Relay.Packet() {
+        @Override
+        public Relay.Bundle.Component user() { return user; }
+        @Override
+        public Relay.Bundle.Component conversation() { return conversation; }
+        @Override
+        public Relay.Bundle.Component message() { return message; }
+      };
+    }
+
+    @Override
+    public void write(OutputStream out, Relay.Packet value) throws IOException {
+      COMPONENT_SERIALIZER.write(out, value.user());
+      COMPONENT_SERIALIZER.write(out, value.conversation());
+      COMPONENT_SERIALIZER.write(out, value.message());
+    }
+  };
+
+  // BundleLog writes bundles to disk in the same form they are sent in.
+  static final Serializer<Relay.Bundle> BUNDLE_SERIALIZER =
       new Serializer<Relay.Bundle>() {
 
     @Override
@@ -116,6 +145,9 @@ public final class ServerFrontEnd {
     switch (Serializers.INTEGER.read(connection.in())) {
       case NetworkCode.RELAY_READ_REQUEST: handleReadMessage(connection); break;
       case NetworkCode.RELAY_WRITE_REQUEST: handleWriteMessage(connection); break;
+      case NetworkCode.RELAY_SUBSCRIBE_REQUEST: handleSubscribeMessage(connection); break;
+      case NetworkCode.RELAY_WAIT_REQUEST: handleWaitMessage(connection); break;
+      case NetworkCode.RELAY_WRITE_BATCH_REQUEST: handleWriteBatchMessage(connection); break;
     }
 
     LOG.info("Handling Connection - end");
@@ -146,6 +178,33 @@ public final class ServerFrontEnd {
     LOG.info("Handling Read Message - end");
   }
 
+  private void handleWaitMessage(Connection connection) throws IOException {
+
+    LOG.info("Handling Wait Message - start");
+
+    final Uuid teamId = Uuid.SERIALIZER.read(connection.in());
+    final Secret teamSecret = Secret.SERIALIZER.read(connection.in());
+    final Uuid root = Uuid.SERIALIZER.read(connection.in());
+    final int range = Serializers.INTEGER.read(connection.in());
+    final long timeoutMs = Serializers.LONG.read(connection.in());
+
+    LOG.info(
+        "Waiting team=%s root=%s range=%d timeout=%d",
+        teamId,
+        root,
+        range,
+        timeoutMs);
+
+    final Collection<Relay.Bundle> result = backEnd.read(teamId, teamSecret, root, range, timeoutMs);
+
+    LOG.info("Waiting result.size=%d", result.size());
+
+    Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_RESPONSE);
+    Serializers.collection(BUNDLE_SERIALIZER).write(connection.out(), result);
+
+    LOG.info("Handling Wait Message - end");
+  }
+
   private void handleWriteMessage(Connection connection) throws IOException {
 
     LOG.info("Handling Write Message - start");
@@ -176,4 +235,43 @@ public final class ServerFrontEnd {
 
     LOG.info("Handling Write Message - end");
   }
+
+  private void handleWriteBatchMessage(Connection connection) throws IOException {
+
+    LOG.info("Handling Write Batch Message - start");
+
+    final Uuid teamId = Uuid.SERIALIZER.read(connection.in());
+    final Secret teamSecret = Secret.SERIALIZER.read(connection.in());
+    final Collection<Relay.Packet> packets = Serializers.collection(PACKET_SERIALIZER).read(connection.in());
+
+    LOG.info("Writing batch team=%s size=%d", teamId, packets.size());
+
+    final boolean result = backEnd.write(teamId, teamSecret, packets);
+
+    LOG.info("Writing batch result=%s", result ? "success" : "fail");
+
+    Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WRITE_BATCH_RESPONSE);
+    Serializers.BOOLEAN.write(connection.out(), result);
+
+    LOG.info("Handling Write Batch Message - end");
+  }
+
+  private void handleSubscribeMessage(Connection connection) throws IOException {
+
+    LOG.info("Handling Subscribe Message - start");
+
+    final Uuid teamId = Uuid.SERIALIZER.read(connection.in());
+    final Secret teamSecret = Secret.SERIALIZER.read(connection.in());
+    final boolean includeSelf = Serializers.BOOLEAN.read(connection.in());
+    final Collection<Uuid> teams = Serializers.collection(Uuid.SERIALIZER).read(connection.in());
+
+    final boolean result = backEnd.subscribe(teamId, teamSecret, includeSelf, teams);
+
+    LOG.info("Subscribing result=%s", result ? "success" : "fail");
+
+    Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_SUBSCRIBE_RESPONSE);
+    Serializers.BOOLEAN.write(connection.out(), result);
+
+    LOG.info("Handling Subscribe Message - end");
+  }
 }
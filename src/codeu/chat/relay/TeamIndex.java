@@ -0,0 +1,85 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+// TEAM INDEX
+//
+// The sequence numbers of the bundles in the history that were written by one
+// team, oldest first. It is kept alongside the history's ring so that a read
+// that only wants some teams' bundles can jump straight to them instead of
+// stepping over everyone else's.
+final class TeamIndex {
+
+  private static final int INITIAL_SLOTS = 16;
+
+  private long[] ring = new long[INITIAL_SLOTS];
+  private int head = 0;
+  private int size = 0;
+
+  public int size() {
+    return size;
+  }
+
+  public long get(int position) {
+    return ring[(head + position) % ring.length];
+  }
+
+  public void add(long sequence) {
+
+    if (size == ring.length) {
+      final long[] larger = new long[ring.length * 2];
+      for (int i = 0; i < size; i++) {
+        larger[i] = get(i);
+      }
+      ring = larger;
+      head = 0;
+    }
+
+    ring[(head + size) % ring.length] = sequence;
+    size += 1;
+  }
+
+  // REMOVE FIRST
+  //
+  // Forget the oldest sequence number. Called when the history drops the
+  // bundle it points to.
+  public void removeFirst() {
+    if (size > 0) {
+      head = (head + 1) % ring.length;
+      size -= 1;
+    }
+  }
+
+  // AFTER
+  //
+  // The position of the first sequence number greater than "sequence", or
+  // "size()" if there is none.
+  public int after(long sequence) {
+
+    int low = 0;
+    int high = size;
+
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (get(middle) <= sequence) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    return low;
+  }
+}
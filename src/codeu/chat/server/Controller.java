@@ -15,7 +15,6 @@
 package codeu.chat.server;
 
 import java.io.File;
-import java.util.LinkedHashSet;
 
 import codeu.chat.common.BasicController;
 import codeu.chat.common.ConversationHeader;
@@ -47,38 +46,16 @@ public final class Controller implements RawController, BasicController {
   public Controller(Uuid serverId, Model model) {
     this.model = model;
     this.uuidGenerator = new RandomUuidGenerator(serverId, System.currentTimeMillis());
-    this.localFile = new LocalFile(new File("."));
+    this.localFile = new LocalFile(new File("."), model);
   }
-  //New constructor, which can get the local file information.
+  //New constructor, which can get the local file information. The local file
+  //must have been created with the same model, it has already loaded its
+  //saved data into it.
   public Controller(Uuid serverId, Model model,LocalFile localFile) {
     this.model = model;
     this.uuidGenerator = new RandomUuidGenerator(serverId, System.currentTimeMillis());
     
     this.localFile = localFile;//The path is assigned by server.
-
-    LinkedHashSet<User> localUsers = localFile.getUsers();
-    LinkedHashSet<ConversationHeader> localConversations = localFile.getConversationHeaders();
-    LinkedHashSet<Message> localMessages = localFile.getMessages();
-    LinkedHashSet<AuthorityBuffer> localAuthority = localFile.getauthorityList();
-    
-    for(User item : localUsers)
-    {
-      newUser(item.id, item.name, item.creation);
-    }
-
-    for(ConversationHeader item : localConversations)
-    {
-      newConversation(item.id, item.title, item.owner, item.creation);
-    }
-
-    for(Message item : localMessages)
-    {
-      newMessage(item.id, item.author, new ConversationUuid(item.conversation), item.content, item.creation);
-    }
-    for(AuthorityBuffer item : localAuthority)
-    {
-      model.initializeAuthority(item.conversation, item.user, item.authorityByte);
-    }
   }
 
   @Override
@@ -118,45 +95,58 @@ public final class Controller implements RawController, BasicController {
   @Override
   public Message newMessage(Uuid id, Uuid author, ConversationUuid chatId, String body, Time creationTime) {
     Uuid conversation = chatId.root();
-    final User foundUser = model.userById().first(author);
     final ConversationPayload foundConversation = model.conversationPayloadById().first(conversation);
 
-    Message message = null;
+    if (foundConversation == null) {
+      return null;
+    }
 
-    if (foundUser != null && foundConversation != null && isIdFree(id)) {
+    // Link back to the current last message so that the conversation can be
+    // walked in either direction.
+    return addMessage(
+        new Message(id, Uuid.NULL, foundConversation.lastMessage, creationTime, author, body,conversation));
+  }
 
-      message = new Message(id, Uuid.NULL, Uuid.NULL, creationTime, author, body,conversation);
-      model.add(message);
-      localFile.addMessage(message);
-      LOG.info("Message added: %s", message.id);
+  // Add a message to the end of its conversation. Returns null if the author
+  // or conversation are not known or the id is already used.
+  private Message addMessage(Message message) {
+    final User foundUser = model.userById().first(message.author);
+    final ConversationPayload foundConversation = model.conversationPayloadById().first(message.conversation);
 
-      // Find and update the previous "last" message so that it's "next" value
-      // will point to the new message.
+    if (foundUser == null || foundConversation == null || !isIdFree(message.id)) {
+      return null;
+    }
 
-      if (Uuid.equals(foundConversation.lastMessage, Uuid.NULL)) {
+    model.add(message);
+    localFile.addMessage(message);
+    LOG.verbose("Message added: %s", message.id);
 
-        // The conversation has no messages in it, that's why the last message is NULL (the first
-        // message should be NULL too. Since there is no last message, then it is not possible
-        // to update the last message's "next" value.
+    // Find and update the previous "last" message so that it's "next" value
+    // will point to the new message.
 
-      } else {
-        final Message lastMessage = model.messageById().first(foundConversation.lastMessage);
-        lastMessage.next = message.id;
-      }
+    if (Uuid.equals(foundConversation.lastMessage, Uuid.NULL)) {
 
-      // If the first message points to NULL it means that the conversation was empty and that
-      // the first message should be set to the new message. Otherwise the message should
-      // not change.
+      // The conversation has no messages in it, that's why the last message is NULL (the first
+      // message should be NULL too. Since there is no last message, then it is not possible
+      // to update the last message's "next" value.
 
-      foundConversation.firstMessage =
-          Uuid.equals(foundConversation.firstMessage, Uuid.NULL) ?
-          message.id :
-          foundConversation.firstMessage;
+    } else {
+      final Message lastMessage = model.messageById().first(foundConversation.lastMessage);
+      lastMessage.next = message.id;
+    }
 
-      // Update the conversation to point to the new last message as it has changed.
+    // If the first message points to NULL it means that the conversation was empty and that
+    // the first message should be set to the new message. Otherwise the message should
+    // not change.
 
-      foundConversation.lastMessage = message.id;
-    }
+    foundConversation.firstMessage =
+        Uuid.equals(foundConversation.firstMessage, Uuid.NULL) ?
+        message.id :
+        foundConversation.firstMessage;
+
+    // Update the conversation to point to the new last message as it has changed.
+
+    foundConversation.lastMessage = message.id;
 
     return message;
   }
@@ -171,7 +161,7 @@ public final class Controller implements RawController, BasicController {
       user = new User(id, name, creationTime);
       model.add(user);
       localFile.addUser(user);
-      LOG.info(
+      LOG.verbose(
           "newUser success (user.id=%s user.name=%s user.time=%s)",
           id,
           name,
@@ -179,7 +169,7 @@ public final class Controller implements RawController, BasicController {
 
     } else {
 
-      LOG.info(
+      LOG.verbose(
           "newUser fail - id in use (user.id=%s user.name=%s user.time=%s)",
           id,
           name,
@@ -198,7 +188,7 @@ public final class Controller implements RawController, BasicController {
       conversation = new ConversationHeader(id, owner, creationTime, title); 
       model.add(conversation);
       localFile.addConversationHeader(conversation);
-      LOG.info("Conversation added: " + id);
+      LOG.verbose("Conversation added: %s", id);
     }
     
     return conversation;
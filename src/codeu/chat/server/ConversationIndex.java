@@ -0,0 +1,233 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// CONVERSATION INDEX
+//
+// The messages of one conversation in the order they were added. Messages are
+// kept in a growable array with a map from message id to position, so getting
+// the last few messages or a run of messages after a known one does not need
+// any store lookups.
+//
+// Messages normally arrive in time order, which allows seeking by time with a
+// binary search. Messages from the relay can arrive late, so if one is ever
+// added out of order the index falls back to a linear scan.
+//
+// The content of the messages is also indexed by term (see TextIndex) so the
+// conversation can be searched. A message added while the server runs has its
+// content on the heap and is indexed as it is added. Messages loaded at
+// startup are not: their content was left on disk (see LocalFile) and reading
+// all of it would hold up the start. They go in an index of their own, built
+// by "indexSaved" in the background once the server has started, or by the
+// first search that gets to the conversation before it does.
+//
+// One thread may add while others read. A message is written into the array
+// before "size" is raised to include it, and readers read "size" first, so a
+// reader never sees a position that is not filled in yet.
+final class ConversationIndex {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Map<Uuid, Integer> positions = new ConcurrentHashMap<>();
+
+  private volatile Message[] messages = new Message[INITIAL_CAPACITY];
+  private volatile int size = 0;
+  private volatile boolean timeOrdered = true;
+
+  // Messages below position "saved" were loaded at startup and are in
+  // "savedText" once it is built. The rest are in "text".
+  private volatile int saved = 0;
+  private volatile TextIndex savedText;
+  private final TextIndex text = new TextIndex();
+
+  public void add(Message message) {
+    insert(message, true);
+  }
+
+  // ADD SAVED
+  //
+  // Add a message loaded at startup without reading its content. Saved
+  // messages must all be added before any others.
+  public void addSaved(Message message) {
+    insert(message, false);
+  }
+
+  // INDEX SAVED
+  //
+  // Build the text index of the messages loaded at startup, if it is not
+  // built yet. Adds and searches never wait for this unless a search gets to
+  // the conversation first, and then only until it is built.
+  public void indexSaved() {
+    if (savedText != null) {
+      return;
+    }
+    synchronized (this) {
+      if (savedText == null) {
+        final int saved = this.saved;
+        final Message[] messages = this.messages;
+        final TextIndex index = new TextIndex();
+        for (int i = 0; i < saved; i++) {
+          index.add(i, messages[i].content());
+        }
+        savedText = index;
+      }
+    }
+  }
+
+  private void insert(Message message, boolean indexText) {
+
+    final int at = size;
+    Message[] current = messages;
+
+    if (at == current.length) {
+      current = Arrays.copyOf(current, at * 2);
+    }
+
+    if (at > 0 && message.creation.compareTo(current[at - 1].creation) < 0) {
+      timeOrdered = false;
+    }
+
+    current[at] = message;
+    messages = current;
+    positions.put(message.id, at);
+    if (indexText) {
+      text.add(at, message.content());
+    } else {
+      saved = at + 1;
+    }
+    size = at + 1;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public Message get(int position) {
+    final int size = this.size;
+    if (position < 0 || position >= size) {
+      throw new IndexOutOfBoundsException("Position " + position + " of " + size);
+    }
+    return messages[position];
+  }
+
+  // INDEX OF
+  //
+  // The position of the message with the given id, or -1 if it is not in this
+  // conversation.
+  public int indexOf(Uuid id) {
+    final Integer position = positions.get(id);
+    return position == null ? -1 : position;
+  }
+
+  // SEEK
+  //
+  // The position of the first message created at or after "time". Returns
+  // "size()" if there is no such message.
+  public int seek(Time time) {
+
+    final int size = this.size;
+    final Message[] messages = this.messages;
+
+    if (!timeOrdered) {
+      for (int i = 0; i < size; i++) {
+        if (messages[i].creation.compareTo(time) >= 0) {
+          return i;
+        }
+      }
+      return size;
+    }
+
+    int low = 0;
+    int high = size;
+
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (messages[middle].creation.compareTo(time) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    return low;
+  }
+
+  // SEARCH
+  //
+  // Up to "count" of the messages that match "query", skipping the first
+  // "offset" of them. The best matches come first (see TextIndex).
+  public Collection<Message> search(String query, int offset, int count) {
+
+    // Read the size first, the text index may already have a message that is
+    // still being added.
+    final int size = this.size;
+    final Message[] messages = this.messages;
+    final Collection<Message> found = new ArrayList<>();
+
+    indexSaved();
+
+    int skipped = 0;
+    for (final int position : TextIndex.search(query, savedText, text)) {
+      if (found.size() >= count) {
+        break;
+      }
+      if (position < size) {
+        if (skipped < offset) {
+          skipped += 1;
+        } else {
+          found.add(messages[position]);
+        }
+      }
+    }
+
+    return found;
+  }
+
+  // PAGE
+  //
+  // Up to "count" messages starting at "start", walking forward (towards
+  // newer messages) or backward (towards older messages). Messages are
+  // returned in the order they were walked. Starting at "size() - 1" and
+  // walking backward gives the newest messages without touching the rest.
+  public Collection<Message> page(int start, int count, boolean forward) {
+
+    final int size = this.size;
+    final Message[] messages = this.messages;
+    final Collection<Message> page = new ArrayList<>();
+
+    if (forward) {
+      for (int i = Math.max(0, start); i < size && page.size() < count; i++) {
+        page.add(messages[i]);
+      }
+    } else {
+      for (int i = Math.min(size - 1, start); i >= 0 && page.size() < count; i--) {
+        page.add(messages[i]);
+      }
+    }
+
+    return page;
+  }
+}
@@ -0,0 +1,424 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+
+// JOURNAL
+//
+// An append-only file of records. Each record is written as:
+//
+//   [ length : int ][ checksum : int ][ type : byte ][ payload : length - 1 bytes ]
+//
+// where the checksum is the CRC32 of the type and payload. Records are
+// buffered by "write" and only made durable by "commit", which lets many
+// records share one fsync.
+//
+// When reading, a record that is cut short or fails its checksum marks the
+// end of the journal. This is what a crash in the middle of a write looks like
+// and everything before it is still good.
+//
+// A write that fails part way can leave the same thing behind while the
+// server is still running. Anything appended after it would be lost on the
+// next read, so once a write, flush or sync has failed the journal is broken
+// and takes no more records.
+final class Journal implements Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(Journal.class);
+
+  // Guard against trusting a huge length read from a damaged record.
+  private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+  // Files are mapped this much at a time so that a file larger than one
+  // mapping can hold can still be read.
+  private static final long MAP_WINDOW = 1024L * 1024 * 1024;
+
+  // Records are checked and decoded this many at a time.
+  private static final int DECODE_CHUNK = 1024;
+
+  // READER
+  //
+  // "decode" turns a payload into a value and is called from many threads at
+  // once, in any order. "onRecord" is then given each value in the order the
+  // records were written, on one thread.
+  public interface Reader<T> {
+    T decode(byte type, ByteBuffer payload) throws IOException;
+    void onRecord(byte type, T value) throws IOException;
+  }
+
+  private final File file;
+  private final FileOutputStream fileOut;
+  private final OutputStream out;
+
+  private long size;
+  private volatile boolean broken = false;
+
+  public Journal(File file) throws IOException {
+    this(file, new FileOutputStream(file, true /* append */));
+  }
+
+  // "fileOut" must append to "file". Tests use this to make writes fail.
+  Journal(File file, FileOutputStream fileOut) {
+    this.file = file;
+    this.fileOut = fileOut;
+    this.out = new BufferedOutputStream(fileOut);
+    this.size = file.length();
+  }
+
+  public File file() {
+    return file;
+  }
+
+  // SIZE
+  //
+  // The number of bytes in the journal, including records that have been
+  // written but not yet committed.
+  public long size() {
+    return size;
+  }
+
+  // BROKEN
+  //
+  // Whether a write, flush or sync has failed. The file may end with part of
+  // a record and every call that would add to it throws.
+  public boolean broken() {
+    return broken;
+  }
+
+  // WRITE
+  //
+  // Add a record to the end of the journal. The record is not durable until
+  // the next call to "commit".
+  public void write(byte type, byte[] payload) throws IOException {
+
+    checkNotBroken();
+
+    final CRC32 checksum = new CRC32();
+    checksum.update(type);
+    checksum.update(payload, 0, payload.length);
+
+    try {
+      Serializers.INTEGER.write(out, payload.length + 1);
+      Serializers.INTEGER.write(out, (int) checksum.getValue());
+      out.write(type);
+      out.write(payload);
+    } catch (IOException ex) {
+      broken = true;
+      throw ex;
+    }
+
+    size += 9 + payload.length;
+  }
+
+  // FLUSH
+  //
+  // Hand all written records to the operating system. This is cheap and can
+  // be done while holding a lock, the expensive part is left to "sync".
+  public void flush() throws IOException {
+    checkNotBroken();
+    try {
+      out.flush();
+    } catch (IOException ex) {
+      broken = true;
+      throw ex;
+    }
+  }
+
+  // SYNC
+  //
+  // Force everything that has been flushed to disk.
+  public void sync() throws IOException {
+    checkNotBroken();
+    try {
+      fileOut.getFD().sync();
+    } catch (IOException ex) {
+      broken = true;
+      throw ex;
+    }
+  }
+
+  // COMMIT
+  //
+  // Make every record written so far durable.
+  public void commit() throws IOException {
+    flush();
+    sync();
+  }
+
+  // A broken journal is closed without writing out what is left in the
+  // buffer, it could only add to the damage at its end.
+  @Override
+  public void close() throws IOException {
+    if (broken) {
+      fileOut.close();
+    } else {
+      out.close();
+    }
+  }
+
+  private void checkNotBroken() throws IOException {
+    if (broken) {
+      throw new IOException("Journal " + file + " is broken");
+    }
+  }
+
+  // REPLAY
+  //
+  // Read every good record in the file in the order they were written. Returns
+  // the number of bytes that were read without error. If that is less than the
+  // length of the file, the end of the file is damaged.
+  //
+  // The file is mapped into memory and each payload is a view of the mapping
+  // instead of a copy, with its position and limit set around the payload.
+  // The same buffer is used for many records, so a reader that wants to keep
+  // part of it must use "duplicate" and the absolute position. It can still be
+  // read after the file is closed.
+  //
+  // Reading is done in three steps. First the records are found by stepping
+  // from one length to the next, which only touches a few bytes of each one.
+  // Then the records are checked and decoded in chunks on "pool". Finally
+  // "onRecord" is called for each record in order on this thread, up to the
+  // first one that failed its checksum.
+  public static <T> long replay(File file, final Reader<T> reader, ForkJoinPool pool) throws IOException {
+
+    if (!file.exists()) {
+      return 0;
+    }
+
+    try (final RandomAccessFile in = new RandomAccessFile(file, "r")) {
+
+      final Records records = find(file, in.getChannel());
+
+      final Object[] decoded = new Object[records.count];
+      final byte[] types = new byte[records.count];
+      final AtomicInteger firstBad = new AtomicInteger(records.count);
+      final AtomicReference<IOException> error = new AtomicReference<>();
+
+      pool.invoke(new Decode<>(records, reader, decoded, types, firstBad, error, 0, records.count));
+
+      if (error.get() != null) {
+        throw error.get();
+      }
+
+      final int good = firstBad.get();
+
+      if (good < records.count) {
+        LOG.warning("Journal %s has a bad checksum at %d", file, records.position(good));
+      }
+
+      for (int i = 0; i < good; i++) {
+        @SuppressWarnings("unchecked")
+        final T value = (T) decoded[i];
+        reader.onRecord(types[i], value);
+        decoded[i] = null;
+      }
+
+      return good < records.count ? records.position(good) : records.end;
+    }
+  }
+
+  // RECORDS
+  //
+  // Where each record in a file starts. A file is mapped in windows of up to
+  // MAP_WINDOW bytes and each record is wholly inside one window.
+  private static final class Records {
+
+    public final List<ByteBuffer> windows = new ArrayList<>();
+    public final List<Long> windowStarts = new ArrayList<>();
+
+    public int count = 0;
+    public int[] window = new int[1024];
+    public int[] offset = new int[1024];
+
+    // The end of the last record that was found.
+    public long end = 0;
+
+    public void add(int windowIndex, int recordOffset) {
+      if (count == window.length) {
+        window = Arrays.copyOf(window, count * 2);
+        offset = Arrays.copyOf(offset, count * 2);
+      }
+      window[count] = windowIndex;
+      offset[count] = recordOffset;
+      count += 1;
+    }
+
+    public long position(int record) {
+      return windowStarts.get(window[record]) + offset[record];
+    }
+  }
+
+  private static Records find(File file, FileChannel channel) throws IOException {
+
+    final Records records = new Records();
+    final long length = channel.size();
+
+    ByteBuffer window = null;
+    long windowStart = 0;
+
+    while (records.end < length) {
+
+      final long good = records.end;
+
+      if (window == null || good + 8 > windowStart + window.capacity()) {
+        windowStart = good;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, good, Math.min(length - good, MAP_WINDOW));
+        records.windows.add(window);
+        records.windowStarts.add(windowStart);
+      }
+
+      if (good + 8 > windowStart + window.capacity()) {
+        LOG.warning("Journal %s ends with a partial record at %d", file, good);
+        break;
+      }
+
+      final int offset = (int) (good - windowStart);
+      final int recordLength = window.getInt(offset);
+
+      if (recordLength < 1 || recordLength > MAX_RECORD_LENGTH) {
+        LOG.warning("Journal %s has a bad record length at %d", file, good);
+        break;
+      }
+
+      if (good + 8 + recordLength > windowStart + window.capacity()) {
+        if (good + 8 + recordLength > length) {
+          LOG.warning("Journal %s ends with a partial record at %d", file, good);
+          break;
+        }
+        // The record runs past the end of the window, start a new one here.
+        window = null;
+        continue;
+      }
+
+      records.add(records.windows.size() - 1, offset);
+      records.end = good + 8 + recordLength;
+    }
+
+    return records;
+  }
+
+  // DECODE
+  //
+  // Check and decode the records from "from" up to "to", splitting the work
+  // until each part is at most DECODE_CHUNK records. A part stops at the first
+  // record that fails its checksum, everything after that is thrown away.
+  private static final class Decode<T> extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Records records;
+    private final Reader<T> reader;
+    private final Object[] decoded;
+    private final byte[] types;
+    private final AtomicInteger firstBad;
+    private final AtomicReference<IOException> error;
+    private final int from;
+    private final int to;
+
+    public Decode(Records records,
+                  Reader<T> reader,
+                  Object[] decoded,
+                  byte[] types,
+                  AtomicInteger firstBad,
+                  AtomicReference<IOException> error,
+                  int from,
+                  int to) {
+      this.records = records;
+      this.reader = reader;
+      this.decoded = decoded;
+      this.types = types;
+      this.firstBad = firstBad;
+      this.error = error;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+
+      if (to - from > DECODE_CHUNK) {
+        final int middle = (from + to) >>> 1;
+        invokeAll(new Decode<>(records, reader, decoded, types, firstBad, error, from, middle),
+                  new Decode<>(records, reader, decoded, types, firstBad, error, middle, to));
+        return;
+      }
+
+      // One view per window for the whole chunk, see "replay" above.
+      ByteBuffer view = null;
+      int viewWindow = -1;
+
+      for (int i = from; i < to && i < firstBad.get() && error.get() == null; i++) {
+
+        if (records.window[i] != viewWindow) {
+          viewWindow = records.window[i];
+          view = records.windows.get(viewWindow).duplicate();
+        }
+
+        final int offset = records.offset[i];
+
+        view.clear();
+        final int recordLength = view.getInt(offset);
+        final int expected = view.getInt(offset + 4);
+
+        view.position(offset + 8);
+        view.limit(offset + 8 + recordLength);
+
+        final CRC32 checksum = new CRC32();
+        checksum.update(view);
+
+        if ((int) checksum.getValue() != expected) {
+          lowerTo(i);
+          return;
+        }
+
+        view.position(offset + 8);
+        types[i] = view.get();
+
+        try {
+          decoded[i] = reader.decode(types[i], view);
+        } catch (IOException ex) {
+          error.compareAndSet(null, ex);
+          return;
+        }
+      }
+    }
+
+    private void lowerTo(int bad) {
+      int current = firstBad.get();
+      while (bad < current && !firstBad.compareAndSet(current, bad)) {
+        current = firstBad.get();
+      }
+    }
+  }
+}
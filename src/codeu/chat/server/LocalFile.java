@@ -1,225 +1,218 @@
 package codeu.chat.server;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.Message;
 import codeu.chat.common.User;
+import codeu.chat.util.BufferInputStream;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 
+/**
+ * Keeps the server's data on disk as an append-only journal.
+ *
+ * Every change is written to the journal as one record and "saveData" makes
+ * all records written since the last call durable with a single fsync. When
+ * the journal grows larger than the last snapshot, everything is compacted
+ * into a new snapshot and a new, empty journal is started.
+ *
+ * Files are numbered by generation. "snapshot.N.sav" holds everything written
+ * to journals before generation N, so on start up the newest snapshot is read
+ * and then every journal from its generation on is replayed. Old generations
+ * are only deleted once the newer snapshot is safely on disk.
+ *
+ * If a record cannot be written (say the disk is full) the journal may be
+ * left with part of a record at its end, and everything after that would be
+ * lost when it is read back. So the journal is not written to again and the
+ * next save writes a snapshot of everything instead, which starts a new
+ * journal. Saves keep trying until a snapshot is written.
+ *
+ * Saved data is read straight into the server's Model when this is created.
+ * Messages are not kept here as well: a snapshot writes them from the Model,
+ * which already holds every one of them. Users, conversations and authority
+ * are few, and are kept so that adding one again is not written twice.
+ *
+ * Files are mapped into memory to be read, and the content of the messages
+ * read at start up is left in the mapping (see MappedText) rather than copied
+ * onto the heap. Messages added while running hold their content until the
+ * next start. A mapping keeps its file's space on disk until it is no longer
+ * used, even if a compaction has deleted the file.
+ */
 public class LocalFile
 {
     private final static Logger.Log LOG = Logger.newLog(LocalFile.class);
 
+    // Files written by earlier versions of the server. If they are found and
+    // there is no journal yet, they are read once and turned into a snapshot.
     public static final String MESSAGE_FILE_NAME = "/msgDat.sav";
     public static final String USER_FILE_NAME = "/usrDat.sav";
     public static final String CONVERSATION_FILE_NAME = "/cvrsDat.sav";
     public static final String AUTHORITY_FILE_NAME = "/auth.sav";
 
-    //Instance varibles for saving the current data of server.
-    private final LinkedHashSet<User> users;
-    private final LinkedHashSet<ConversationHeader> conversationHeaders;
-    private final LinkedHashSet<Message> messages;
-    private final LinkedHashSet<AuthorityBuffer> authorityList;
+    private static final Pattern JOURNAL_FILE = Pattern.compile("journal\\.(\\d+)\\.log");
+    private static final Pattern SNAPSHOT_FILE = Pattern.compile("snapshot\\.(\\d+)\\.sav");
+
+    // The journal is not compacted until it is at least this large, so that a
+    // small server does not write a new snapshot every few saves.
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+    private static final byte USER_RECORD = 1;
+    private static final byte CONVERSATION_RECORD = 2;
+    private static final byte MESSAGE_RECORD = 3;
+    private static final byte AUTHORITY_RECORD = 4;
+
+    //Everything other than messages that has been saved, keyed so that
+    //repeated adds are not written to the journal again.
+    private final Map<Uuid, User> users = new LinkedHashMap<>();
+    private final Map<Uuid, ConversationHeader> conversationHeaders = new LinkedHashMap<>();
+    private final Map<List<Uuid>, AuthorityBuffer> authorityList = new LinkedHashMap<>();
 
     private final File file;
+    private final Model model;
+
+    private long generation = 0;
+    private long snapshotBytes = 0;
+    private Journal journal;
 
-    private boolean hasUserModified = false;//It indicates if there is a new data should be handled.
-    private boolean hasMessageModified = false;
-    private boolean hasConversationModified = false;
-    private boolean hasAuthorityListModified = false;
-
-    private final Serializer<Collection<Message>> localMessages = Serializers.collection(Message.SERIALIZER);
-    private final Serializer<Collection<ConversationHeader>> localConversationHeaders = Serializers.collection(ConversationHeader.SERIALIZER);
-    private final Serializer<Collection<User>> localUsers = Serializers.collection(User.SERIALIZER);
-    private final Serializer<Collection<AuthorityBuffer>> localAuthority = Serializers.collection(AuthorityBuffer.SERIALIZER);
-
-    private final File userFile;
-    private final File conversationFile;
-    private final File messageFile;
-    private final File authorityFile;
-    public LocalFile (File file)
+    // How much of the current journal had been handed to "saveData" by its
+    // last call, so that each call can tell how much it wrote.
+    private long savedBytes = 0;
+
+    // Set when a snapshot that was needed could not be written, so the next
+    // save tries again.
+    private boolean needsSnapshot = false;
+
+    /**
+     * Read the saved data in a directory into a model. The model must be
+     * empty, and every message added to this afterwards must have been added
+     * to the model first, as Controller does, so that snapshots have it.
+     *
+     * @param file  The directory the data is saved in
+     * @param model The model to load into and to write snapshots from
+     */
+    public LocalFile (File file, Model model)
     {
         this.file = file;
-        users = new LinkedHashSet<>();
-        conversationHeaders= new LinkedHashSet<>();
-        messages= new LinkedHashSet<>();
-        authorityList = new LinkedHashSet<>();
-
-        userFile = new File(file.getPath() + USER_FILE_NAME);
-        conversationFile = new File(file.getPath() + CONVERSATION_FILE_NAME);
-        messageFile = new File(file.getPath() + MESSAGE_FILE_NAME);
-        authorityFile = new File(file.getPath(), AUTHORITY_FILE_NAME);
+        this.model = model;
+
         try
         {
-            if(!userFile.exists())
-            {
-                userFile.createNewFile();
-            }      
-            if(!conversationFile.exists())
-            {
-                conversationFile.createNewFile();
-            }
-            if(!messageFile.exists())
-            {
-                messageFile.createNewFile();
-            }
-            if(!authorityFile.exists())
-            {
-                authorityFile.createNewFile();
-            }
-        }
-        catch(IOException exception)
-        {
-            LOG.error("Failed to create new file!");
-            exception.printStackTrace();
-            throw new RuntimeException();
-        }
-
-        try(FileInputStream userInputStream = new FileInputStream(userFile);
-            FileInputStream conversationInputStream = new FileInputStream(conversationFile);
-            FileInputStream messageInputStream = new FileInputStream(messageFile);
-            FileInputStream authInputStream = new FileInputStream(authorityFile);)
-        {
-            if(userInputStream.available() > 0)
-            {
-                Collection<User> userData = localUsers.read(userInputStream);
-                for (User item : userData)
-                {
-                    users.add(item);
-                }
-            }
-            
-            if(conversationInputStream.available() > 0)
-            {
-                Collection<ConversationHeader> conversationData =  localConversationHeaders.read(conversationInputStream);
-                for (ConversationHeader item : conversationData)
-                {
-                    conversationHeaders.add(item);
-                }
-            }
-
-            if(messageInputStream.available() > 0)
-            {
-                Collection<Message> messageData = localMessages.read(messageInputStream);
-                for(Message item : messageData)
-                {
-                    messages.add(item);
-                }
-            } 
-            
-            if(authInputStream.available() > 0)
-            {
-                Collection<AuthorityBuffer> authData = localAuthority.read(authInputStream);
-                for(AuthorityBuffer item : authData)
-                {
-                    authorityList.add(item);
-                }
-            }
+            load();
         }
         catch (IOException exception)
         {
-        System.out.println("ERROR: Failed to read local data!");
-        exception.printStackTrace();
-        throw new RuntimeException("ERROR: Program will be terminated!"); 
+            LOG.error(exception, "Failed to read local data from %s", file);
+            throw new RuntimeException("ERROR: Program will be terminated!", exception);
         }
     }
 
     /**
      * Get users
-     * 
+     *
      * @return  LinkedHashSet<User> Current users from this instance
      */
-    public LinkedHashSet<User> getUsers()
+    public synchronized LinkedHashSet<User> getUsers()
     {
-        return new LinkedHashSet<User>(users);
+        return new LinkedHashSet<User>(users.values());
     }
     /**
      * Get conversations
-     * 
+     *
      * @return  LinkedHashSet<ConversationHeader> Current conversations from this instance
      */
-    public LinkedHashSet<ConversationHeader> getConversationHeaders()
+    public synchronized LinkedHashSet<ConversationHeader> getConversationHeaders()
     {
-        return new LinkedHashSet<ConversationHeader>(conversationHeaders);
+        return new LinkedHashSet<ConversationHeader>(conversationHeaders.values());
     }
-    /**
-     * Get messages
-     * 
-     * @return  LinkedHashSet<Message> Current messages from this instance
-     */
-    public LinkedHashSet<Message> getMessages()
+    public synchronized LinkedHashSet<AuthorityBuffer> getauthorityList()
     {
-        return new LinkedHashSet<Message>(messages);
-    }
-
-    public LinkedHashSet<AuthorityBuffer> getauthorityList()
-    {
-        return new LinkedHashSet<>(authorityList);
+        return new LinkedHashSet<>(authorityList.values());
     }
     /**
      * Add a new user to the instance
-     * 
+     *
      * @param   User    New user
      */
-    public void addUser(User user)
+    public synchronized void addUser(User user)
     {
-        if(users.contains(user))
+        if(users.containsKey(user.id))
         {
             return;
         }
-        users.add(user);
-        hasUserModified = true;
+        users.put(user.id, user);
+        append(USER_RECORD, User.SERIALIZER, user);
     }
     /**
      * Add a new conversation to the instance.
-     * 
+     *
      * @param ConversationHeader New conversation
      */
-    public void addConversationHeader(ConversationHeader header)
+    public synchronized void addConversationHeader(ConversationHeader header)
     {
-        if(conversationHeaders.contains(header))
+        if(conversationHeaders.containsKey(header.id))
         {
             return;
         }
-        conversationHeaders.add(header);//If repetition happens, hasMofified should be false still.
-        hasConversationModified = true;
+        conversationHeaders.put(header.id, header);
+        append(CONVERSATION_RECORD, ConversationHeader.SERIALIZER, header);
     }
     /**
-     * Add a new message to the instance.
-     * 
+     * Add a new message to the instance. It must already be in the model.
+     * Unlike the other adds this does not check for a repeat, the Controller
+     * never adds an id twice.
+     *
      * @param Message New message
      */
-    public void addMessage(Message message)
+    public synchronized void addMessage(Message message)
     {
-       if(messages.contains(message))
-       {
-           return;
-       }
-       messages.add(message);//If repetition happens, hasMofified should be false still.
-       hasMessageModified = true;
+        append(MESSAGE_RECORD, Message.SERIALIZER, message);
     }
 
-    public void addAuthority(Uuid conversation, Uuid user, byte authorityByte)
+    public synchronized void addAuthority(Uuid conversation, Uuid user, byte authorityByte)
     {
+        final List<Uuid> key = Arrays.asList(conversation, user);
+        final AuthorityBuffer current = authorityList.get(key);
+        if(current != null && current.authorityByte == authorityByte)
+        {
+            return;
+        }
         AuthorityBuffer buffer = new AuthorityBuffer(conversation, user, authorityByte);
-        authorityList.add(buffer);
-        hasAuthorityListModified = true;
+        authorityList.put(key, buffer);
+        append(AUTHORITY_RECORD, AuthorityBuffer.SERIALIZER, buffer);
     }
     /**
      * Get current path.
-     * 
+     *
      * @return String Path of this instance
      */
     public String getPath()
@@ -227,132 +220,609 @@ public class LocalFile
         return file.getPath();
     }
 
-   /**
-   * Save user data
-   * @throws IOException
-   */
-  private void saveUsers() throws IOException
-  {
-    try(FileOutputStream userStream = new FileOutputStream(userFile))
+    /**
+     * Make every change added since the last call durable. All of them are
+     * committed with one fsync, and the lock is only held while handing the
+     * records to the operating system, so adds are not held up by the disk.
+     *
+     * Only one thread should call this at a time.
+     *
+     * @return The number of bytes written by this call, counting the journal
+     *         and, when it was compacted, the new snapshot.
+     * @throws IOException
+     */
+    public long saveData() throws IOException
     {
-      localUsers.write(userStream, users);
+        final Journal current;
+        final long written;
+
+        synchronized (this)
+        {
+            current = journal;
+            written = current.size() - savedBytes;
+            savedBytes = current.size();
+            if (!current.broken())
+            {
+                try
+                {
+                    current.flush();
+                }
+                catch (IOException exception)
+                {
+                    LOG.error(exception, "Failed to write %s", current.file());
+                }
+            }
+        }
+
+        if (!current.broken())
+        {
+            try
+            {
+                current.sync();
+            }
+            catch (IOException exception)
+            {
+                LOG.error(exception, "Failed to sync %s", current.file());
+            }
+        }
+
+        // A broken journal cannot be trusted to hold what was written to it,
+        // so it is replaced by a snapshot right away.
+        final boolean compact;
+        synchronized (this)
+        {
+            compact = current.broken() ||
+                      needsSnapshot ||
+                      current.size() > Math.max(MIN_COMPACT_BYTES, snapshotBytes);
+        }
+
+        return compact ? written + compact() : written;
     }
-    catch(FileNotFoundException exception)
+
+    /**
+     * Write everything into a new snapshot and start a new journal. The copy
+     * and the switch to the new journal happen together under the lock so
+     * every record is either in the snapshot or in the new journal. Syncing the
+     * old journal and writing the snapshot happen outside the lock, so adds
+     * never wait on the disk here either. If the snapshot cannot be written
+     * the next save tries again.
+     *
+     * Messages are not copied, only how many each conversation has in the
+     * model. A message is added to the model before its record is written,
+     * so every message in the old journal is counted. One added to the model
+     * while counting may be in both the snapshot and the new journal, which
+     * loading allows for.
+     *
+     * @return The size of the new snapshot in bytes.
+     * @throws IOException
+     */
+    private long compact() throws IOException
     {
-      System.out.println("ERROR:Unacceptable file path");
-      exception.printStackTrace();
-      throw exception;
+        final Collection<User> userCopy;
+        final Collection<ConversationHeader> conversationCopy;
+        final List<ConversationIndex> messageIndexes = new ArrayList<>();
+        final List<Integer> messageCounts = new ArrayList<>();
+        final Collection<AuthorityBuffer> authorityCopy;
+        final long snapshotGeneration;
+        final Journal replaced;
+
+        synchronized (this)
+        {
+            userCopy = new ArrayList<>(users.values());
+            conversationCopy = new ArrayList<>(conversationHeaders.values());
+            for (final ConversationIndex index : model.conversationIndexes())
+            {
+                messageIndexes.add(index);
+                messageCounts.add(index.size());
+            }
+            authorityCopy = new ArrayList<>(authorityList.values());
+
+            // Nothing is written to the old journal after the switch, so it
+            // only has to be handed to the operating system here. Whatever
+            // did not make it into the old journal is in the snapshot.
+            replaced = journal;
+            if (!replaced.broken())
+            {
+                try
+                {
+                    replaced.flush();
+                }
+                catch (IOException exception)
+                {
+                    LOG.error(exception, "Failed to write %s", replaced.file());
+                }
+            }
+
+            generation += 1;
+            snapshotGeneration = generation;
+            journal = openJournal(journalFile(generation));
+            savedBytes = 0;
+            needsSnapshot = false;
+        }
+
+        try
+        {
+            if (!replaced.broken())
+            {
+                replaced.sync();
+            }
+        }
+        catch (IOException exception)
+        {
+            LOG.error(exception, "Failed to sync %s", replaced.file());
+        }
+        finally
+        {
+            replaced.close();
+        }
+
+        try
+        {
+            return writeSnapshot(snapshotGeneration,
+                                 userCopy,
+                                 conversationCopy,
+                                 messageIndexes,
+                                 messageCounts,
+                                 authorityCopy);
+        }
+        catch (IOException exception)
+        {
+            synchronized (this)
+            {
+                needsSnapshot = true;
+            }
+            throw exception;
+        }
     }
-    catch(IOException exception)
+
+    private long writeSnapshot(long snapshotGeneration,
+                               Collection<User> userCopy,
+                               Collection<ConversationHeader> conversationCopy,
+                               List<ConversationIndex> messageIndexes,
+                               List<Integer> messageCounts,
+                               Collection<AuthorityBuffer> authorityCopy) throws IOException
     {
-      System.out.println("ERROR:Failed to get UserStream!");
-      exception.printStackTrace();
-      throw exception;
+        final File snapshot = snapshotFile(snapshotGeneration);
+        final File temp = new File(file, snapshot.getName() + ".tmp");
+
+        Files.deleteIfExists(temp.toPath());
+
+        try (final Journal out = new Journal(temp))
+        {
+            for (final User user : userCopy)
+            {
+                out.write(USER_RECORD, encode(User.SERIALIZER, user));
+            }
+            for (final ConversationHeader header : conversationCopy)
+            {
+                out.write(CONVERSATION_RECORD, encode(ConversationHeader.SERIALIZER, header));
+            }
+            for (int i = 0; i < messageIndexes.size(); i++)
+            {
+                final ConversationIndex index = messageIndexes.get(i);
+                final int count = messageCounts.get(i);
+                for (int position = 0; position < count; position++)
+                {
+                    out.write(MESSAGE_RECORD, encode(Message.SERIALIZER, index.get(position)));
+                }
+            }
+            for (final AuthorityBuffer buffer : authorityCopy)
+            {
+                out.write(AUTHORITY_RECORD, encode(AuthorityBuffer.SERIALIZER, buffer));
+            }
+            out.commit();
+        }
+
+        Files.move(temp.toPath(),
+                   snapshot.toPath(),
+                   StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+
+        final long written = snapshot.length();
+
+        synchronized (this)
+        {
+            snapshotBytes = written;
+        }
+
+        // The new snapshot covers all older generations, so they can go.
+        for (final File old : listFiles(SNAPSHOT_FILE))
+        {
+            if (generationOf(old, SNAPSHOT_FILE) < snapshotGeneration)
+            {
+                Files.deleteIfExists(old.toPath());
+            }
+        }
+        for (final File old : listFiles(JOURNAL_FILE))
+        {
+            if (generationOf(old, JOURNAL_FILE) < snapshotGeneration)
+            {
+                Files.deleteIfExists(old.toPath());
+            }
+        }
+
+        LOG.info("Compacted local data into %s (%d bytes)", snapshot.getName(), written);
+
+        return written;
     }
-  }
-  /**
-   * Save conversation data
-   * @throws IOException
-   */
-  private void saveConversationHeaders() throws IOException
-  {
-    try(FileOutputStream conversationStream = new FileOutputStream(conversationFile))
+
+    private void load() throws IOException
     {
-      localConversationHeaders.write(conversationStream, conversationHeaders);
+        // Decoding is spread over every core, see Journal.replay.
+        final ForkJoinPool pool = new ForkJoinPool();
+        try
+        {
+            load(pool);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
     }
-    catch (FileNotFoundException exception)
+
+    private void load(ForkJoinPool pool) throws IOException
     {
-      System.out.println("ERROR:Unacceptable file path");
-      exception.printStackTrace();
-      throw exception;
+        long newestSnapshot = -1;
+        for (final File snapshot : listFiles(SNAPSHOT_FILE))
+        {
+            newestSnapshot = Math.max(newestSnapshot, generationOf(snapshot, SNAPSHOT_FILE));
+        }
+
+        final List<Long> journals = new ArrayList<>();
+        for (final File log : listFiles(JOURNAL_FILE))
+        {
+            final long logGeneration = generationOf(log, JOURNAL_FILE);
+            if (logGeneration >= newestSnapshot)
+            {
+                journals.add(logGeneration);
+            }
+        }
+        Collections.sort(journals);
+
+        // Messages are only held here until they are in the model. Keyed by
+        // id, as a message can be in both a snapshot and the journal after it.
+        final Map<Uuid, Message> messages = new LinkedHashMap<>();
+
+        final Journal.Reader<Object> reader = new Journal.Reader<Object>()
+        {
+            @Override
+            public Object decode(byte type, ByteBuffer payload) throws IOException
+            {
+                return LocalFile.decode(type, payload);
+            }
+
+            @Override
+            public void onRecord(byte type, Object value)
+            {
+                replay(type, value, messages);
+            }
+        };
+
+        boolean migrate = false;
+
+        if (newestSnapshot >= 0)
+        {
+            final File snapshot = snapshotFile(newestSnapshot);
+            snapshotBytes = snapshot.length();
+            if (Journal.replay(snapshot, reader, pool) != snapshotBytes)
+            {
+                throw new IOException("Snapshot " + snapshot + " is damaged");
+            }
+            generation = newestSnapshot;
+        }
+        else if (journals.isEmpty())
+        {
+            migrate = loadLegacyFiles(pool, messages);
+        }
+
+        for (final long logGeneration : journals)
+        {
+            final File log = journalFile(logGeneration);
+            final long good = Journal.replay(log, reader, pool);
+            if (good != log.length())
+            {
+                // Whatever follows the last good record was cut off by a crash
+                // and can never be read, so drop it before appending more.
+                LOG.warning("Dropping %d damaged bytes from the end of %s", log.length() - good, log);
+                try (final RandomAccessFile damaged = new RandomAccessFile(log, "rw"))
+                {
+                    damaged.setLength(good);
+                }
+            }
+            generation = Math.max(generation, logGeneration);
+        }
+
+        // Saved data goes straight into the model. Going through the
+        // Controller would check, log and save every item again.
+        model.load(users.values(), conversationHeaders.values(), messages.values(), authorityList.values());
+
+        journal = openJournal(journalFile(generation));
+        savedBytes = journal.size();
+
+        if (migrate)
+        {
+            compact();
+            deleteLegacyFiles();
+            LOG.info("Moved local data from the old save files into the journal");
+        }
     }
-    catch(IOException exception)
+
+    /**
+     * Turn a record into the value it holds. Called from many threads at once.
+     *
+     * @throws IOException
+     */
+    private static Object decode(byte type, ByteBuffer payload) throws IOException
     {
-      System.out.println("ERROR:Failed to get ConversationHeaderStream!");
-      exception.printStackTrace();
-      throw exception;
+        final InputStream in = new BufferInputStream(payload);
+
+        switch (type)
+        {
+            case USER_RECORD:
+                return User.SERIALIZER.read(in);
+            case CONVERSATION_RECORD:
+                return ConversationHeader.SERIALIZER.read(in);
+            case MESSAGE_RECORD:
+                return readMessage(payload);
+            case AUTHORITY_RECORD:
+                return AuthorityBuffer.SERIALIZER.read(in);
+            default:
+                return null;
+        }
     }
-  }
-  /**
-   * Save message data
-   * @throws IOException
-   */
-  private void saveMessages() throws IOException
-  {
-    try(FileOutputStream messageStream = new FileOutputStream(messageFile))
+
+    /**
+     * Apply a decoded record. Records are applied one at a time in the order
+     * they were written, so later records replace earlier ones.
+     */
+    private void replay(byte type, Object value, Map<Uuid, Message> messages)
     {
-      localMessages.write(messageStream, messages);
+        switch (type)
+        {
+            case USER_RECORD:
+            {
+                final User user = (User) value;
+                users.put(user.id, user);
+                break;
+            }
+            case CONVERSATION_RECORD:
+            {
+                final ConversationHeader header = (ConversationHeader) value;
+                conversationHeaders.put(header.id, header);
+                break;
+            }
+            case MESSAGE_RECORD:
+            {
+                final Message message = (Message) value;
+                messages.put(message.id, message);
+                break;
+            }
+            case AUTHORITY_RECORD:
+            {
+                final AuthorityBuffer buffer = (AuthorityBuffer) value;
+                authorityList.put(Arrays.asList(buffer.conversation, buffer.user), buffer);
+                break;
+            }
+            default:
+                LOG.warning("Skipping journal record with unknown type %d", type);
+                break;
+        }
     }
-    catch (FileNotFoundException exception)
+
+    /**
+     * Read a message record the same way as Message.SERIALIZER, except that
+     * the content is left where it is in the mapped file.
+     *
+     * @throws IOException
+     */
+    private static Message readMessage(ByteBuffer payload) throws IOException
     {
-      System.out.println("ERROR:Unacceptable file path");
-      exception.printStackTrace();
-      throw exception;
+        final InputStream in = new BufferInputStream(payload);
+
+        final Uuid id = Uuid.SERIALIZER.read(in);
+        final Uuid next = Uuid.SERIALIZER.read(in);
+        final Uuid previous = Uuid.SERIALIZER.read(in);
+        final Time creation = Time.SERIALIZER.read(in);
+        final Uuid author = Uuid.SERIALIZER.read(in);
+
+        final int length = Serializers.INTEGER.read(in);
+        if (length < 0 || length > payload.remaining())
+        {
+            throw new IOException("Message " + id + " has a bad content length " + length);
+        }
+        final MappedText content = new MappedText(payload, payload.position(), length);
+        payload.position(payload.position() + length);
+
+        final Uuid conversation = Uuid.SERIALIZER.read(in);
+
+        return new Message(id, next, previous, creation, author, content, conversation);
     }
-    catch (IOException exception)
+
+    /**
+     * Read the files written by earlier versions of the server. The four files
+     * are read at the same time and then added in the order they depend on
+     * each other.
+     *
+     * @return boolean Whether any were found
+     * @throws IOException
+     */
+    private boolean loadLegacyFiles(ForkJoinPool pool, Map<Uuid, Message> messages) throws IOException
     {
-      System.out.println("ERROR:Failed to get MessageStream!");
-      exception.printStackTrace();
-      throw exception;
+        final Future<Collection<User>> userFile =
+            readLegacy(pool, new File(file.getPath() + USER_FILE_NAME), User.SERIALIZER);
+        final Future<Collection<ConversationHeader>> conversationFile =
+            readLegacy(pool, new File(file.getPath() + CONVERSATION_FILE_NAME), ConversationHeader.SERIALIZER);
+        final Future<Collection<Message>> messageFile =
+            readLegacy(pool, new File(file.getPath() + MESSAGE_FILE_NAME), Message.SERIALIZER);
+        final Future<Collection<AuthorityBuffer>> authorityFile =
+            readLegacy(pool, new File(file.getPath() + AUTHORITY_FILE_NAME), AuthorityBuffer.SERIALIZER);
+
+        boolean found = false;
+
+        final Collection<User> userItems = finish(userFile);
+        for (final User item : userItems)
+        {
+            users.put(item.id, item);
+        }
+
+        final Collection<ConversationHeader> conversationItems = finish(conversationFile);
+        for (final ConversationHeader item : conversationItems)
+        {
+            conversationHeaders.put(item.id, item);
+        }
+
+        final Collection<Message> messageItems = finish(messageFile);
+        for (final Message item : messageItems)
+        {
+            messages.put(item.id, item);
+        }
+
+        final Collection<AuthorityBuffer> authorityItems = finish(authorityFile);
+        for (final AuthorityBuffer item : authorityItems)
+        {
+            authorityList.put(Arrays.asList(item.conversation, item.user), item);
+        }
+
+        return !userItems.isEmpty() ||
+               !conversationItems.isEmpty() ||
+               !messageItems.isEmpty() ||
+               !authorityItems.isEmpty();
+    }
+
+    private void deleteLegacyFiles() throws IOException
+    {
+        Files.deleteIfExists(new File(file.getPath() + USER_FILE_NAME).toPath());
+        Files.deleteIfExists(new File(file.getPath() + CONVERSATION_FILE_NAME).toPath());
+        Files.deleteIfExists(new File(file.getPath() + MESSAGE_FILE_NAME).toPath());
+        Files.deleteIfExists(new File(file.getPath() + AUTHORITY_FILE_NAME).toPath());
+    }
+
+    private static <T> Future<Collection<T>> readLegacy(ForkJoinPool pool,
+                                                        final File legacy,
+                                                        final Serializer<T> serializer)
+    {
+        return pool.submit(new Callable<Collection<T>>()
+        {
+            @Override
+            public Collection<T> call() throws IOException
+            {
+                if (legacy.length() == 0)
+                {
+                    return Collections.emptyList();
+                }
+                try (final InputStream in = new BufferedInputStream(new FileInputStream(legacy)))
+                {
+                    return Serializers.collection(serializer).read(in);
+                }
+            }
+        });
+    }
+
+    private static <T> T finish(Future<T> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException exception)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading local data", exception);
+        }
+        catch (ExecutionException exception)
+        {
+            if (exception.getCause() instanceof IOException)
+            {
+                throw (IOException) exception.getCause();
+            }
+            throw new IOException(exception.getCause());
+        }
+    }
+
+    // Write a record to the journal. Must be called while holding the lock.
+    // Once the journal is broken changes are only kept in memory until the
+    // next save puts them in a snapshot; a crash before then would lose them.
+    private <T> void append(byte type, Serializer<T> serializer, T value)
+    {
+        if (journal.broken())
+        {
+            return;
+        }
+        try
+        {
+            journal.write(type, encode(serializer, value));
+        }
+        catch (IOException exception)
+        {
+            LOG.error(exception, "Failed to write record %d to %s", type, journal.file());
+        }
     }
-  }
- private void saveAuthorityList() throws IOException
-  {
-    try(FileOutputStream authorityStream = new FileOutputStream(authorityFile))
+
+    /**
+     * Open the journal that changes are appended to. Tests override this to
+     * make writes fail. It is called from the constructor, so it must not use
+     * anything set up by a subclass's constructor.
+     *
+     * @throws IOException
+     */
+    Journal openJournal(File journalFile) throws IOException
     {
-      localAuthority.write(authorityStream, authorityList);
+        return new Journal(journalFile);
     }
-    catch (FileNotFoundException exception)
+
+    private static <T> byte[] encode(Serializer<T> serializer, T value) throws IOException
     {
-      System.out.println("ERROR:Unacceptable file path");
-      exception.printStackTrace();
-      throw exception;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.write(bytes, value);
+        return bytes.toByteArray();
     }
-    catch (IOException exception)
+
+    private File journalFile(long generation)
     {
-      System.out.println("ERROR:Failed to get AuthorityListStream!");
-      exception.printStackTrace();
-      throw exception;
+        return new File(file, "journal." + generation + ".log");
     }
-  }
-  /**
-   * Save all data
-   * @throws IOException
-   */
-  public void saveData() throws IOException
-  {
-    try
+
+    private File snapshotFile(long generation)
     {
-      if(hasConversationModified)
-      {
-        saveConversationHeaders();
-        LOG.info("Conversation data Saved!");
-        hasConversationModified = false;
-      }
-      if(hasMessageModified)
-      {
-        saveMessages();
-        LOG.info("Message data Saved!");
-        hasMessageModified = false;
-      }
-      if(hasUserModified)
-      {
-        saveUsers();
-        LOG.info("User data Saved!");
-        hasUserModified = false;
-      }
-      if(hasAuthorityListModified)
-      {
-        saveAuthorityList();
-        LOG.info("Authority data Saved!");
-        hasAuthorityListModified = false;
-      }
+        return new File(file, "snapshot." + generation + ".sav");
     }
-    catch(IOException exception)
+
+    private List<File> listFiles(Pattern pattern)
     {
-      System.out.println("ERROR:Failed to save data!");
-      exception.printStackTrace();
-      throw exception;
+        final List<File> found = new ArrayList<>();
+        final File[] all = file.listFiles();
+        if (all != null)
+        {
+            for (final File candidate : all)
+            {
+                if (pattern.matcher(candidate.getName()).matches())
+                {
+                    found.add(candidate);
+                }
+            }
+        }
+        return found;
+    }
+
+    private static long generationOf(File candidate, Pattern pattern)
+    {
+        final Matcher matcher = pattern.matcher(candidate.getName());
+        matcher.matches();
+        return Long.parseLong(matcher.group(1));
+    }
+
+    // Make the rename of a new snapshot durable before older files are removed.
+    // Not every platform allows opening a directory, so this is best effort.
+    private void syncDirectory()
+    {
+        try (final FileChannel directory = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            directory.force(true);
+        }
+        catch (IOException exception)
+        {
+            LOG.verbose("Could not sync %s (%s)", file, exception.toString());
+        }
     }
-  }
-}
\ No newline at end of file
+}
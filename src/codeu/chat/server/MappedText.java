@@ -0,0 +1,51 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.nio.ByteBuffer;
+
+import codeu.chat.common.Message;
+
+// MAPPED TEXT
+//
+// The content of a saved message, left where it is in a mapped file. Only
+// the mapping, an offset and a length are kept on the heap; the bytes are
+// turned into a string each time the content is read.
+final class MappedText implements Message.Text {
+
+  private final ByteBuffer mapping;
+  private final int offset;
+  private final int length;
+
+  public MappedText(ByteBuffer mapping, int offset, int length) {
+    this.mapping = mapping;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  @Override
+  public String read() {
+
+    final ByteBuffer view = mapping.duplicate();
+    view.clear();
+    view.position(offset);
+
+    final byte[] bytes = new byte[length];
+    view.get(bytes);
+
+    // Written by Serializers.STRING, which uses the default charset.
+    return new String(bytes);
+  }
+}
@@ -14,8 +14,14 @@
 
 package codeu.chat.server;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationHeader.ConversationUuid;
@@ -26,7 +32,7 @@ import codeu.chat.common.User;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
-import codeu.chat.util.store.Store;
+import codeu.chat.util.store.ConcurrentStore;
 import codeu.chat.util.store.StoreAccessor;
 
 public final class Model implements AuthorityModel {
@@ -35,15 +41,7 @@ public final class Model implements AuthorityModel {
 
     @Override
     public int compare(Uuid a, Uuid b) {
-
-      if (a == b) { return 0; }
-
-      if (a == null && b != null) { return -1; }
-
-      if (a != null && b == null) { return 1; }
-
-      final int order = Integer.compare(a.id(), b.id());
-      return order == 0 ? compare(a.root(), b.root()) : order;
+      return Uuid.compare(a, b);
     }
   };
 
@@ -53,39 +51,198 @@ public final class Model implements AuthorityModel {
       return a.compareTo(b);
     }
   };
+
+  private static final Comparator<Long> CHANGE_COMPARE = new Comparator<Long>() {
+    @Override
+    public int compare(Long a, Long b) {
+      return Long.compare(a, b);
+    }
+  };
   
   private final static Logger.Log LOG = Logger.newLog(Model.class);
   
   private static final Comparator<String> STRING_COMPARE = String.CASE_INSENSITIVE_ORDER;
 
-  private final Store<Uuid, User> userById = new Store<>(UUID_COMPARE);
-  private final Store<Time, User> userByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, User> userByText = new Store<>(STRING_COMPARE);
+  // The model has one writer at a time (the server holds a lock around every
+  // change) but is read from many threads without any lock. Everything in it
+  // is safe to read while it is being changed: the stores and maps are
+  // concurrent and the conversation index only publishes fully added
+  // messages.
+
+  private final ConcurrentStore<Uuid, User> userById = new ConcurrentStore<>(UUID_COMPARE);
+  private final ConcurrentStore<Time, User> userByTime = new ConcurrentStore<>(TIME_COMPARE);
+  private final ConcurrentStore<String, User> userByText = new ConcurrentStore<>(STRING_COMPARE);
 
-  private final Store<Uuid, ConversationHeader> conversationById = new Store<>(UUID_COMPARE);
-  private final Store<Time, ConversationHeader> conversationByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, ConversationHeader> conversationByText = new Store<>(STRING_COMPARE);
+  private final ConcurrentStore<Uuid, ConversationHeader> conversationById = new ConcurrentStore<>(UUID_COMPARE);
+  private final ConcurrentStore<Time, ConversationHeader> conversationByTime = new ConcurrentStore<>(TIME_COMPARE);
+  private final ConcurrentStore<String, ConversationHeader> conversationByText = new ConcurrentStore<>(STRING_COMPARE);
 
-  private final Store<Uuid, ConversationPayload> conversationPayloadById = new Store<>(UUID_COMPARE);
+  private final ConcurrentStore<Uuid, ConversationPayload> conversationPayloadById = new ConcurrentStore<>(UUID_COMPARE);
 
-  private final Store<Uuid, Message> messageById = new Store<>(UUID_COMPARE);
-  private final Store<Time, Message> messageByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, Message> messageByText = new Store<>(STRING_COMPARE);
+  private final ConcurrentStore<Uuid, Message> messageById = new ConcurrentStore<>(UUID_COMPARE);
+  private final ConcurrentStore<Time, Message> messageByTime = new ConcurrentStore<>(TIME_COMPARE);
 
-  private HashMap<Uuid, InterestSet> interestMap = new HashMap<Uuid, InterestSet>();
-  HashMap<ConversationUuid, HashMap<Uuid, Byte>> authority = new HashMap<ConversationUuid, HashMap<Uuid, Byte>>();
+  // CHANGES
+  //
+  // Every user and conversation is numbered in the order it was added to the
+  // model (not the order it was created - the relay can bring in old ones
+  // late), so a reader can ask for only what was added after a number it has
+  // already seen. A number is published in "lastChange" only once what it
+  // numbers is in the stores.
+  //
+  // Numbers start over each time the server starts. The epoch tells which
+  // start a number came from.
+  private final ConcurrentStore<Long, User> userByChange = new ConcurrentStore<>(CHANGE_COMPARE);
+  private final ConcurrentStore<Long, ConversationHeader> conversationByChange = new ConcurrentStore<>(CHANGE_COMPARE);
+  private final long epoch = System.currentTimeMillis();
+  private volatile long lastChange = 0;
+
+  // Messages are not indexed by their content. The server can leave content
+  // on disk until it is asked for (see LocalFile) and an index of it would
+  // pull all of it onto the heap.
+
+  // The messages of each conversation in the order they were added, keyed by
+  // the root of the conversation id (the same as Message.conversation).
+  private final Map<Uuid, ConversationIndex> messageByConversation = new ConcurrentHashMap<>();
+
+  private final Map<Uuid, InterestSet> interestMap = new ConcurrentHashMap<Uuid, InterestSet>();
+  final Map<ConversationUuid, Map<Uuid, Byte>> authority = new ConcurrentHashMap<ConversationUuid, Map<Uuid, Byte>>();
   
   public static final byte USER_TYPE_CREATOR = 0b111;
   public static final byte USER_TYPE_OWNER = 0b011;
   public static final byte USER_TYPE_MEMBER = 0b001;
   public static final byte USER_TYPE_BANNED = 0b000;
   
+  // LOAD
+  //
+  // Fill an empty model with saved data. This skips the checks and logging that
+  // Controller does for each new item - saved data was checked when it was
+  // first added - and builds each store with one bulk load instead of one
+  // insert per item. Messages must be in the order they were added. Messages
+  // from unknown users or conversations and authority for unknown
+  // conversations are skipped, the same as when they were first added.
+  public void load(Collection<User> users,
+                   Collection<ConversationHeader> conversations,
+                   Collection<Message> messages,
+                   Collection<AuthorityBuffer> authorities) {
+
+    long change = lastChange;
+
+    final List<Map.Entry<Uuid, User>> usersById = new ArrayList<>(users.size());
+    final List<Map.Entry<Time, User>> usersByTime = new ArrayList<>(users.size());
+    final List<Map.Entry<String, User>> usersByText = new ArrayList<>(users.size());
+    final List<Map.Entry<Long, User>> usersByChange = new ArrayList<>(users.size());
+
+    for (final User user : users) {
+      Uuid.intern(user.id);
+      change += 1;
+      usersById.add(entry(user.id, user));
+      usersByTime.add(entry(user.creation, user));
+      usersByText.add(entry(user.name, user));
+      usersByChange.add(entry(change, user));
+      interestMap.put(user.id, new InterestSet());
+    }
+
+    userById.load(usersById);
+    userByTime.load(usersByTime);
+    userByText.load(usersByText);
+    userByChange.load(usersByChange);
+
+    final List<Map.Entry<Uuid, ConversationHeader>> conversationsById = new ArrayList<>(conversations.size());
+    final List<Map.Entry<Time, ConversationHeader>> conversationsByTime = new ArrayList<>(conversations.size());
+    final List<Map.Entry<String, ConversationHeader>> conversationsByText = new ArrayList<>(conversations.size());
+    final List<Map.Entry<Uuid, ConversationPayload>> payloadsById = new ArrayList<>(conversations.size());
+    final List<Map.Entry<Long, ConversationHeader>> conversationsByChange = new ArrayList<>(conversations.size());
+
+    // The payload and newest message of each conversation, for linking the
+    // messages together below.
+    final Map<Uuid, ConversationPayload> payloads = new HashMap<>();
+    final Map<Uuid, Message> lastMessages = new HashMap<>();
+
+    for (final ConversationHeader conversation : conversations) {
+
+      Uuid.intern(conversation.id.root());
+
+      final ConversationPayload payload = new ConversationPayload(conversation.id);
+
+      conversationsById.add(entry(conversation.id.root(), conversation));
+      conversationsByTime.add(entry(conversation.creation, conversation));
+      conversationsByText.add(entry(conversation.title, conversation));
+      payloadsById.add(entry(conversation.id.root(), payload));
+      change += 1;
+      conversationsByChange.add(entry(change, conversation));
+      payloads.put(conversation.id.root(), payload);
+
+      final Map<Uuid, Byte> accessMap = new ConcurrentHashMap<Uuid, Byte>();
+      accessMap.put(conversation.owner, USER_TYPE_CREATOR);
+      authority.put(conversation.id, accessMap);
+    }
+
+    conversationById.load(conversationsById);
+    conversationByTime.load(conversationsByTime);
+    conversationByText.load(conversationsByText);
+    conversationPayloadById.load(payloadsById);
+    conversationByChange.load(conversationsByChange);
+
+    lastChange = change;
+
+    final List<Map.Entry<Uuid, Message>> messagesById = new ArrayList<>(messages.size());
+    final List<Map.Entry<Time, Message>> messagesByTime = new ArrayList<>(messages.size());
+
+    for (final Message message : messages) {
+
+      final ConversationPayload payload = payloads.get(message.conversation);
+
+      if (payload == null || userById.first(message.author) == null) {
+        continue;
+      }
+
+      final Message last = lastMessages.put(message.conversation, message);
+      if (last == null) {
+        payload.firstMessage = message.id;
+      } else {
+        last.next = message.id;
+      }
+      payload.lastMessage = message.id;
+
+      messagesById.add(entry(message.id, message));
+      messagesByTime.add(entry(message.creation, message));
+
+      ConversationIndex index = messageByConversation.get(message.conversation);
+      if (index == null) {
+        index = new ConversationIndex();
+        messageByConversation.put(message.conversation, index);
+      }
+      index.addSaved(message);
+    }
+
+    messageById.load(messagesById);
+    messageByTime.load(messagesByTime);
+
+    for (final AuthorityBuffer item : authorities) {
+      // Authority is saved with the full conversation id, but conversations
+      // are looked up by its root.
+      if (payloads.containsKey(item.conversation.root())) {
+        initializeAuthority(item.conversation.root(), item.user, item.authorityByte);
+      }
+    }
+  }
+
+  private static <KEY, VALUE> Map.Entry<KEY, VALUE> entry(KEY key, VALUE value) {
+    return new AbstractMap.SimpleImmutableEntry<>(key, value);
+  }
+
   public void add(User user) {
+    Uuid.intern(user.id);
     userById.insert(user.id, user);
     userByTime.insert(user.creation, user);
     userByText.insert(user.name, user);
     interestMap.put(user.id, new InterestSet());
-    LOG.info("NEW SIZE: "+interestMap.size());
+    LOG.verbose("NEW SIZE: %d", interestMap.size());
+
+    final long change = lastChange + 1;
+    userByChange.insert(change, user);
+    lastChange = change;
   }
 
   public StoreAccessor<Uuid, User> userById() {
@@ -101,15 +258,20 @@ public final class Model implements AuthorityModel {
   }
 
   public void add(ConversationHeader conversation) {
+    Uuid.intern(conversation.id.root());
     conversationById.insert(conversation.id.root(), conversation);
     conversationByTime.insert(conversation.creation, conversation);
     conversationByText.insert(conversation.title, conversation);
     conversationPayloadById.insert(conversation.id.root(), new ConversationPayload(conversation.id));
     
-    HashMap<Uuid, Byte> accessMap = new HashMap<Uuid, Byte>();
+    Map<Uuid, Byte> accessMap = new ConcurrentHashMap<Uuid, Byte>();
     byte creatorByte = 0b111;
     accessMap.put(conversation.owner, creatorByte);
     authority.put(conversation.id, accessMap);
+
+    final long change = lastChange + 1;
+    conversationByChange.insert(change, conversation);
+    lastChange = change;
   }
 
   public StoreAccessor<Uuid, ConversationHeader> conversationById() {
@@ -128,10 +290,34 @@ public final class Model implements AuthorityModel {
     return conversationPayloadById;
   }
 
+  public StoreAccessor<Long, User> userByChange() {
+    return userByChange;
+  }
+
+  public StoreAccessor<Long, ConversationHeader> conversationByChange() {
+    return conversationByChange;
+  }
+
+  // The number of the last user or conversation added, see CHANGES.
+  public long lastChange() {
+    return lastChange;
+  }
+
+  public long epoch() {
+    return epoch;
+  }
+
   public void add(Message message) {
+    Uuid.intern(message.id);
     messageById.insert(message.id, message);
     messageByTime.insert(message.creation, message);
-    messageByText.insert(message.content, message);
+
+    ConversationIndex index = messageByConversation.get(message.conversation);
+    if (index == null) {
+      index = new ConversationIndex();
+      messageByConversation.put(message.conversation, index);
+    }
+    index.add(message);
   }
 
   public StoreAccessor<Uuid, Message> messageById() {
@@ -142,15 +328,51 @@ public final class Model implements AuthorityModel {
     return messageByTime;
   }
 
-  public StoreAccessor<String, Message> messageByText() {
-    return messageByText;
+  // COUNTS
+  //
+  // How many users, conversations and messages are in the model. These are
+  // kept by the stores, so they are cheap enough to read at any time.
+  public int userCount() {
+    return userById.size();
+  }
+
+  public int conversationCount() {
+    return conversationById.size();
+  }
+
+  public int messageCount() {
+    return messageById.size();
+  }
+
+  // The messages of one conversation, or null if it has none. The index must
+  // be treated as read only.
+  ConversationIndex messageByConversation(Uuid conversation) {
+    return messageByConversation.get(conversation);
+  }
+
+  // INDEX SAVED TEXT
+  //
+  // Index the content of every message that was loaded, so it can be
+  // searched. Loading leaves this out so that the server can start without
+  // reading the content of every message (see ConversationIndex). Safe to run
+  // on its own thread while the model is in use.
+  public void indexSavedText() {
+    for (final ConversationIndex index : messageByConversation.values()) {
+      index.indexSaved();
+    }
+  }
+
+  // The messages of every conversation that has any, for writing them out
+  // (see LocalFile). The indexes must be treated as read only.
+  Collection<ConversationIndex> conversationIndexes() {
+    return messageByConversation.values();
   }
   
   @Override
   public void changeAuthority(ConversationUuid conversation, Uuid targetUser, byte authorityByte){
 	StoreAccessor<Uuid, ConversationHeader> convos = this.conversationById();
     ConversationHeader chat = convos.first(conversation.root());
-    HashMap<Uuid, Byte> accessMap = this.getPermissionMap(chat);
+    Map<Uuid, Byte> accessMap = this.getPermissionMap(chat);
     accessMap.put(targetUser, authorityByte);
     authority.put(chat.id, accessMap);
   }
@@ -159,16 +381,18 @@ public final class Model implements AuthorityModel {
   {
     StoreAccessor<Uuid, ConversationHeader> convos = this.conversationById();
     ConversationHeader chat = convos.first(conversation);
-    HashMap<Uuid, Byte> accessMap = this.getPermissionMap(chat);
+    Map<Uuid, Byte> accessMap = this.getPermissionMap(chat);
     accessMap.put(targetUser, authorityByte);
     authority.put(chat.id, accessMap);
   }
   
   @Override
   public boolean isMember(ConversationHeader conversation,Uuid targetUser){
-    HashMap<Uuid, Byte> accessMap = this.getPermissionMap(conversation);
-    byte user = accessMap.get(targetUser);
-    if ((user | USER_TYPE_BANNED) == USER_TYPE_BANNED)
+    if (conversation == null)
+      return false;
+    Map<Uuid, Byte> accessMap = this.getPermissionMap(conversation);
+    Byte user = accessMap.get(targetUser);
+    if (user == null || (user | USER_TYPE_BANNED) == USER_TYPE_BANNED)
       return false;
     return true; 
   }
@@ -177,16 +401,12 @@ public final class Model implements AuthorityModel {
   public boolean isMember(ConversationUuid conversation,Uuid targetUser){
     StoreAccessor<Uuid, ConversationHeader> convos = this.conversationById();
     ConversationHeader chat = convos.first(conversation.root());
-    HashMap<Uuid, Byte> accessMap = this.getPermissionMap(chat);
-    byte user = accessMap.get(targetUser);
-    if ((user | USER_TYPE_BANNED) == USER_TYPE_BANNED)
-      return false;
-    return true;
+    return isMember(chat, targetUser);
   }
    
   @Override
   public boolean isOwner(ConversationHeader conversation,Uuid targetUser){
-	HashMap<Uuid, Byte> accessMap = this.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = this.getPermissionMap(conversation);
 	byte owner = accessMap.get(targetUser);
 	byte expected = 0b010;
 	if((expected & owner) == expected)
@@ -198,7 +418,7 @@ public final class Model implements AuthorityModel {
   public boolean isOwner(ConversationUuid conversation,Uuid targetUser){
 	StoreAccessor<Uuid, ConversationHeader> convos = this.conversationById();
 	ConversationHeader chat = convos.first(conversation.root());
-	HashMap<Uuid, Byte> accessMap = this.getPermissionMap(chat);
+	Map<Uuid, Byte> accessMap = this.getPermissionMap(chat);
 	  byte owner = accessMap.get(targetUser);
 	  byte expected = 0b010;
 	  if((expected & owner) == expected)
@@ -209,7 +429,7 @@ public final class Model implements AuthorityModel {
    
   @Override
   public boolean isCreator(ConversationHeader conversation,Uuid targetUser){
-	HashMap<Uuid, Byte> accessMap = this.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = this.getPermissionMap(conversation);
 	byte user = accessMap.get(targetUser);
 	  if((USER_TYPE_CREATOR & user) == USER_TYPE_CREATOR)
 		return true;
@@ -220,7 +440,7 @@ public final class Model implements AuthorityModel {
   public boolean isCreator(ConversationUuid conversation,Uuid targetUser){
 	StoreAccessor<Uuid, ConversationHeader> convos = this.conversationById();
 	ConversationHeader chat = convos.first(conversation.root());
-	HashMap<Uuid, Byte> accessMap = this.getPermissionMap(chat);
+	Map<Uuid, Byte> accessMap = this.getPermissionMap(chat);
 	  byte user = accessMap.get(targetUser);
 	  if((USER_TYPE_CREATOR & user) == USER_TYPE_CREATOR)
 		return true;
@@ -228,19 +448,19 @@ public final class Model implements AuthorityModel {
   }
   
   public InterestSet getInterestSet(Uuid id){
-    LOG.info(interestMap.get(id).toString());
-    LOG.info("CURRENT: "+interestMap.size());
+    LOG.verbose("%s", interestMap.get(id));
+    LOG.verbose("CURRENT: %d", interestMap.size());
     return interestMap.get(id);
   }
   
   public void updateInterests(Uuid id, InterestSet intSet){
-    LOG.info("BEFORE: "+interestMap.size());
+    LOG.verbose("BEFORE: %d", interestMap.size());
     interestMap.put(id, intSet);
-    LOG.info("AFTER: "+interestMap.size());
-    LOG.info(interestMap.get(id).toString());
+    LOG.verbose("AFTER: %d", interestMap.size());
+    LOG.verbose("%s", interestMap.get(id));
   }
   
-  public HashMap<Uuid, Byte> getPermissionMap(ConversationHeader c){
+  public Map<Uuid, Byte> getPermissionMap(ConversationHeader c){
 	  return authority.get(c.id);
   }
   
@@ -46,6 +46,31 @@ public final class NoOpRelay implements Relay {
     };
   }
 
+  @Override
+  public Relay.Packet pack(final Relay.Bundle.Component user,
+                           final Relay.Bundle.Component conversation,
+                           final Relay.Bundle.Component message) {
+
+    return new Relay.Packet() {
+      @Override
+      public Relay.Bundle.Component user() { return user; }
+
+      @Override
+      public Relay.Bundle.Component conversation() { return conversation; }
+
+      @Override
+      public Relay.Bundle.Component message() { return message; }
+    };
+  }
+
+  @Override
+  public boolean write(Uuid teamId,
+                       Secret teamSecret,
+                       Collection<Relay.Packet> packets) {
+
+    return true;
+  }
+
   @Override
   public boolean write(Uuid teamId,
                        Secret teamSecret,
@@ -64,4 +89,23 @@ public final class NoOpRelay implements Relay {
 
     return new ArrayList<Relay.Bundle>();
   }
+
+  @Override
+  public Collection<Relay.Bundle> read(Uuid teamId,
+                                       Secret teamSecret,
+                                       Uuid root,
+                                       int range,
+                                       long timeoutMs) {
+
+    return new ArrayList<Relay.Bundle>();
+  }
+
+  @Override
+  public boolean subscribe(Uuid teamId,
+                           Secret teamSecret,
+                           boolean includeSelf,
+                           Collection<Uuid> teams) {
+
+    return true;
+  }
 }
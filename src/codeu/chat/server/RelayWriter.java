@@ -0,0 +1,235 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Metrics;
+import codeu.chat.util.Uuid;
+
+// RELAY WRITER
+//
+// Sends messages to the relay in batches. Messages are queued by "add" and a
+// background thread sends them as soon as a batch is full or the first message
+// in it has waited "flushMs", whichever comes first. That way a burst of
+// messages costs a few connections instead of one each, while a single
+// message is still sent almost right away.
+//
+// A batch that could not reach the relay is sent again (waiting longer each
+// time) so messages are not lost when the relay is briefly down, but only
+// "maxAttempts" times so that a relay that stays down does not hold up every
+// later batch. A batch the relay refuses (a wrong team secret, or a relay that
+// does not take batches) would be refused again, so it is dropped right away.
+// The queue is bounded so that a relay that stays down can not use up all the
+// memory; once it is full new messages are dropped and logged.
+final class RelayWriter {
+
+  private final static Logger.Log LOG = Logger.newLog(RelayWriter.class);
+
+  public static final int DEFAULT_QUEUE_SIZE = 8192;
+  public static final int DEFAULT_BATCH_SIZE = 64;
+  public static final long DEFAULT_FLUSH_MS = 5;
+  public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+  private static final long MIN_RETRY_MS = 100;
+  private static final long MAX_RETRY_MS = 5000;
+
+  private final Relay relay;
+  private final Uuid team;
+  private final Secret secret;
+
+  private final BlockingQueue<Relay.Packet> queue;
+  private final int batchSize;
+  private final long flushMs;
+  private final int maxAttempts;
+
+  // How long each attempt to send a batch took, and how many messages were
+  // sent or dropped.
+  private final Metrics.Latency writeLatency;
+  private final Metrics.Counter sent;
+  private final Metrics.Counter dropped;
+
+  private final Thread thread = new Thread("relay-writer") {
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          send(nextBatch());
+        }
+      } catch (InterruptedException ex) {
+        LOG.info("Relay writer stopped with %d messages unsent", queue.size());
+      }
+    }
+  };
+
+  public RelayWriter(Relay relay, Uuid team, Secret secret, Metrics metrics) {
+    this(relay, team, secret, DEFAULT_QUEUE_SIZE, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_MS, metrics);
+  }
+
+  public RelayWriter(Relay relay,
+                     Uuid team,
+                     Secret secret,
+                     int queueSize,
+                     int batchSize,
+                     long flushMs) {
+    this(relay, team, secret, queueSize, batchSize, flushMs, new Metrics());
+  }
+
+  public RelayWriter(Relay relay,
+                     Uuid team,
+                     Secret secret,
+                     int queueSize,
+                     int batchSize,
+                     long flushMs,
+                     Metrics metrics) {
+    this(relay, team, secret, queueSize, batchSize, flushMs, DEFAULT_MAX_ATTEMPTS, metrics);
+  }
+
+  public RelayWriter(Relay relay,
+                     Uuid team,
+                     Secret secret,
+                     int queueSize,
+                     int batchSize,
+                     long flushMs,
+                     int maxAttempts,
+                     Metrics metrics) {
+
+    this.relay = relay;
+    this.team = team;
+    this.secret = secret;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+    this.batchSize = Math.max(1, batchSize);
+    this.flushMs = Math.max(0, flushMs);
+    this.maxAttempts = Math.max(1, maxAttempts);
+
+    this.writeLatency = metrics.latency("relay.write");
+    this.sent = metrics.counter("relay.write.sent");
+    this.dropped = metrics.counter("relay.write.dropped");
+
+    metrics.gauge("relay.write.queued", new Metrics.Gauge() {
+      @Override
+      public long value() {
+        return queue.size();
+      }
+    });
+
+    thread.setDaemon(true);
+  }
+
+  public void start() {
+    thread.start();
+  }
+
+  public void stop() {
+    thread.interrupt();
+  }
+
+  // ADD
+  //
+  // Queue a message to be sent. Returns false if the queue is full and the
+  // message was dropped.
+  public boolean add(Relay.Packet packet) {
+
+    final boolean added = queue.offer(packet);
+
+    if (!added) {
+      dropped.increment();
+      LOG.error("Relay queue is full, dropping message %s", packet.message().id());
+    }
+
+    return added;
+  }
+
+  // Wait for at least one message, then keep taking more until the batch is
+  // full or it is time to send it.
+  private Collection<Relay.Packet> nextBatch() throws InterruptedException {
+
+    final Collection<Relay.Packet> batch = new ArrayList<>();
+    batch.add(queue.take());
+
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMs);
+
+    while (batch.size() < batchSize) {
+
+      // Take whatever is already there without waiting.
+      queue.drainTo(batch, batchSize - batch.size());
+
+      final long remaining = deadline - System.nanoTime();
+      if (batch.size() >= batchSize || remaining <= 0) {
+        break;
+      }
+
+      final Relay.Packet next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+      if (next == null) {
+        break;
+      }
+      batch.add(next);
+    }
+
+    return batch;
+  }
+
+  private void send(Collection<Relay.Packet> batch) throws InterruptedException {
+
+    long retryMs = MIN_RETRY_MS;
+
+    for (int attempt = 1; true; attempt++) {
+
+      final long start = System.nanoTime();
+
+      try {
+
+        final boolean accepted = relay.write(team, secret, batch);
+        writeLatency.record(start);
+
+        if (accepted) {
+          sent.add(batch.size());
+          LOG.info("Sent %d messages to relay", batch.size());
+        } else {
+          dropped.add(batch.size());
+          LOG.error("Relay refused %d messages, dropping them", batch.size());
+        }
+        return;
+
+      } catch (IOException ex) {
+
+        writeLatency.record(start);
+
+        if (attempt >= maxAttempts) {
+          dropped.add(batch.size());
+          LOG.error(ex, "Could not reach relay after %d attempts, dropping %d messages", attempt, batch.size());
+          return;
+        }
+
+        LOG.warning("Could not reach relay (%s), trying %d messages again in %d ms",
+                    ex.getMessage(),
+                    batch.size(),
+                    retryMs);
+      }
+
+      Thread.sleep(retryMs);
+      retryMs = Math.min(retryMs * 2, MAX_RETRY_MS);
+    }
+  }
+}
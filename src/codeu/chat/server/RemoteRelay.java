@@ -57,6 +57,30 @@ public final class RemoteRelay implements Relay {
     public String text() { return text; }
   }
 
+  private static final class Packet implements Relay.Packet {
+
+    private final Relay.Bundle.Component user;
+    private final Relay.Bundle.Component conversation;
+    private final Relay.Bundle.Component message;
+
+    public Packet(Relay.Bundle.Component user,
+                  Relay.Bundle.Component conversation,
+                  Relay.Bundle.Component message) {
+      this.user = user;
+      this.conversation = conversation;
+      this.message = message;
+    }
+
+    @Override
+    public Relay.Bundle.Component user() { return user; }
+
+    @Override
+    public Relay.Bundle.Component conversation() { return conversation; }
+
+    @Override
+    public Relay.Bundle.Component message() { return message; }
+  }
+
   private static final Serializer<Relay.Bundle.Component> COMPONENT_SERIALIZER =
       new Serializer<Relay.Bundle.Component>() {
 
@@ -78,6 +102,27 @@ public final class RemoteRelay implements Relay {
     }
   };
 
+  private static final Serializer<Relay.Packet> PACKET_SERIALIZER =
+      new Serializer<Relay.Packet>() {
+
+    @Override
+    public Relay.Packet read(InputStream in) throws IOException {
+
+      final Relay.Bundle.Component user = COMPONENT_SERIALIZER.read(in);
+      final Relay.Bundle.Component conversation = COMPONENT_SERIALIZER.read(in);
+      final Relay.Bundle.Component message = COMPONENT_SERIALIZER.read(in);
+
+      return new Packet(user, conversation, message);
+    }
+
+    @Override
+    public void write(OutputStream out, Relay.Packet value) throws IOException {
+      COMPONENT_SERIALIZER.write(out, value.user());
+      COMPONENT_SERIALIZER.write(out, value.conversation());
+      COMPONENT_SERIALIZER.write(out, value.message());
+    }
+  };
+
   private static final Serializer<Relay.Bundle> BUNDLE_SERIALIZER =
       new Serializer<Relay.Bundle>() {
 
@@ -159,6 +204,37 @@ public final class RemoteRelay implements Relay {
     return result;
   }
 
+  @Override
+  public Relay.Packet pack(Relay.Bundle.Component user,
+                           Relay.Bundle.Component conversation,
+                           Relay.Bundle.Component message) {
+    return new Packet(user, conversation, message);
+  }
+
+  @Override
+  public boolean write(Uuid teamId, Secret teamSecret, Collection<Relay.Packet> packets)
+      throws IOException {
+
+    // Errors reaching the relay are left to the caller, which can try again.
+    // Any answer from the relay other than a yes is final.
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WRITE_BATCH_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), teamId);
+      Secret.SERIALIZER.write(connection.out(), teamSecret);
+      Serializers.collection(PACKET_SERIALIZER).write(connection.out(), packets);
+
+      final int type = Serializers.INTEGER.read(connection.in());
+
+      if (type == NetworkCode.RELAY_WRITE_BATCH_RESPONSE) {
+        return Serializers.BOOLEAN.read(connection.in());
+      }
+
+      LOG.error("Server did not handle RELAY_WRITE_BATCH_REQUEST (answered %s)", NetworkCode.name(type));
+      return false;
+    }
+  }
+
   @Override
   public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
 
@@ -183,4 +259,59 @@ public final class RemoteRelay implements Relay {
 
     return result;
   }
+
+  @Override
+  public Collection<Relay.Bundle> read(Uuid teamId,
+                                       Secret teamSecret,
+                                       Uuid root,
+                                       int range,
+                                       long timeoutMs) {
+
+    final Collection<Relay.Bundle> result = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WAIT_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), teamId);
+      Secret.SERIALIZER.write(connection.out(), teamSecret);
+      Uuid.SERIALIZER.write(connection.out(), root);
+      Serializers.INTEGER.write(connection.out(), range);
+      Serializers.LONG.write(connection.out(), timeoutMs);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_READ_RESPONSE) {
+        result.addAll(Serializers.collection(BUNDLE_SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Server did not handle RELAY_WAIT_REQUEST");
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Unexpected error when sending RELAY_WAIT_REQUEST");
+    }
+
+    return result;
+  }
+
+  @Override
+  public boolean subscribe(Uuid teamId, Secret teamSecret, boolean includeSelf, Collection<Uuid> teams) {
+
+    boolean result = false;
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_SUBSCRIBE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), teamId);
+      Secret.SERIALIZER.write(connection.out(), teamSecret);
+      Serializers.BOOLEAN.write(connection.out(), includeSelf);
+      Serializers.collection(Uuid.SERIALIZER).write(connection.out(), teams);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_SUBSCRIBE_RESPONSE) {
+        result = Serializers.BOOLEAN.read(connection.in());
+      } else {
+        LOG.error("Server did not handle RELAY_SUBSCRIBE_REQUEST");
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Unexpected error when sending RELAY_SUBSCRIBE_REQUEST");
+    }
+
+    return result;
+  }
 }
@@ -15,14 +15,30 @@
 
 package codeu.chat.server;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import codeu.chat.common.Changes;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationHeader.ConversationUuid;
 import codeu.chat.common.ConversationPayload;
@@ -32,14 +48,17 @@ import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
 import codeu.chat.common.User;
 import codeu.chat.server.LocalFile;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Metrics;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Timeline;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.Frame;
 
 public final class Server {
   private interface Command {
@@ -51,9 +70,77 @@ public final class Server {
   private static final int RELAY_REFRESH_MS = 5000;  // 5 seconds
   private static final int LOCAL_FILE_REFRESH_MS = 1000;
 
+  // Reads from the relay wait up to this long for new bundles. A read that
+  // comes back empty much sooner than this means the relay is down or can not
+  // wait, and the server falls back to asking every RELAY_REFRESH_MS.
+  private static final int RELAY_WAIT_MS = 20000;
+
+  // How many bundles to ask the relay for. Each full read doubles the next one
+  // so a backlog is drained in a few large reads.
+  private static final int RELAY_MIN_BATCH = 32;
+  private static final int RELAY_MAX_BATCH = 1024;
+
+  public static final int DEFAULT_WORKER_THREADS = 16;
+
+  // How many requests may wait for a worker, and how many frames one session
+  // may have waiting or running at once. Past either limit the thread that
+  // hands over the work (accepting connections or reading a session) waits,
+  // so a client that sends faster than the server can answer is slowed down
+  // instead of growing the queue until memory runs out.
+  public static final int MAX_PENDING_REQUESTS = 1024;
+  public static final int MAX_SESSION_IN_FLIGHT = 64;
+
+  // Used by the workers when their queue is full: wait for room rather than
+  // dropping the request.
+  private static final RejectedExecutionHandler WAIT_FOR_ROOM = new RejectedExecutionHandler() {
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("Workers have been shut down");
+      }
+      try {
+        executor.getQueue().put(task);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException(ex);
+      }
+    }
+  };
+
   private final Timeline timeline = new Timeline();
 
+  // Reads from the relay can wait for a long time, so they get their own
+  // timeline to keep them from holding up saving and sending to the relay.
+  private final Timeline relayTimeline = new Timeline();
+
+  // Connections are handled on a pool of worker threads so that one slow
+  // client can not hold up every other request. The timelines are left for
+  // the periodic jobs (relay updates and saving to disk).
+  private final BlockingQueue<Runnable> pending = new LinkedBlockingQueue<>(MAX_PENDING_REQUESTS);
+  private final ExecutorService workers;
+
+  // Connections that switch to session mode stay open for as long as the
+  // client wants. Each one gets its own thread to read frames so that they
+  // do not use up the workers; the requests inside the frames are still run
+  // on the workers.
+  private final ExecutorService sessions = Executors.newCachedThreadPool();
+
+  // The model can be read from any thread at any time without a lock (see
+  // Model), but it only supports one writer at a time. Any change to it from a
+  // worker must hold this lock, as must any check that a change depends on.
+  // Socket I/O is always done outside of the lock so that a client that is
+  // slow to send its request or to read its response never blocks other
+  // clients.
+  private final Lock modelLock = new ReentrantLock();
+
   private final Map<Integer, Command> commands = new HashMap<>();
+
+  // Everything the server measures about itself, sent to clients that ask
+  // with SERVER_STATS_REQUEST. Each command gets a latency (which also counts
+  // how many times it was run) named after its network code.
+  private final Metrics metrics = new Metrics();
+  private final Map<Integer, Metrics.Latency> commandLatency = new HashMap<>();
+  private final Metrics.Counter rejected = metrics.counter("request.rejected");
   
   private final Uuid id;
   private final Secret secret;
@@ -61,61 +148,123 @@ public final class Server {
 
   private final Model model = new Model();
   private final View view = new View(model);
+
+  // Clients that keep a connection open to be told about new messages rather
+  // than polling for them. Their threads come from the same pool as sessions.
+  private final Subscriptions subscriptions = new Subscriptions(model, sessions, metrics);
+
   private final Controller controller;
 
   private final Relay relay;
+  private final RelayWriter relayWriter;
   private Uuid lastSeen = Uuid.NULL;
 
+  // Whether the relay has agreed to leave this server's own bundles out of
+  // its reads. Until it has, they are skipped here instead.
+  private boolean subscribed = false;
+
+  private int relayBatch = RELAY_MIN_BATCH;
+
   private final File file;
   private final LocalFile localFile;
+
+  // How long it took to read the saved data and load it into the model.
+  private final long startupMs;
   //One extra is added to this constructor, which can get the path information from user.
   public Server(final Uuid id, final Secret secret, final Relay relay,final File localFilePath) {
+    this(id, secret, relay, localFilePath, DEFAULT_WORKER_THREADS);
+  }
+
+  public Server(final Uuid id,
+                final Secret secret,
+                final Relay relay,
+                final File localFilePath,
+                final int workerThreads) {
 
     this.id = id;
+    this.workers = new ThreadPoolExecutor(Math.max(1, workerThreads),
+                                          Math.max(1, workerThreads),
+                                          0L,
+                                          TimeUnit.MILLISECONDS,
+                                          pending,
+                                          WAIT_FOR_ROOM);
     this.secret = secret;
     this.file = localFilePath;
-    this.localFile = new LocalFile(new File(file.getPath()));//file path is given by user
+
+    final long loadStart = System.nanoTime();
+    this.localFile = new LocalFile(new File(file.getPath()), model);//file path is given by user
     this.controller = new Controller(id, model,localFile);//Use the new constructor to create this new controller.
+    this.startupMs = (System.nanoTime() - loadStart) / 1000000;
+
+    LOG.info("Loaded saved data from %s in %d ms", file, startupMs);
+
+    // Loading leaves saved messages out of the search index so that the
+    // server can start sooner. They are indexed here in the background.
+    sessions.execute(new Runnable() {
+      @Override
+      public void run() {
+        final long start = System.nanoTime();
+        model.indexSavedText();
+        LOG.info("Indexed saved messages for search in %d ms", (System.nanoTime() - start) / 1000000);
+      }
+    });
+
     this.relay = relay;
+    this.relayWriter = new RelayWriter(relay, id, secret, metrics);
+    this.relayWriter.start();
     this.commands.put(NetworkCode.CONVERSATION_AUTHORITY_REQUEST, new Command()
     {
       @Override
       public void onMessage(InputStream in, OutputStream out) throws IOException
       {
-        final ConversationUuid conversation = new ConversationUuid(Uuid.SERIALIZER.read(in));
+        final ConversationUuid conversation = ConversationUuid.SERIALIZER.read(in);
         final Uuid targetUser = Uuid.SERIALIZER.read(in);
         final Uuid fromUser = Uuid.SERIALIZER.read(in);
         final String parameterString = Serializers.STRING.read(in);
-        if(fromUser.equals(targetUser))
-        {
-          Serializers.INTEGER.write(out, NetworkCode.CONVERSATION_ACCESS_DENIED);
-        }
-        else if(!model.isMember(conversation, fromUser))
-        {
-           Serializers.INTEGER.write(out, NetworkCode.CONVERSATION_ACCESS_DENIED);
-        }
-        else if(!model.isOwner(conversation, fromUser) && !model.isCreator(conversation, fromUser))
-        {
-          Serializers.INTEGER.write(out, NetworkCode.CONVERSATION_ACCESS_DENIED);
-        }
-        else if(model.isOwner(conversation, fromUser) && parameterString.equals("o"))
-        {
-          Serializers.INTEGER.write(out, NetworkCode.CONVERSATION_ACCESS_DENIED);
-        }
-        else if(model.isOwner(conversation, fromUser) && model.isOwner(conversation, targetUser))
-        {
-          Serializers.INTEGER.write(out, NetworkCode.CONVERSATION_ACCESS_DENIED);
-        }
-        else if(model.isOwner(conversation, fromUser) && model.isCreator(conversation, targetUser))
+
+        boolean granted = false;
+
+        modelLock.lock();
+        try
         {
-          Serializers.INTEGER.write(out, NetworkCode.CONVERSATION_ACCESS_DENIED);
+          if(fromUser.equals(targetUser))
+          {
+            granted = false;
+          }
+          else if(!model.isMember(conversation, fromUser))
+          {
+            granted = false;
+          }
+          else if(!model.isOwner(conversation, fromUser) && !model.isCreator(conversation, fromUser))
+          {
+            granted = false;
+          }
+          else if(model.isOwner(conversation, fromUser) && parameterString.equals("o"))
+          {
+            granted = false;
+          }
+          else if(model.isOwner(conversation, fromUser) && model.isOwner(conversation, targetUser))
+          {
+            granted = false;
+          }
+          else if(model.isOwner(conversation, fromUser) && model.isCreator(conversation, targetUser))
+          {
+            granted = false;
+          }
+          else
+          {
+            controller.authorityModificationRequest(conversation, targetUser, fromUser, parameterString);
+            granted = true;
+          }
         }
-        else
+        finally
         {
-          controller.authorityModificationRequest(conversation, targetUser, fromUser, parameterString);
-          
-          Serializers.INTEGER.write(out, NetworkCode.CONVERSATION_AUTHORITY_RESPONSE);
+          modelLock.unlock();
         }
+
+        Serializers.INTEGER.write(out, granted ?
+                                       NetworkCode.CONVERSATION_AUTHORITY_RESPONSE :
+                                       NetworkCode.CONVERSATION_ACCESS_DENIED);
       }
     });
     // New Message - A client wants to add a new message to the back end.
@@ -124,19 +273,31 @@ public final class Server {
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
         final Uuid author = Uuid.SERIALIZER.read(in);
-        final ConversationUuid conversation = new ConversationUuid( Uuid.SERIALIZER.read(in));
+        final ConversationUuid conversation = ConversationUuid.SERIALIZER.read(in);
         final String content = Serializers.STRING.read(in);
 
-        if(!model.isMember(conversation, author)){
+        final boolean member;
+        Message message = null;
+
+        modelLock.lock();
+        try {
+          member = model.isMember(conversation, author);
+          if (member) {
+            message = controller.newMessage(author, conversation, content);
+          }
+        } finally {
+          modelLock.unlock();
+        }
+
+        if(!member){
           Serializers.INTEGER.write(out, NetworkCode.CONVERSATION_ACCESS_DENIED);
         } else {
-          final Message message = controller.newMessage(author, conversation, content);
           Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
           Serializers.nullable(Message.SERIALIZER).write(out, message);
-          timeline.scheduleNow(createSendToRelayEvent(
-        	author,
-        	conversation,
-        	message.id));
+          sendToRelay(author, conversation, message);
+          if (message != null) {
+            subscriptions.publish(view.findConversation(conversation.root()), message);
+          }
         }
       }
     });
@@ -147,7 +308,14 @@ public final class Server {
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
         final String name = Serializers.STRING.read(in);
-        final User user = controller.newUser(name);
+
+        final User user;
+        modelLock.lock();
+        try {
+          user = controller.newUser(name);
+        } finally {
+          modelLock.unlock();
+        }
         
         Serializers.INTEGER.write(out, NetworkCode.NEW_USER_RESPONSE);
         Serializers.nullable(User.SERIALIZER).write(out, user);
@@ -161,7 +329,14 @@ public final class Server {
 
         final String title = Serializers.STRING.read(in);
         final Uuid owner = Uuid.SERIALIZER.read(in);
-        final ConversationHeader conversation = controller.newConversation(title, owner);
+
+        final ConversationHeader conversation;
+        modelLock.lock();
+        try {
+          conversation = controller.newConversation(title, owner);
+        } finally {
+          modelLock.unlock();
+        }
 
         Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_RESPONSE);
         Serializers.nullable(ConversationHeader.SERIALIZER).write(out, conversation);
@@ -192,6 +367,54 @@ public final class Server {
       }
     });
 
+    // Get Changes - A client wants the users and conversations added since it
+    // last asked.
+    this.commands.put(NetworkCode.GET_CHANGES_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final long epoch = Serializers.LONG.read(in);
+        final long since = Serializers.LONG.read(in);
+
+        final Changes changes = view.getChanges(epoch, since);
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_CHANGES_RESPONSE);
+        Changes.SERIALIZER.write(out, changes);
+      }
+    });
+
+    // Get Users By Prefix - A client wants the users whose names start with
+    // some text, for example to find one user by name.
+    this.commands.put(NetworkCode.GET_USERS_BY_PREFIX_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final String prefix = Serializers.STRING.read(in);
+        final int limit = Serializers.INTEGER.read(in);
+
+        final Collection<User> users = view.getUsersByPrefix(prefix, limit);
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_USERS_BY_PREFIX_RESPONSE);
+        Serializers.collection(User.SERIALIZER).write(out, users);
+      }
+    });
+
+    // Get Conversations By Prefix - A client wants the conversations whose
+    // titles start with some text.
+    this.commands.put(NetworkCode.GET_CONVERSATIONS_BY_PREFIX_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final String prefix = Serializers.STRING.read(in);
+        final int limit = Serializers.INTEGER.read(in);
+
+        final Collection<ConversationHeader> conversations = view.getConversationsByPrefix(prefix, limit);
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_PREFIX_RESPONSE);
+        Serializers.collection(ConversationHeader.SERIALIZER).write(out, conversations);
+      }
+    });
+
     // Get Conversations By Id - A client wants to get a subset of the converations from
     //                           the back end. Normally this will be done after calling
     //                           Get Conversations to get all the headers and now the client
@@ -201,6 +424,7 @@ public final class Server {
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
         final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
+
         final Collection<ConversationPayload> conversations = view.getConversationPayloads(ids);
 
         Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
@@ -210,27 +434,81 @@ public final class Server {
 
     // Get Messages By Id - A client wants to get a subset of the messages from the back end.
     this.commands.put(NetworkCode.GET_MESSAGES_BY_ID_REQUEST, new Command() {
-      boolean firstCall = true;
       @Override
       public void onMessage(InputStream in, OutputStream out) throws IOException {
-    	final ConversationUuid conversation = new ConversationUuid(Uuid.SERIALIZER.read(in));
+    	final ConversationUuid conversation = ConversationUuid.SERIALIZER.read(in);
     	final Uuid user = Uuid.SERIALIZER.read(in);
       final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
-          if(firstCall && !model.isMember(conversation, user)){
+
+        // Checked on every call, the same as a page of messages, so that one
+        // client's requests never decide what another is allowed to read.
+        final boolean member = model.isMember(conversation, user);
+        Collection<Message> messages = null;
+
+        if (member) {
+          messages = view.getMessages(conversation, user, ids);
+        }
+
+        if(!member){
           Serializers.INTEGER.write(out, NetworkCode.CONVERSATION_ACCESS_DENIED);
         } else {
-          firstCall = false;
-          final Collection<Message> messages = view.getMessages(conversation, user, ids);
-          if(messages.size() == 0)
-          {
-            firstCall = true;
-          }
           Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
           Serializers.collection(Message.SERIALIZER).write(out, messages);
         }     
       }
     });
 
+    // Get Message Page - A client wants a run of messages from a conversation,
+    // starting after a known message.
+    this.commands.put(NetworkCode.GET_MESSAGES_PAGE_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final ConversationUuid conversation = ConversationUuid.SERIALIZER.read(in);
+        final Uuid user = Uuid.SERIALIZER.read(in);
+        final Uuid cursor = Uuid.SERIALIZER.read(in);
+        final int count = Serializers.INTEGER.read(in);
+        final boolean forward = Serializers.BOOLEAN.read(in);
+
+        final boolean member = model.isMember(conversation, user);
+        Collection<Message> messages = null;
+
+        if (member) {
+          messages = view.getMessagePage(conversation, user, cursor, count, forward);
+        }
+
+        if (member) {
+          Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_PAGE_RESPONSE);
+          Serializers.collection(Message.SERIALIZER).write(out, messages);
+        } else {
+          Serializers.INTEGER.write(out, NetworkCode.CONVERSATION_ACCESS_DENIED);
+        }
+      }
+    });
+
+    // Search Messages - A client wants the messages in a conversation that
+    // match some words.
+    this.commands.put(NetworkCode.SEARCH_MESSAGES_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final ConversationUuid conversation = ConversationUuid.SERIALIZER.read(in);
+        final Uuid user = Uuid.SERIALIZER.read(in);
+        final String query = Serializers.STRING.read(in);
+        final int offset = Serializers.INTEGER.read(in);
+        final int count = Serializers.INTEGER.read(in);
+
+        if (model.isMember(conversation, user)) {
+          Serializers.INTEGER.write(out, NetworkCode.SEARCH_MESSAGES_RESPONSE);
+          Serializers.collection(Message.SERIALIZER).write(
+              out,
+              view.searchMessages(conversation, user, query, offset, count));
+        } else {
+          Serializers.INTEGER.write(out, NetworkCode.CONVERSATION_ACCESS_DENIED);
+        }
+      }
+    });
+
     //Get the version from server
     this.commands.put(NetworkCode.SERVER_INFO_REQUEST, new Command()
     {
@@ -243,15 +521,26 @@ public final class Server {
       }
     });
 
+    // Server Stats - A client wants to see the server's metrics.
+    this.commands.put(NetworkCode.SERVER_STATS_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.SERVER_STATS_RESPONSE);
+        ServerStats.SERIALIZER.write(out, new ServerStats(metrics));
+      }
+    });
+
     this.commands.put(NetworkCode.INTEREST_SET_REQUEST, new Command()
     {
       @Override
       public void onMessage(InputStream in,OutputStream out) throws IOException
       {
         final Uuid id = Uuid.SERIALIZER.read(in);
-       
+
+        final InterestSet interests = model.getInterestSet(id);
+
         Serializers.INTEGER.write(out, NetworkCode.INTEREST_SET_RESPONSE);
-        InterestSet.SERIALIZER.write(out, model.getInterestSet(id)); 
+        InterestSet.SERIALIZER.write(out, interests);
       }
       
     });
@@ -263,39 +552,100 @@ public final class Server {
       {
         final Uuid id = Uuid.SERIALIZER.read(in);
         final InterestSet intSet = InterestSet.SERIALIZER.read(in);
-        controller.updateInterests(id, intSet);
+
+        modelLock.lock();
+        try {
+          controller.updateInterests(id, intSet);
+          subscriptions.update(id, intSet);
+        } finally {
+          modelLock.unlock();
+        }
       }
     });
 
-    this.timeline.scheduleNow(new Runnable() {
+    for (final int code : commands.keySet()) {
+      commandLatency.put(code, metrics.latency("request." + NetworkCode.name(code)));
+    }
+
+    measure();
+
+    this.relayTimeline.scheduleNow(new Runnable() {
+
+      private final Metrics.Latency readLatency = metrics.latency("relay.read");
+      private final Metrics.Counter readBundles = metrics.counter("relay.read.bundles");
+
       @Override
       public void run() {
+
+        long delay = RELAY_REFRESH_MS;
+
         try {
 
+          if (!subscribed) {
+            subscribed = relay.subscribe(id, secret, false, new ArrayList<Uuid>());
+          }
+
           LOG.info("Reading update from relay...");
 
-          for (final Relay.Bundle bundle : relay.read(id, secret, lastSeen, 32)) {
-            onBundle(bundle);
+          final long start = System.nanoTime();
+          final Collection<Relay.Bundle> bundles = relay.read(id, secret, lastSeen, relayBatch, RELAY_WAIT_MS);
+          final long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+          readLatency.record(start);
+          readBundles.add(bundles.size());
+
+          for (final Relay.Bundle bundle : bundles) {
+            if (!Uuid.equals(bundle.team(), id)) {
+              modelLock.lock();
+              try {
+                onBundle(bundle);
+              } finally {
+                modelLock.unlock();
+              }
+            }
             lastSeen = bundle.id();
           }
 
+          // A full read means there is probably more waiting, so ask for more
+          // next time. The relay may send less than asked for, so only an
+          // empty read means the server has caught up.
+          if (bundles.size() >= relayBatch) {
+            relayBatch = Math.min(relayBatch * 2, RELAY_MAX_BATCH);
+          } else if (bundles.isEmpty()) {
+            relayBatch = RELAY_MIN_BATCH;
+          }
+
+          // The relay did the waiting, so read again straight away - unless it
+          // answered with nothing long before it should have.
+          if (!bundles.isEmpty() || waited >= RELAY_WAIT_MS / 2) {
+            delay = 0;
+          }
+
         } catch (Exception ex) {
 
           LOG.error(ex, "Failed to read update from relay.");
 
         }
 
-        timeline.scheduleIn(RELAY_REFRESH_MS, this);
+        relayTimeline.scheduleIn(delay, this);
       }
     });
     //Save the data periodically
     this.timeline.scheduleNow(new Runnable() {
+
+      private final Metrics.Latency saveLatency = metrics.latency("save");
+      private final Metrics.Counter saveBytes = metrics.counter("save.bytes");
+
       @Override
       public void run() 
       {
+        // The local file does its own locking and only holds it while
+        // handing records to the OS, so saving does not need the model lock.
         try
         {
-          localFile.saveData();
+          final long start = System.nanoTime();
+          saveBytes.add(localFile.saveData());
+          saveLatency.record(start);
         }
         catch(IOException exception)
         {
@@ -310,24 +660,77 @@ public final class Server {
     });
   }
   
+  // STARTUP TIME
+  //
+  // How long, in milliseconds, the server took to load its saved data.
+  public long startupTime() {
+    return startupMs;
+  }
+
+  // MEASURE
+  //
+  // Register the gauges that read the server's state: how much work is
+  // waiting and how much is in the model.
+  private void measure() {
+
+    metrics.gauge("startup.ms", new Metrics.Gauge() {
+      @Override
+      public long value() { return startupMs; }
+    });
+    metrics.gauge("workers.queued", new Metrics.Gauge() {
+      @Override
+      public long value() { return pending.size(); }
+    });
+    metrics.gauge("timeline.backlog", new Metrics.Gauge() {
+      @Override
+      public long value() { return timeline.backlogSize(); }
+    });
+    metrics.gauge("timeline.todo", new Metrics.Gauge() {
+      @Override
+      public long value() { return timeline.todoSize(); }
+    });
+    metrics.gauge("relay.timeline.backlog", new Metrics.Gauge() {
+      @Override
+      public long value() { return relayTimeline.backlogSize(); }
+    });
+    metrics.gauge("relay.timeline.todo", new Metrics.Gauge() {
+      @Override
+      public long value() { return relayTimeline.todoSize(); }
+    });
+    metrics.gauge("model.users", new Metrics.Gauge() {
+      @Override
+      public long value() { return model.userCount(); }
+    });
+    metrics.gauge("model.conversations", new Metrics.Gauge() {
+      @Override
+      public long value() { return model.conversationCount(); }
+    });
+    metrics.gauge("model.messages", new Metrics.Gauge() {
+      @Override
+      public long value() { return model.messageCount(); }
+    });
+  }
+
   public void handleConnection(final Connection connection) {
-    timeline.scheduleNow(new Runnable() {
+    workers.execute(new Runnable() {
       @Override
       public void run() {
+
+        boolean keepOpen = false;
+
         try {
 
           LOG.info("Handling connection...");
 
           final int type = Serializers.INTEGER.read(connection.in());
-          final Command command = commands.get(type);
 
-          if (command == null) {
-            // The message type cannot be handled so return a dummy message.
-            Serializers.INTEGER.write(connection.out(), NetworkCode.NO_MESSAGE);
-            LOG.info("Connection rejected");
+          if (type == NetworkCode.SESSION_REQUEST) {
+            sessions.execute(createSession(connection));
+            keepOpen = true;
+          } else if (type == NetworkCode.SUBSCRIBE_REQUEST) {
+            keepOpen = subscribe(connection);
           } else {
-            command.onMessage(connection.in(), connection.out());
-            LOG.info("Connection accepted");
+            dispatch(type, connection.in(), connection.out());
           }
 
         } catch (Exception ex) {
@@ -336,20 +739,151 @@ public final class Server {
 
         }
 
+        if (!keepOpen) {
+          try {
+            connection.close();
+          } catch (Exception ex) {
+            LOG.error(ex, "Exception while closing connection.");
+          }
+        }
+      }
+    });
+  }
+
+  private void dispatch(int type, InputStream in, OutputStream out) throws IOException {
+
+    final Command command = commands.get(type);
+
+    if (command == null) {
+      // The message type cannot be handled so return a dummy message.
+      rejected.increment();
+      Serializers.INTEGER.write(out, NetworkCode.NO_MESSAGE);
+      LOG.info("Connection rejected");
+    } else {
+      final long start = System.nanoTime();
+      command.onMessage(in, out);
+      commandLatency.get(type).record(start);
+      LOG.info("Connection accepted");
+    }
+  }
+
+  // SUBSCRIBE
+  //
+  // Answer a subscription request and, if the user exists, hand the connection
+  // over to the subscriptions. Returns whether the connection is to be kept
+  // open.
+  private boolean subscribe(Connection connection) throws IOException {
+
+    final Uuid user = Uuid.SERIALIZER.read(connection.in());
+    final boolean known = view.findUser(user) != null;
+
+    Serializers.INTEGER.write(connection.out(), NetworkCode.SUBSCRIBE_RESPONSE);
+    Serializers.BOOLEAN.write(connection.out(), known);
+
+    if (!known) {
+      return false;
+    }
+
+    subscriptions.open(user, connection);
+
+    // Read the interests under the lock so that an update that comes in at the
+    // same time is not lost.
+    modelLock.lock();
+    try {
+      subscriptions.update(user, model.getInterestSet(user));
+    } finally {
+      modelLock.unlock();
+    }
+
+    return true;
+  }
+
+  // CREATE SESSION
+  //
+  // Read frames from a session connection until the client closes it. Every
+  // frame is handled on a worker and its response is sent back in a frame with
+  // the same id as soon as it is ready, so responses may come back in a
+  // different order than the requests were sent.
+  private Runnable createSession(final Connection connection) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+
+          LOG.info("Session started.");
+
+          final Semaphore inFlight = new Semaphore(MAX_SESSION_IN_FLIGHT);
+
+          while (true) {
+            final Frame request = Frame.SERIALIZER.read(connection.in());
+            // Stop reading until one of this session's requests is answered.
+            inFlight.acquire();
+            workers.execute(new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  handle();
+                } finally {
+                  inFlight.release();
+                }
+              }
+
+              private void handle() {
+
+                final ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+                try {
+                  final InputStream in = new ByteArrayInputStream(request.payload);
+                  dispatch(Serializers.INTEGER.read(in), in, response);
+                } catch (Exception ex) {
+                  LOG.error(ex, "Exception while handling session request.");
+                  // A request that failed half way would leave a partial
+                  // response, send nothing back instead (the same as a closed
+                  // connection would look like).
+                  response.reset();
+                }
+
+                try {
+                  synchronized (connection) {
+                    Frame.SERIALIZER.write(connection.out(),
+                                           new Frame(request.id, response.toByteArray()));
+                    connection.out().flush();
+                  }
+                } catch (Exception ex) {
+                  LOG.error(ex, "Exception while writing session response.");
+                }
+              }
+            });
+          }
+
+        } catch (EOFException ex) {
+
+          LOG.info("Session ended.");
+
+        } catch (Exception ex) {
+
+          LOG.error(ex, "Exception while reading session.");
+
+        }
+
         try {
           connection.close();
         } catch (Exception ex) {
-          LOG.error(ex, "Exception while closing connection.");
+          LOG.error(ex, "Exception while closing session.");
         }
       }
-    });
+    };
   }
 
   private void onBundle(Relay.Bundle bundle) {
 
     final Relay.Bundle.Component relayUser = bundle.user();
     final Relay.Bundle.Component relayConversation = bundle.conversation();
-    final Relay.Bundle.Component relayMessage = bundle.user();
+    final Relay.Bundle.Component relayMessage = bundle.message();
+
+    // The relay passes ids as plain Uuids, conversations are stored by the
+    // root of their id.
+    final ConversationUuid conversationId = ConversationUuid.fromChain(relayConversation.id());
 
     User user = model.userById().first(relayUser.id());
 
@@ -357,14 +891,14 @@ public final class Server {
       user = controller.newUser(relayUser.id(), relayUser.text(), relayUser.time());
     }
 
-    ConversationHeader conversation = model.conversationById().first(relayConversation.id());
+    ConversationHeader conversation = model.conversationById().first(conversationId.root());
 
     if (conversation == null) {
 
       // As the relay does not tell us who made the conversation - the first person who
       // has a message in the conversation will get ownership over this server's copy
       // of the conversation.
-      conversation = controller.newConversation((ConversationUuid) relayConversation.id(),
+      conversation = controller.newConversation(conversationId,
                                                 relayConversation.text(),
                                                 user.id,
                                                 relayConversation.time());
@@ -378,24 +912,24 @@ public final class Server {
                                       conversation.id,
                                       relayMessage.text(),
                                       relayMessage.time());
+      if (message != null) {
+        subscriptions.publish(conversation, message);
+      }
     }
   }
 
-  private Runnable createSendToRelayEvent(final Uuid userId,
-                                          final Uuid conversationId,
-                                          final Uuid messageId) {
-    return new Runnable() {
-      @Override
-      public void run() {
-        final User user = view.findUser(userId);
-        final ConversationHeader conversation = view.findConversation(conversationId);
-        final Message message = view.findMessage(messageId);
-        relay.write(id,
-                    secret,
-                    relay.pack(user.id, user.name, user.creation),
-                    relay.pack(conversation.id, conversation.title, conversation.creation),
-                    relay.pack(message.id, message.content, message.creation));
-      }
-    };
+  // SEND TO RELAY
+  //
+  // Queue a new message to be sent to the relay along with its author and
+  // conversation.
+  private void sendToRelay(Uuid userId, ConversationUuid conversationId, Message message) {
+
+    final User user = view.findUser(userId);
+    final ConversationHeader conversation = view.findConversation(conversationId.root());
+
+    relayWriter.add(relay.pack(
+        relay.pack(user.id, user.name, user.creation),
+        relay.pack(conversation.id, conversation.title, conversation.creation),
+        relay.pack(message.id, message.content(), message.creation)));
   }
 }
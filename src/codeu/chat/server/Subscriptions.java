@@ -0,0 +1,359 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import codeu.chat.common.Bookmark;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.InterestSet;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Metrics;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+// SUBSCRIPTIONS
+//
+// Pushes new messages to clients that asked to hear about them instead of
+// having them poll. A client opens a connection with SUBSCRIBE_REQUEST and
+// keeps it open; from then on every new message in a conversation it has
+// bookmarked, or written by a user it follows (both from its InterestSet), is
+// sent to it as a NEW_MESSAGE_EVENT. Its own messages are left out, and so
+// is anything in a conversation the user is not (or no longer) a member of:
+// the InterestSet is whatever the client said it was, so membership is
+// checked against the model for every message.
+//
+// Subscribers are indexed by the conversations and authors they care about,
+// so "publish" only touches the subscribers a message is for. It never does
+// any I/O itself: each subscriber has a bounded queue that its own thread
+// writes out. A subscriber that falls so far behind that its queue is full is
+// dropped rather than holding up the writer or using up memory; it can catch
+// up the same way it would after being offline (status-update).
+final class Subscriptions {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscriptions.class);
+
+  public static final int DEFAULT_QUEUE_SIZE = 256;
+
+  private static final class Event {
+
+    public final ConversationHeader conversation;
+    public final Message message;
+
+    public Event(ConversationHeader conversation, Message message) {
+      this.conversation = conversation;
+      this.message = message;
+    }
+  }
+
+  // Queued after everything else to tell a subscriber's sender to stop.
+  private static final Event CLOSED = new Event(null, null);
+
+  private final class Subscriber {
+
+    public final Uuid user;
+
+    private final Connection connection;
+    private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(queueSize);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    // The keys this subscriber is indexed under, so that it can be taken out
+    // again. Only used while holding the lock on the Subscriptions.
+    private Collection<Uuid> conversations = Collections.emptySet();
+    private Collection<Uuid> authors = Collections.emptySet();
+
+    public Subscriber(Uuid user, Connection connection) {
+      this.user = user;
+      this.connection = connection;
+    }
+
+    public void offer(Event event) {
+      if (closed.get()) {
+        return;
+      }
+      if (queue.offer(event)) {
+        published.increment();
+      } else {
+        dropped.increment();
+        LOG.error("Subscriber %s is too far behind, dropping it", user);
+        close();
+      }
+    }
+
+    public void close() {
+      if (closed.compareAndSet(false, true)) {
+        remove(this);
+        // Anything still queued will never be read, make room to say so.
+        queue.clear();
+        queue.offer(CLOSED);
+      }
+    }
+
+    // Write events out until the subscriber is closed or the client goes away.
+    // Events are flushed once the queue is empty so that a burst of messages
+    // goes out in a few writes.
+    public Runnable sender(final OutputStream out) {
+      return new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              final Event event = queue.take();
+              if (event == CLOSED) {
+                break;
+              }
+              Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_EVENT);
+              ConversationHeader.SERIALIZER.write(out, event.conversation);
+              Message.SERIALIZER.write(out, event.message);
+              if (queue.isEmpty()) {
+                out.flush();
+              }
+            }
+          } catch (InterruptedException ex) {
+            LOG.info("Subscriber %s interrupted", user);
+          } catch (IOException ex) {
+            LOG.info("Subscriber %s went away: %s", user, ex.getMessage());
+          }
+
+          close();
+
+          try {
+            connection.close();
+          } catch (Exception ex) {
+            LOG.error(ex, "Exception while closing subscription.");
+          }
+        }
+      };
+    }
+
+    // The client sends nothing after its request, so reading only ends when
+    // it closes the connection. That is the only way to notice a client that
+    // left while there was nothing to send it.
+    public Runnable watcher(final InputStream in) {
+      return new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (in.read() >= 0) { }
+          } catch (IOException ex) {
+            // Closed by the sender.
+          }
+          close();
+        }
+      };
+    }
+  }
+
+  private final Model model;
+  private final Executor executor;
+  private final int queueSize;
+
+  // Subscribers by the root of a conversation they bookmarked, by a user they
+  // follow and by their own user. The sets are copied on write so "publish"
+  // can read them without a lock; changes are made while holding the lock on
+  // this object.
+  private final Map<Uuid, Set<Subscriber>> byConversation = new ConcurrentHashMap<>();
+  private final Map<Uuid, Set<Subscriber>> byAuthor = new ConcurrentHashMap<>();
+  private final Map<Uuid, Set<Subscriber>> byUser = new ConcurrentHashMap<>();
+
+  private final AtomicInteger open = new AtomicInteger();
+  private final Metrics.Counter published;
+  private final Metrics.Counter dropped;
+
+  public Subscriptions(Model model, Executor executor, Metrics metrics) {
+    this(model, executor, DEFAULT_QUEUE_SIZE, metrics);
+  }
+
+  public Subscriptions(Model model, Executor executor, int queueSize, Metrics metrics) {
+
+    this.model = model;
+    this.executor = executor;
+    this.queueSize = Math.max(1, queueSize);
+
+    this.published = metrics.counter("subscriptions.published");
+    this.dropped = metrics.counter("subscriptions.dropped");
+
+    metrics.gauge("subscriptions.open", new Metrics.Gauge() {
+      @Override
+      public long value() {
+        return open.get();
+      }
+    });
+  }
+
+  // OPEN
+  //
+  // Start pushing events for "user" to a connection that has already been
+  // answered. The connection is owned by the subscription from here on and is
+  // closed when the client goes away. Nothing is sent until "update" tells it
+  // what the user is interested in.
+  public void open(Uuid user, Connection connection) throws IOException {
+
+    final Subscriber subscriber = new Subscriber(user, connection);
+
+    // Getting the input flushes the response to the request, which must be
+    // done before the sender starts writing from another thread.
+    final InputStream in = connection.in();
+    final OutputStream out = connection.out();
+
+    synchronized (this) {
+      add(byUser, user, subscriber);
+    }
+    open.incrementAndGet();
+
+    LOG.info("Subscriber %s opened", user);
+
+    executor.execute(subscriber.sender(out));
+    executor.execute(subscriber.watcher(in));
+  }
+
+  // UPDATE
+  //
+  // Re-index every open subscription of a user after its interests changed.
+  public synchronized void update(Uuid user, InterestSet interests) {
+    final Set<Subscriber> subscribers = byUser.get(user);
+    if (subscribers != null) {
+      for (final Subscriber subscriber : subscribers) {
+        index(subscriber, interests);
+      }
+    }
+  }
+
+  // PUBLISH
+  //
+  // Queue a new message for everyone who follows its conversation or its
+  // author and is a member of the conversation. Only looks at those
+  // subscribers and never blocks.
+  public void publish(ConversationHeader conversation, Message message) {
+
+    final Set<Subscriber> inConversation = byConversation.get(message.conversation);
+    final Set<Subscriber> byWriter = byAuthor.get(message.author);
+
+    if (inConversation == null && byWriter == null) {
+      return;
+    }
+
+    // Someone who follows both should still hear about it once.
+    final Set<Subscriber> targets = new HashSet<>();
+    if (inConversation != null) {
+      targets.addAll(inConversation);
+    }
+    if (byWriter != null) {
+      targets.addAll(byWriter);
+    }
+
+    final Event event = new Event(conversation, message);
+    for (final Subscriber subscriber : targets) {
+      if (!subscriber.user.equals(message.author) &&
+          model.isMember(conversation, subscriber.user)) {
+        subscriber.offer(event);
+      }
+    }
+  }
+
+  // SIZE
+  //
+  // How many subscriptions are open.
+  public int size() {
+    return open.get();
+  }
+
+  private synchronized void remove(Subscriber subscriber) {
+    unindex(subscriber);
+    if (take(byUser, subscriber.user, subscriber)) {
+      open.decrementAndGet();
+      LOG.info("Subscriber %s closed", subscriber.user);
+    }
+  }
+
+  private void index(Subscriber subscriber, InterestSet interests) {
+
+    unindex(subscriber);
+
+    final Collection<Uuid> conversations = new HashSet<>();
+    final Collection<Uuid> authors = new HashSet<>();
+
+    if (interests != null) {
+      for (final Bookmark bookmark : interests.bookmarks) {
+        if (bookmark.conversation != null) {
+          conversations.add(bookmark.conversation.id.root());
+        }
+      }
+      for (final User user : interests.users) {
+        authors.add(user.id);
+      }
+    }
+
+    for (final Uuid conversation : conversations) {
+      add(byConversation, conversation, subscriber);
+    }
+    for (final Uuid author : authors) {
+      add(byAuthor, author, subscriber);
+    }
+
+    subscriber.conversations = conversations;
+    subscriber.authors = authors;
+  }
+
+  private void unindex(Subscriber subscriber) {
+    for (final Uuid conversation : subscriber.conversations) {
+      take(byConversation, conversation, subscriber);
+    }
+    for (final Uuid author : subscriber.authors) {
+      take(byAuthor, author, subscriber);
+    }
+    subscriber.conversations = Collections.emptySet();
+    subscriber.authors = Collections.emptySet();
+  }
+
+  private static void add(Map<Uuid, Set<Subscriber>> index, Uuid key, Subscriber subscriber) {
+    Set<Subscriber> subscribers = index.get(key);
+    if (subscribers == null) {
+      subscribers = new CopyOnWriteArraySet<>();
+      index.put(key, subscribers);
+    }
+    subscribers.add(subscriber);
+  }
+
+  private static boolean take(Map<Uuid, Set<Subscriber>> index, Uuid key, Subscriber subscriber) {
+    final Set<Subscriber> subscribers = index.get(key);
+    if (subscribers == null || !subscribers.remove(subscriber)) {
+      return false;
+    }
+    if (subscribers.isEmpty()) {
+      index.remove(key);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,271 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// TEXT INDEX
+//
+// An inverted index over the content of one conversation's messages. Each
+// term maps to the positions (see ConversationIndex) of the messages that use
+// it. Positions only ever grow, so each list is kept as the gaps between
+// positions written as variable length integers - most gaps fit in one byte,
+// far less than keeping the content itself or a message id per entry.
+//
+// A term is a run of letters and digits, compared without case. A search
+// finds the messages that have any of the query's terms and ranks them by how
+// many of the terms they have, newest first among equals.
+//
+// Like ConversationIndex, one thread may add while others search. A list's
+// bytes are written before its length is raised to include them, and readers
+// read the length first.
+//
+// Several indexes over runs of positions that follow each other can be
+// searched as one, see the static "search".
+final class TextIndex {
+
+  // Longer terms are cut to this length, so that one huge word can not make
+  // an equally huge key.
+  public static final int MAX_TERM_LENGTH = 64;
+
+  // Only this many distinct terms of a query are used.
+  public static final int MAX_QUERY_TERMS = 16;
+
+  private final Map<String, Postings> terms = new ConcurrentHashMap<>();
+
+  // ADD
+  //
+  // Index the content of the message at "position". Positions must be added
+  // in increasing order.
+  public void add(int position, String content) {
+    for (final String term : terms(content)) {
+      Postings postings = terms.get(term);
+      if (postings == null) {
+        postings = new Postings();
+        terms.put(term, postings);
+      }
+      postings.add(position);
+    }
+  }
+
+  // SEARCH
+  //
+  // The positions of every message that has at least one term of the query,
+  // best first.
+  public int[] search(String query) {
+    return search(query, this);
+  }
+
+  // SEARCH
+  //
+  // Search several indexes as if they were one. Every position in an index
+  // must be above every position in the indexes before it.
+  public static int[] search(String query, TextIndex... indexes) {
+
+    final List<int[]> lists = new ArrayList<>();
+
+    for (final String term : terms(query)) {
+      if (lists.size() == MAX_QUERY_TERMS) {
+        break;
+      }
+      final int[] positions = positions(term, indexes);
+      if (positions.length > 0) {
+        lists.add(positions);
+      }
+    }
+
+    if (lists.size() == 1) {
+      return reverse(lists.get(0));
+    }
+
+    // Walk all the lists together in order of position. The score of a
+    // position is how many lists have it. Hits are kept in one list per
+    // score, each in position order, so ranking needs no sort.
+    final int[] heads = new int[lists.size()];
+    final int[][] byScore = new int[lists.size() + 1][];
+    final int[] counts = new int[lists.size() + 1];
+
+    while (true) {
+
+      int next = Integer.MAX_VALUE;
+      for (int i = 0; i < heads.length; i++) {
+        if (heads[i] < lists.get(i).length) {
+          next = Math.min(next, lists.get(i)[heads[i]]);
+        }
+      }
+
+      if (next == Integer.MAX_VALUE) {
+        break;
+      }
+
+      int score = 0;
+      for (int i = 0; i < heads.length; i++) {
+        if (heads[i] < lists.get(i).length && lists.get(i)[heads[i]] == next) {
+          score += 1;
+          heads[i] += 1;
+        }
+      }
+
+      if (byScore[score] == null) {
+        byScore[score] = new int[16];
+      } else if (counts[score] == byScore[score].length) {
+        byScore[score] = Arrays.copyOf(byScore[score], counts[score] * 2);
+      }
+      byScore[score][counts[score]] = next;
+      counts[score] += 1;
+    }
+
+    int total = 0;
+    for (final int count : counts) {
+      total += count;
+    }
+
+    final int[] ranked = new int[total];
+    int at = 0;
+    for (int score = byScore.length - 1; score > 0; score--) {
+      for (int i = counts[score] - 1; i >= 0; i--) {
+        ranked[at++] = byScore[score][i];
+      }
+    }
+
+    return ranked;
+  }
+
+  // TERMS
+  //
+  // The distinct terms in some text, in the order they first appear.
+  public static Collection<String> terms(String text) {
+
+    final Set<String> terms = new LinkedHashSet<>();
+
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      final boolean inTerm = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (inTerm && start < 0) {
+        start = i;
+      } else if (!inTerm && start >= 0) {
+        final int end = Math.min(i, start + MAX_TERM_LENGTH);
+        terms.add(text.substring(start, end).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+
+    return terms;
+  }
+
+  // The positions with a term in all of the indexes, in order.
+  private static int[] positions(String term, TextIndex[] indexes) {
+
+    if (indexes.length == 1) {
+      final Postings postings = indexes[0].terms.get(term);
+      return postings == null ? new int[0] : postings.positions();
+    }
+
+    final List<int[]> parts = new ArrayList<>(indexes.length);
+    int total = 0;
+    for (final TextIndex index : indexes) {
+      final Postings postings = index.terms.get(term);
+      if (postings != null) {
+        final int[] part = postings.positions();
+        parts.add(part);
+        total += part.length;
+      }
+    }
+
+    final int[] positions = new int[total];
+    int at = 0;
+    for (final int[] part : parts) {
+      System.arraycopy(part, 0, positions, at, part.length);
+      at += part.length;
+    }
+    return positions;
+  }
+
+  private static int[] reverse(int[] values) {
+    final int[] reversed = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      reversed[i] = values[values.length - 1 - i];
+    }
+    return reversed;
+  }
+
+  // POSTINGS
+  //
+  // The positions that have one term, as gaps from the position before.
+  private static final class Postings {
+
+    private volatile byte[] bytes = new byte[4];
+    private volatile int length = 0;
+
+    // Only used by the writer.
+    private int last = -1;
+
+    public void add(int position) {
+
+      int gap = position - last;
+      int at = length;
+      byte[] current = bytes;
+
+      if (at + 5 > current.length) {
+        current = Arrays.copyOf(current, Math.max(current.length * 2, at + 5));
+      }
+
+      while (gap >= 0x80) {
+        current[at++] = (byte) (gap | 0x80);
+        gap >>>= 7;
+      }
+      current[at++] = (byte) gap;
+
+      bytes = current;
+      length = at;
+      last = position;
+    }
+
+    public int[] positions() {
+
+      final int length = this.length;
+      final byte[] bytes = this.bytes;
+
+      // Every position takes at least one byte.
+      final int[] positions = new int[length];
+      int count = 0;
+      int position = -1;
+
+      int at = 0;
+      while (at < length) {
+        int gap = 0;
+        int shift = 0;
+        byte next;
+        do {
+          next = bytes[at++];
+          gap |= (next & 0x7F) << shift;
+          shift += 7;
+        } while ((next & 0x80) != 0);
+        position += gap;
+        positions[count++] = position;
+      }
+
+      return Arrays.copyOf(positions, count);
+    }
+  }
+}
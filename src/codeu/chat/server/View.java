@@ -19,6 +19,7 @@ import java.util.Collection;
 import java.util.HashSet;
 
 import codeu.chat.common.BasicView;
+import codeu.chat.common.Changes;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.InterestSet;
@@ -50,6 +51,61 @@ public final class View implements BasicView, SinglesView {
     return all(model.conversationById());
   }
 
+  // The most users or conversations that will be returned by one prefix
+  // lookup, no matter how many were asked for.
+  public static final int MAX_PREFIX_MATCHES = 64;
+
+  @Override
+  public Collection<User> getUsersByPrefix(String prefix, int limit) {
+
+    final Collection<User> found = new ArrayList<>();
+
+    for (final User user : model.userByText().after(prefix)) {
+      if (found.size() >= Math.min(limit, MAX_PREFIX_MATCHES) || !startsWith(user.name, prefix)) {
+        break;
+      }
+      found.add(user);
+    }
+
+    return found;
+  }
+
+  @Override
+  public Collection<ConversationHeader> getConversationsByPrefix(String prefix, int limit) {
+
+    final Collection<ConversationHeader> found = new ArrayList<>();
+
+    for (final ConversationHeader conversation : model.conversationByText().after(prefix)) {
+      if (found.size() >= Math.min(limit, MAX_PREFIX_MATCHES) || !startsWith(conversation.title, prefix)) {
+        break;
+      }
+      found.add(conversation);
+    }
+
+    return found;
+  }
+
+  @Override
+  public Changes getChanges(long epoch, long since) {
+
+    // Read the last change first, everything up to it is in the stores.
+    final long last = model.lastChange();
+    final boolean reset = epoch != model.epoch();
+    final long from = reset ? 0 : since;
+
+    final Collection<User> users = new ArrayList<>();
+    for (final User user : model.userByChange().range(from + 1, last)) {
+      users.add(user);
+    }
+
+    final Collection<ConversationHeader> conversations = new ArrayList<>();
+    for (final ConversationHeader conversation : model.conversationByChange().range(from + 1, last)) {
+      conversations.add(conversation);
+    }
+
+    return new Changes(model.epoch(), last, reset, users, conversations);
+  }
+
   @Override
   public Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
     return intersect(model.conversationPayloadById(), ids);
@@ -59,7 +115,48 @@ public final class View implements BasicView, SinglesView {
   public Collection<Message> getMessages(Uuid conversation, Uuid user, Collection<Uuid> ids) {
     return intersect(model.messageById(), ids);
   }
+
+  // The most messages that will be returned in one page, no matter how many
+  // were asked for, so that one request cannot tie up the server.
+  public static final int MAX_MESSAGE_PAGE = 256;
+
+  @Override
+  public Collection<Message> getMessagePage(Uuid conversation, Uuid user, Uuid cursor, int count, boolean forward) {
+
+    // Messages are indexed by the root of the conversation id (see
+    // Model.add).
+    final ConversationIndex index = model.messageByConversation(conversation.root());
+
+    if (index == null) {
+      return new ArrayList<>();
+    }
+
+    final int start;
+
+    if (Uuid.equals(cursor, Uuid.NULL)) {
+      start = forward ? 0 : index.size() - 1;
+    } else {
+      final int position = index.indexOf(cursor);
+      if (position < 0) {
+        // The cursor is not a message in this conversation.
+        return new ArrayList<>();
+      }
+      start = forward ? position + 1 : position - 1;
+    }
+
+    return index.page(start, Math.min(count, MAX_MESSAGE_PAGE), forward);
+  }
   
+  @Override
+  public Collection<Message> searchMessages(Uuid conversation, Uuid user, String query, int offset, int count) {
+
+    final ConversationIndex index = model.messageByConversation(conversation.root());
+
+    return index == null ?
+        new ArrayList<Message>() :
+        index.search(query, Math.max(0, offset), Math.min(count, MAX_MESSAGE_PAGE));
+  }
+
   /**
    * Get the info of the server; version info should be returned currently.
    * @return The infomation of the server. If fails, null will be returned.
@@ -84,6 +181,12 @@ public final class View implements BasicView, SinglesView {
   @Override
   public Message findMessage(Uuid id) { return model.messageById().first(id); }
     
+  // The names and titles are stored in case-insensitive order, so everything
+  // that starts with a prefix comes in one run starting at the prefix itself.
+  private static boolean startsWith(String text, String prefix) {
+    return text.regionMatches(true, 0, prefix, 0, prefix.length());
+  }
+
   private static <S,T> Collection<T> all(StoreAccessor<S,T> store) {
 
     final Collection<T> all = new ArrayList<>();
@@ -0,0 +1,148 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+// ASYNC FILE HANDLER
+//
+// A log handler that appends to a file from its own thread. "publish" only
+// puts the record on a queue; the writer thread takes everything that is
+// waiting, formats and writes it, and flushes once for the whole batch. A
+// burst of log calls costs one flush instead of one per record, and the
+// threads that log never wait for the disk unless the queue fills up, in
+// which case they wait rather than lose records.
+final class AsyncFileHandler extends Handler {
+
+  private static final int QUEUE_SIZE = 8192;
+  private static final int MAX_BATCH = 512;
+
+  // Put on the queue by "close" to tell the writer to finish.
+  private static final LogRecord END = new LogRecord(Level.OFF, "");
+
+  private final BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+  private final Writer out;
+  private final Thread writer;
+
+  private boolean closed = false;
+
+  public AsyncFileHandler(String file) throws IOException {
+
+    this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true /* append */)));
+
+    this.writer = new Thread("log-writer") {
+      @Override
+      public void run() {
+        write();
+      }
+    };
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+
+    if (!isLoggable(record)) {
+      return;
+    }
+
+    try {
+      queue.put(record);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Records are flushed as soon as the writer gets to them, there is nothing
+  // more to do here.
+  @Override
+  public void flush() { }
+
+  @Override
+  public void close() {
+
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+
+    try {
+      queue.put(END);
+      writer.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void write() {
+
+    final List<LogRecord> batch = new ArrayList<>(MAX_BATCH);
+
+    while (true) {
+
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException ex) {
+        continue;  // only "close" stops the writer
+      }
+      queue.drainTo(batch, MAX_BATCH - 1);
+
+      boolean done = false;
+
+      for (final LogRecord record : batch) {
+        if (record == END) {
+          done = true;
+          continue;
+        }
+        try {
+          out.write(getFormatter().format(record));
+        } catch (Exception ex) {
+          reportError(null, ex, ErrorManager.WRITE_FAILURE);
+        }
+      }
+      batch.clear();
+
+      try {
+        out.flush();
+      } catch (IOException ex) {
+        reportError(null, ex, ErrorManager.FLUSH_FAILURE);
+      }
+
+      if (done) {
+        try {
+          out.close();
+        } catch (IOException ex) {
+          reportError(null, ex, ErrorManager.CLOSE_FAILURE);
+        }
+        return;
+      }
+    }
+  }
+}
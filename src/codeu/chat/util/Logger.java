@@ -15,6 +15,8 @@
 package codeu.chat.util;
 
 import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
 
 public final class Logger {
 
@@ -42,12 +44,21 @@ public final class Logger {
     logger.setUseParentHandlers(false);
   }
 
+  // Writes to the file happen on a background thread (see AsyncFileHandler)
+  // so a log call never waits on the disk. The handler is closed when the
+  // program exits so that anything still queued is written.
   public static void enableFileOutput(String file) throws IOException {
 
-    final java.util.logging.Handler handler =
-        new java.util.logging.FileHandler(file, true /* append */);
+    final java.util.logging.Handler handler = new AsyncFileHandler(file);
     handler.setFormatter(new java.util.logging.SimpleFormatter());
     logger.addHandler(handler);
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        handler.close();
+      }
+    });
   }
 
   public static void enableConsoleOutput() {
@@ -63,49 +74,99 @@ public final class Logger {
     final java.util.logging.Logger log =
         java.util.logging.Logger.getLogger(c.getName());
 
-    // Note: This Logger calls the standard java Logger, so the class/method lookup
-    // needs to go one level deeper.  Otherwise it will appear that all the log
-    // calls are coming from this object. Use logp() (log precise) to do this.
+    // Every call checks the level before doing anything else, so a message
+    // that will not be logged costs no more than the check. Only then is the
+    // message formatted and the record made.
     return new Log() {
       @Override
       public void verbose(String message, Object... params) {
-        log.logp(java.util.logging.Level.FINE,
-            Thread.currentThread().getStackTrace()[2].getClassName(),
-            Thread.currentThread().getStackTrace()[2].getMethodName(),
-            String.format(message, params));
+        if (log.isLoggable(Level.FINE)) {
+          log.log(new Record(Level.FINE, log.getName(), String.format(message, params), null));
+        }
       }
 
       @Override
       public void info(String message, Object... params) {
-        log.logp(java.util.logging.Level.INFO,
-            Thread.currentThread().getStackTrace()[2].getClassName(),
-            Thread.currentThread().getStackTrace()[2].getMethodName(),
-            String.format(message, params));
+        if (log.isLoggable(Level.INFO)) {
+          log.log(new Record(Level.INFO, log.getName(), String.format(message, params), null));
+        }
       }
 
       @Override
       public void warning(String message, Object... params) {
-        log.logp(java.util.logging.Level.WARNING,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params));
+        if (log.isLoggable(Level.WARNING)) {
+          log.log(new Record(Level.WARNING, log.getName(), String.format(message, params), null));
+        }
       }
 
       @Override
       public void error(String message, Object... params) {
-        log.logp(java.util.logging.Level.SEVERE,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params));
+        if (log.isLoggable(Level.SEVERE)) {
+          log.log(new Record(Level.SEVERE, log.getName(), String.format(message, params), null));
+        }
       }
 
       @Override
       public void error(Throwable error, String message, Object... params) {
-        log.logp(java.util.logging.Level.SEVERE,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params), error);
+        if (log.isLoggable(Level.SEVERE)) {
+          log.log(new Record(Level.SEVERE, log.getName(), String.format(message, params), error));
+        }
       }
     };
   }
+
+  // RECORD
+  //
+  // A log record that works out which class and method made the log call only
+  // when a handler asks for them. Walking the stack is the most expensive part
+  // of logging, so the record only keeps a Throwable made at the call (which
+  // is cheap until its stack trace is read) and reads it on first use. That
+  // is usually on the file handler's own thread.
+  //
+  // The caller is the first frame that is not in this file. Going through the
+  // standard logger directly would name this class as the caller of every
+  // log call.
+  private static final class Record extends LogRecord {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Throwable where = new Throwable();
+    private boolean located = false;
+
+    public Record(Level level, String loggerName, String message, Throwable thrown) {
+      super(level, message);
+      setLoggerName(loggerName);
+      setThrown(thrown);
+    }
+
+    @Override
+    public String getSourceClassName() {
+      locate();
+      return super.getSourceClassName();
+    }
+
+    @Override
+    public String getSourceMethodName() {
+      locate();
+      return super.getSourceMethodName();
+    }
+
+    private synchronized void locate() {
+
+      if (located) {
+        return;
+      }
+
+      located = true;
+
+      for (final StackTraceElement frame : where.getStackTrace()) {
+        final String name = frame.getClassName();
+        if (!name.equals(Logger.class.getName()) && !name.startsWith(Logger.class.getName() + "$")) {
+          setSourceClassName(name);
+          setSourceMethodName(frame.getMethodName());
+          return;
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,241 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// METRICS
+//
+// A registry of named measurements. There are three kinds:
+//
+//   COUNTER : a number that only goes up (requests seen, bytes written).
+//   GAUGE   : a number that is read when it is asked for (queue depth, store
+//             size). The registry holds the code to read it, not the value.
+//   LATENCY : how long something took, kept as a count of samples in buckets
+//             that double in width, so recording a sample is a few atomic adds
+//             and never allocates.
+//
+// Instruments are made once (normally when the thing they measure is made)
+// and kept, so the name lookup is not on the path of what is being measured.
+// Asking for a name that is already registered returns the same instrument.
+public final class Metrics {
+
+  // GAUGE
+  //
+  // Must be safe to call from any thread.
+  public interface Gauge {
+    long value();
+  }
+
+  // COUNTER
+  public static final class Counter {
+
+    private final AtomicLong value = new AtomicLong();
+
+    public void increment() {
+      value.incrementAndGet();
+    }
+
+    public void add(long delta) {
+      value.addAndGet(delta);
+    }
+
+    public long value() {
+      return value.get();
+    }
+  }
+
+  // LATENCY
+  //
+  // Bucket "i" counts samples under 2^i microseconds that did not fit in a
+  // smaller bucket. Percentiles are read as the upper edge of the bucket they
+  // fall in, so they are never more than twice the real value.
+  public static final class Latency {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNs = new AtomicLong();
+    private final AtomicLong maxNs = new AtomicLong();
+
+    // RECORD
+    //
+    // Add one sample that started at "startNs" (from System.nanoTime) and ended
+    // now.
+    public void record(long startNs) {
+      add(System.nanoTime() - startNs);
+    }
+
+    public void add(long ns) {
+
+      final long us = Math.max(0, ns) / 1000;
+      final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(us));
+
+      buckets.incrementAndGet(bucket);
+      count.incrementAndGet();
+      totalNs.addAndGet(ns);
+
+      long max = maxNs.get();
+      while (ns > max && !maxNs.compareAndSet(max, ns)) {
+        max = maxNs.get();
+      }
+    }
+
+    public Summary summary() {
+
+      final long[] counts = new long[BUCKETS];
+      long samples = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets.get(i);
+        samples += counts[i];
+      }
+
+      final long maxUs = maxNs.get() / 1000;
+
+      return new Summary(samples,
+                         samples == 0 ? 0 : totalNs.get() / 1000 / samples,
+                         Math.min(maxUs, percentile(counts, samples, 50)),
+                         Math.min(maxUs, percentile(counts, samples, 99)),
+                         maxUs);
+    }
+
+    private static long percentile(long[] counts, long samples, int percent) {
+
+      final long rank = (samples * percent + 99) / 100;
+
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank && seen > 0) {
+          return 1L << i;
+        }
+      }
+      return 0;
+    }
+  }
+
+  // SUMMARY
+  //
+  // What a latency looked like when it was read. All times are in
+  // microseconds.
+  public static final class Summary {
+
+    public static final Serializer<Summary> SERIALIZER = new Serializer<Summary>() {
+
+      @Override
+      public void write(OutputStream out, Summary value) throws IOException {
+        Serializers.LONG.write(out, value.count);
+        Serializers.LONG.write(out, value.meanUs);
+        Serializers.LONG.write(out, value.p50Us);
+        Serializers.LONG.write(out, value.p99Us);
+        Serializers.LONG.write(out, value.maxUs);
+      }
+
+      @Override
+      public Summary read(InputStream in) throws IOException {
+        return new Summary(Serializers.LONG.read(in),
+                           Serializers.LONG.read(in),
+                           Serializers.LONG.read(in),
+                           Serializers.LONG.read(in),
+                           Serializers.LONG.read(in));
+      }
+    };
+
+    public final long count;
+    public final long meanUs;
+    public final long p50Us;
+    public final long p99Us;
+    public final long maxUs;
+
+    public Summary(long count, long meanUs, long p50Us, long p99Us, long maxUs) {
+      this.count = count;
+      this.meanUs = meanUs;
+      this.p50Us = p50Us;
+      this.p99Us = p99Us;
+      this.maxUs = maxUs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("count=%d mean=%dus p50=%dus p99=%dus max=%dus",
+                           count, meanUs, p50Us, p99Us, maxUs);
+    }
+  }
+
+  private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Latency> latencies = new ConcurrentHashMap<>();
+
+  public Counter counter(String name) {
+    final Counter created = new Counter();
+    final Counter existing = counters.putIfAbsent(name, created);
+    return existing == null ? created : existing;
+  }
+
+  public Latency latency(String name) {
+    final Latency created = new Latency();
+    final Latency existing = latencies.putIfAbsent(name, created);
+    return existing == null ? created : existing;
+  }
+
+  // GAUGE
+  //
+  // Register code to read a value. A later gauge with the same name replaces
+  // the earlier one.
+  public void gauge(String name, Gauge gauge) {
+    gauges.put(name, gauge);
+  }
+
+  // VALUES
+  //
+  // The current value of every counter and gauge, by name.
+  public SortedMap<String, Long> values() {
+
+    final SortedMap<String, Long> values = new TreeMap<>();
+
+    for (final Map.Entry<String, Counter> entry : counters.entrySet()) {
+      values.put(entry.getKey(), entry.getValue().value());
+    }
+    for (final Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+      values.put(entry.getKey(), entry.getValue().value());
+    }
+
+    return values;
+  }
+
+  // LATENCIES
+  //
+  // A summary of every latency, by name.
+  public SortedMap<String, Summary> latencies() {
+
+    final SortedMap<String, Summary> summaries = new TreeMap<>();
+
+    for (final Map.Entry<String, Latency> entry : latencies.entrySet()) {
+      summaries.put(entry.getKey(), entry.getValue().summary());
+    }
+
+    return summaries;
+  }
+}
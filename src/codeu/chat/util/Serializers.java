@@ -14,6 +14,7 @@
 
 package codeu.chat.util;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -22,6 +23,35 @@ import java.util.Collection;
 
 public final class Serializers {
 
+  // READ BYTE
+  //
+  // Read one byte from the stream. Unlike "in.read()", running out of input is
+  // an error instead of a -1 that would quietly become part of a value.
+  public static int readByte(InputStream in) throws IOException {
+    final int value = in.read();
+    if (value < 0) {
+      throw new EOFException();
+    }
+    return value;
+  }
+
+  // READ FULLY
+  //
+  // Fill "bytes" from the stream, asking for as much as possible in each call
+  // rather than one byte at a time. Throws EOFException if the stream ends
+  // first.
+  public static byte[] readFully(InputStream in, byte[] bytes) throws IOException {
+    int offset = 0;
+    while (offset < bytes.length) {
+      final int count = in.read(bytes, offset, bytes.length - offset);
+      if (count < 0) {
+        throw new EOFException();
+      }
+      offset += count;
+    }
+    return bytes;
+  }
+
   public static final Serializer<Boolean> BOOLEAN = new Serializer<Boolean>() {
 
     @Override
@@ -31,7 +61,7 @@ public final class Serializers {
 
     @Override
     public Boolean read(InputStream in) throws IOException {
-      return in.read() != 0;
+      return readByte(in) != 0;
     }
   };
 
@@ -40,19 +70,25 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, Integer value) throws IOException {
 
-      for (int i = 24; i >= 0; i -= 8) {
-        out.write(0xFF & (value >>> i));
+      final byte[] bytes = new byte[4];
+
+      for (int i = 0; i < 4; i++) {
+        bytes[i] = (byte)(value >>> (24 - 8 * i));
       }
 
+      out.write(bytes);
+
     }
 
     @Override
     public Integer read(InputStream in) throws IOException {
 
+      final byte[] bytes = readFully(in, new byte[4]);
+
       int value = 0;
 
       for (int i = 0; i < 4; i++) {
-        value = (value << 8) | in.read();
+        value = (value << 8) | (0xFF & bytes[i]);
       }
 
       return value;
@@ -65,19 +101,25 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, Long value) throws IOException {
 
-      for (int i = 56; i >= 0; i -= 8) {
-        out.write((int)(0xFF & (value >>> i)));
+      final byte[] bytes = new byte[8];
+
+      for (int i = 0; i < 8; i++) {
+        bytes[i] = (byte)(value >>> (56 - 8 * i));
       }
 
+      out.write(bytes);
+
     }
 
     @Override
     public Long read(InputStream in) throws IOException {
 
+      final byte[] bytes = readFully(in, new byte[8]);
+
       long value = 0;
 
       for (int i = 0; i < 8; i++) {
-        value = (value << 8) | in.read();
+        value = (value << 8) | (0xFF & bytes[i]);
       }
 
       return value;
@@ -99,13 +141,12 @@ public final class Serializers {
     public byte[] read(InputStream input) throws IOException {
 
       final int length = INTEGER.read(input);
-      final byte[] array = new byte[length];
 
-      for (int i = 0; i < length; i++) {
-        array[i] = (byte)input.read();
+      if (length < 0) {
+        throw new IOException("Negative byte array length " + length);
       }
 
-      return array;
+      return readFully(input, new byte[length]);
 
     }
   };
@@ -170,7 +211,7 @@ public final class Serializers {
 
       @Override
       public T read(InputStream in) throws IOException {
-        return in.read() == NO_VALUE ? null : serializer.read(in);
+        return readByte(in) == NO_VALUE ? null : serializer.read(in);
       }
     };
   }
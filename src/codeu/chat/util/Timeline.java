@@ -155,6 +155,21 @@ public final class Timeline {
     scheduler.interrupt();  // wake it up
   }
 
+  // BACKLOG SIZE
+  //
+  // How many events are waiting for their time to come.
+  public int backlogSize() {
+    return backlog.size();
+  }
+
+  // TODO SIZE
+  //
+  // How many events are due and waiting for the executor to run them. A number
+  // that stays above zero means the timeline is falling behind.
+  public int todoSize() {
+    return todo.size();
+  }
+
   // STOP
   //
   // Tell the timeline to shutdown. This is a non-blocking call.
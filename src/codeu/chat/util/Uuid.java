@@ -18,7 +18,8 @@ import java.lang.StringBuilder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class Uuid{
   
@@ -29,10 +30,7 @@ public class Uuid{
     @Override
     public void write(OutputStream out, Uuid value) throws IOException {
 
-      int length = 0;
-      for (Uuid current = value; current != null; current = current.root()) {
-        length += 1;
-      }
+      final int length = value == null ? 0 : value.length;
 
       // To make things easy, limit the max length to be 255. It should be unlikely
       // that this limit will ever be reached as most chains should be less than
@@ -51,18 +49,27 @@ public class Uuid{
     @Override
     public Uuid read(InputStream in) throws IOException {
 
-      // "input.read" can only return one by of data so there is no need
+      // "readByte" can only return one byte of data so there is no need
       // to check that the bounds of 0 to 255 is respected.
-      final int length = in.read();
+      final int length = Serializers.readByte(in);
       final int[] chain = new int[length];
 
       for (int i = 0; i < length; i++) {
         chain[i] = Serializers.INTEGER.read(in);
       }
 
-      Uuid head = null;
+      if (length == 0) {
+        return null;
+      }
+
+      // The last id in the stream is the top of the chain. When there is more
+      // than one link, the top is almost always a server id that is shared by
+      // every id it made, so use the shared instance of it if there is one.
+      Uuid head = length == 1 ?
+          new Uuid(null, chain[0]) :
+          shared(new Uuid(null, chain[length - 1]));
 
-      for (int i = length - 1; i >= 0; i--) {
+      for (int i = length - 2; i >= 0; i--) {
         head = new Uuid(head, chain[i]);
       }
 
@@ -85,17 +92,50 @@ public class Uuid{
     Uuid make();
   }
 
+  // INTERN
+  //
+  // Share the top level id of "id" with every id read later that has the same
+  // top, so that comparing two ids from the same server stops at the root with
+  // a reference check. Only ids that are known to be real (ones the server
+  // made or loaded) should be interned; ids read from the network only look
+  // the table up, so a client can not fill it with ids of its own. The table
+  // is capped, past that new roots are simply not shared.
+  private static final int MAX_INTERNED = 1024;
+  private static final ConcurrentMap<Uuid, Uuid> interned = new ConcurrentHashMap<>();
+
+  public static void intern(Uuid id) {
+    if (id == null || id.root == null || interned.size() >= MAX_INTERNED) {
+      return;
+    }
+    Uuid top = id;
+    while (top.root != null) {
+      top = top.root;
+    }
+    interned.putIfAbsent(top, top);
+  }
+
+  private static Uuid shared(Uuid root) {
+    final Uuid existing = interned.get(root);
+    return existing == null ? root : existing;
+  }
+
   private final Uuid root;
   private final int id;
 
+  // Both are computed once from the root so that hashing, comparing and
+  // writing never need to walk the chain just to learn about it.
+  private final int hash;
+  private final int length;
+
   public Uuid(Uuid root, int id) {
     this.root = root;
     this.id = id;
+    this.hash = root == null ? id : 31 * root.hash + id;
+    this.length = root == null ? 1 : root.length + 1;
   }
 
   public Uuid(int id) {
-    this.root = null;
-    this.id = id;
+    this(null, id);
   }
 
   public Uuid root() {
@@ -112,7 +152,7 @@ public class Uuid{
   }
 
   @Override
-  public int hashCode() { return hash(this); }
+  public int hashCode() { return hash; }
 
   @Override
   public String toString() {
@@ -136,31 +176,57 @@ public class Uuid{
       return true;
     }
 
-    if (a == null && b != null) {
+    if (a == null || b == null) {
       return false;
     }
 
-    if (a != null && b == null) {
+    // Different hashes or lengths can never be the same chain, which settles
+    // most mismatches without walking anything.
+    if (a.hash != b.hash || a.length != b.length) {
       return false;
     }
 
-    // Check id before checking the root as the ids are more likely to differ
-    // and will short-circuit the logic preventing us from wasting time checking
-    // the full chain.
-    return a.id() == b.id() && equals(a.root(), b.root());
+    // Walk both chains together. Check id before moving to the root as the ids
+    // are more likely to differ. Shared roots end the walk early.
+    while (a != b) {
+      if (a.id != b.id) {
+        return false;
+      }
+      a = a.root;
+      b = b.root;
+    }
 
+    return true;
   }
 
-  // Compute a hash code for the Uuids by walking up the chain.
-  private static int hash(Uuid id) {
+  // COMPARE
+  //
+  // Order Uuids by their ids from the tail to the root, with null before
+  // everything else. This is the same order as comparing the tail ids and then
+  // the roots, without the recursion.
+  public static int compare(Uuid a, Uuid b) {
+
+    while (a != b) {
 
-    int hash = 0;
+      if (a == null) {
+        return -1;
+      }
+
+      if (b == null) {
+        return 1;
+      }
+
+      final int order = Integer.compare(a.id, b.id);
+
+      if (order != 0) {
+        return order;
+      }
 
-    for (Uuid current = id; current != null; current = current.root()) {
-      hash ^= Objects.hash(current.id());
+      a = a.root;
+      b = b.root;
     }
 
-    return hash;
+    return 0;
   }
 
   // Compute human-readable representation for Uuids
@@ -0,0 +1,60 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// FRAME
+//
+// A single request or response sent over a session connection. A session
+// carries many requests over one socket, so each request is wrapped in a
+// frame with an id. The response to a request is sent back in a frame with
+// the same id, which allows responses to come back in any order.
+//
+// The payload of a frame is exactly what would have been sent over a
+// one-request connection (the request type followed by its arguments, or the
+// response type followed by its values).
+public final class Frame {
+
+  public static final Serializer<Frame> SERIALIZER = new Serializer<Frame>() {
+
+    @Override
+    public void write(OutputStream out, Frame value) throws IOException {
+      Serializers.INTEGER.write(out, value.id);
+      Serializers.BYTES.write(out, value.payload);
+    }
+
+    @Override
+    public Frame read(InputStream in) throws IOException {
+      // A session ends when the other side closes the socket, which shows up
+      // here as an EOFException.
+      final int id = Serializers.INTEGER.read(in);
+      return new Frame(id, Serializers.BYTES.read(in));
+    }
+  };
+
+  public final int id;
+  public final byte[] payload;
+
+  public Frame(int id, byte[] payload) {
+    this.id = id;
+    this.payload = payload;
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// FRAME CONNECTION
+//
+// A connection that carries exactly one request over a session. Everything
+// written to "out" is collected in memory. The first call to "in" sends the
+// collected bytes as one frame and waits for the matching response. This
+// keeps the normal "write the request, then read the response" pattern
+// working unchanged on top of a session.
+//
+// If the connection is closed before "in" was called (requests with no
+// response) the request is still sent, and its empty response is waited on
+// so that the session is never left with a response nobody will read.
+abstract class FrameConnection implements Connection {
+
+  private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+  private InputStream response;
+
+  @Override
+  public InputStream in() throws IOException {
+    if (response == null) {
+      response = new ByteArrayInputStream(exchange(request.toByteArray()));
+    }
+    return response;
+  }
+
+  @Override
+  public OutputStream out() throws IOException {
+    return request;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      in();
+    } finally {
+      release();
+    }
+  }
+
+  // EXCHANGE
+  //
+  // Send the request payload and block until the response payload for it
+  // has arrived.
+  protected abstract byte[] exchange(byte[] payload) throws IOException;
+
+  // RELEASE
+  //
+  // Called once when the connection is closed and the exchange is done.
+  protected abstract void release() throws IOException;
+}
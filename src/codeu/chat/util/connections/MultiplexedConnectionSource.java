@@ -0,0 +1,191 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import codeu.chat.util.Logger;
+
+// MULTIPLEXED CONNECTION SOURCE
+//
+// Implements the ConnectionSource interface for clients that want to send all
+// their requests over one long-lived socket. Every call to "connect" returns a
+// light-weight connection that sends its request as a frame on the shared
+// session. Any number of threads may have requests in flight at the same time;
+// a reader thread matches each response to its request by the frame id.
+//
+// If the session breaks, every request waiting on it fails and the next call
+// to "connect" opens a new session.
+public final class MultiplexedConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(MultiplexedConnectionSource.class);
+
+  // A request that has been sent and is waiting for its response.
+  private static final class Pending {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private byte[] payload;
+    private IOException error;
+
+    public void complete(byte[] payload) {
+      this.payload = payload;
+      done.countDown();
+    }
+
+    public void fail(IOException error) {
+      this.error = error;
+      done.countDown();
+    }
+
+    public byte[] await() throws IOException {
+      try {
+        done.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for response", ex);
+      }
+      if (error != null) {
+        throw error;
+      }
+      return payload;
+    }
+  }
+
+  // One open session and the requests that are waiting on it. When the session
+  // breaks, only the requests sent over it are failed.
+  private final class Channel {
+
+    private final Session session;
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+
+    public Channel(Session session) {
+      this.session = session;
+    }
+
+    public byte[] exchange(byte[] payload) throws IOException {
+
+      final int id = nextId.incrementAndGet();
+      final Pending request = new Pending();
+
+      pending.put(id, request);
+
+      try {
+        session.write(new Frame(id, payload));
+      } catch (IOException ex) {
+        pending.remove(id);
+        throw ex;
+      }
+
+      // The reader may have given up between the put and the write. If it
+      // did, nothing will ever answer this request.
+      if (!session.isOpen() && pending.remove(id) != null) {
+        throw new IOException("Session closed before the request was sent");
+      }
+
+      return request.await();
+    }
+
+    public void read() {
+      try {
+        while (true) {
+          final Frame frame = session.read();
+          final Pending request = pending.remove(frame.id);
+          if (request == null) {
+            LOG.warning("Dropping response for unknown request %d", frame.id);
+          } else {
+            request.complete(frame.payload);
+          }
+        }
+      } catch (IOException ex) {
+        LOG.info("Session to %s:%d closed (%s)", host, port, ex.toString());
+      }
+
+      // Nothing else will arrive on this session, so let everyone who is
+      // still waiting know.
+      final IOException closed = new IOException("Session closed");
+      for (final Integer id : pending.keySet()) {
+        final Pending request = pending.remove(id);
+        if (request != null) {
+          request.fail(closed);
+        }
+      }
+    }
+  }
+
+  private final String host;
+  private final int port;
+
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  private Channel channel;
+
+  public MultiplexedConnectionSource(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+
+    final Channel current = currentChannel();
+
+    return new FrameConnection() {
+
+      @Override
+      protected byte[] exchange(byte[] payload) throws IOException {
+        return current.exchange(payload);
+      }
+
+      @Override
+      protected void release() { }
+    };
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.session.close();
+      channel = null;
+    }
+  }
+
+  private synchronized Channel currentChannel() throws IOException {
+
+    if (channel == null || !channel.session.isOpen()) {
+
+      final Channel opened = new Channel(Session.open(host, port));
+
+      final Thread reader = new Thread() {
+        @Override
+        public void run() {
+          opened.read();
+        }
+      };
+
+      reader.setDaemon(true);
+      reader.start();
+
+      channel = opened;
+      LOG.info("Opened session to %s:%d", host, port);
+    }
+
+    return channel;
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// POOLED CONNECTION SOURCE
+//
+// Implements the ConnectionSource interface by keeping a pool of open sessions
+// with the server. Each connection borrows a session for one request and
+// gives it back when closed, so a session only ever has one request in
+// flight. New sessions are opened when the pool is empty, and at most
+// "maxIdle" sessions are kept open while not in use.
+//
+// Unlike the MultiplexedConnectionSource, a slow response only holds up the
+// request that is waiting for it.
+public final class PooledConnectionSource implements ConnectionSource {
+
+  private final String host;
+  private final int port;
+
+  private final BlockingQueue<Session> idle;
+
+  private volatile boolean closed = false;
+
+  public PooledConnectionSource(String host, int port, int maxIdle) {
+    this.host = host;
+    this.port = port;
+    this.idle = new LinkedBlockingQueue<>(Math.max(1, maxIdle));
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+
+    if (closed) {
+      throw new IOException("Connection source has been closed");
+    }
+
+    final Session borrowed = borrow();
+
+    return new FrameConnection() {
+
+      private int nextId = 0;
+
+      @Override
+      protected byte[] exchange(byte[] payload) throws IOException {
+
+        final int id = ++nextId;
+
+        borrowed.write(new Frame(id, payload));
+        final Frame response = borrowed.read();
+
+        if (response.id != id) {
+          borrowed.close();
+          throw new IOException(String.format(
+              "Expected response %d but got %d", id, response.id));
+        }
+
+        return response.payload;
+      }
+
+      @Override
+      protected void release() throws IOException {
+        giveBack(borrowed);
+      }
+    };
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    for (Session session = idle.poll(); session != null; session = idle.poll()) {
+      session.close();
+    }
+  }
+
+  private Session borrow() throws IOException {
+    for (Session session = idle.poll(); session != null; session = idle.poll()) {
+      if (session.isOpen()) {
+        return session;
+      }
+    }
+    return Session.open(host, port);
+  }
+
+  private void giveBack(Session session) throws IOException {
+    // Sessions that broke, do not fit in the pool, or were returned after
+    // the pool was closed are not worth keeping.
+    if (!session.isOpen() || closed || !idle.offer(session)) {
+      session.close();
+    }
+  }
+}
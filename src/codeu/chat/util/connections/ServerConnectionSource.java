@@ -14,6 +14,8 @@
 
 package codeu.chat.util.connections;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -45,21 +47,33 @@ public final class ServerConnectionSource implements ConnectionSource {
 
   private static Connection fromSocket(final Socket socket) throws IOException {
 
+    // Buffer both directions so that serializing a message costs a few
+    // system calls rather than one per byte.
+    final InputStream in = new BufferedInputStream(socket.getInputStream());
+    final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
     return new Connection() {
 
       @Override
       public InputStream in() throws IOException {
-        return socket.getInputStream();
+        // Anything still buffered is the request the caller is about to wait
+        // for the answer to.
+        out.flush();
+        return in;
       }
 
       @Override
       public OutputStream out() throws IOException {
-        return socket.getOutputStream();
+        return out;
       }
 
       @Override
       public void close() throws IOException {
-        socket.close();
+        try {
+          out.flush();
+        } finally {
+          socket.close();
+        }
       }
     };
   }
@@ -0,0 +1,95 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+
+// SESSION
+//
+// A long-lived socket to the server that has been switched into session mode
+// by sending SESSION_REQUEST. After that, both sides only send frames until
+// one of them closes the socket.
+final class Session implements Closeable {
+
+  private final Socket socket;
+  private final InputStream in;
+  private final OutputStream out;
+
+  private volatile boolean open = true;
+
+  private Session(Socket socket) throws IOException {
+    this.socket = socket;
+    this.in = new BufferedInputStream(socket.getInputStream());
+    this.out = new BufferedOutputStream(socket.getOutputStream());
+  }
+
+  public static Session open(String host, int port) throws IOException {
+    final Session session = new Session(new Socket(host, port));
+    try {
+      Serializers.INTEGER.write(session.out, NetworkCode.SESSION_REQUEST);
+      session.out.flush();
+    } catch (IOException ex) {
+      session.close();
+      throw ex;
+    }
+    return session;
+  }
+
+  // WRITE
+  //
+  // Send a frame. Many threads may write to the same session, so writes are
+  // done one frame at a time, and each frame is flushed as a whole.
+  public synchronized void write(Frame frame) throws IOException {
+    try {
+      Frame.SERIALIZER.write(out, frame);
+      out.flush();
+    } catch (IOException ex) {
+      close();
+      throw ex;
+    }
+  }
+
+  // READ
+  //
+  // Block until the next frame arrives. Only one thread should be reading
+  // from a session at a time.
+  public Frame read() throws IOException {
+    try {
+      return Frame.SERIALIZER.read(in);
+    } catch (IOException ex) {
+      close();
+      throw ex;
+    }
+  }
+
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public void close() throws IOException {
+    open = false;
+    socket.close();
+  }
+}
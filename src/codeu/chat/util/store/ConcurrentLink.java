@@ -0,0 +1,36 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+// CONCURRENT LINK
+//
+// A link in a ConcurrentStore. Links are only ever added, never removed, and
+// each one is stamped with the version of the store that added it. "next" is
+// volatile so that a reader that finds a link always sees it fully built.
+final class ConcurrentLink<KEY, VALUE> {
+
+  public final KEY key;
+  public final VALUE value;
+  public final long version;
+  public volatile ConcurrentLink<KEY, VALUE> next;
+
+  public ConcurrentLink(KEY key, VALUE value, long version, ConcurrentLink<KEY, VALUE> next) {
+    this.key = key;
+    this.value = value;
+    this.version = version;
+    this.next = next;
+  }
+}
@@ -0,0 +1,73 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// CONCURRENT LINK ITERATOR
+//
+// Walks links from "first" until it passes "end" (or the end of the chain if
+// "end" is null), skipping any link that was added after the snapshot
+// version. Since links are never removed, this gives exactly the values that
+// were in the store when the snapshot was taken, no matter what is inserted
+// while iterating.
+final class ConcurrentLinkIterator<KEY, VALUE> implements Iterator<VALUE> {
+
+  private final Comparator<KEY> comparator;
+  private final KEY end;
+  private final long snapshot;
+
+  private ConcurrentLink<KEY, VALUE> current;
+
+  public ConcurrentLinkIterator(Comparator<KEY> comparator,
+                                ConcurrentLink<KEY, VALUE> first,
+                                KEY end,
+                                long snapshot) {
+    this.comparator = comparator;
+    this.end = end;
+    this.snapshot = snapshot;
+    this.current = skip(first);
+  }
+
+  @Override
+  public boolean hasNext() {
+    return current != null && (end == null || comparator.compare(current.key, end) <= 0);
+  }
+
+  @Override
+  public VALUE next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    final VALUE value = current.value;
+    current = skip(current.next);
+    return value;
+  }
+
+  @Override
+  public void remove() {
+    // do nothing
+  }
+
+  private ConcurrentLink<KEY, VALUE> skip(ConcurrentLink<KEY, VALUE> link) {
+    while (link != null && link.version > snapshot) {
+      link = link.next;
+    }
+    return link;
+  }
+}
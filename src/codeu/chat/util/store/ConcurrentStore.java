@@ -0,0 +1,230 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// CONCURRENT STORE
+//
+// A store that can be read from any number of threads while one thread
+// writes to it, without the readers taking any locks. It has the same layout
+// as Store - one sorted chain of links plus an index from each distinct key to
+// the run of links with that key - but the index is a skip list and every
+// link is stamped with a version number.
+//
+// An insert fully links in the new value and updates the index before it
+// publishes the new version. Every iterable takes the published version when
+// it is created and ignores links with a later version, so iterating is
+// snapshot consistent: values inserted while iterating are never seen, and
+// values that were there when the iterable was created are never missed.
+//
+// Writers are serialized by "insert" itself so a second writer does not
+// corrupt the chain, but the store is designed for one writer. Unlike Store,
+// keys can not be null.
+public final class ConcurrentStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
+
+  // The root link is never read from, see Store.
+  private final ConcurrentLink<KEY, VALUE> rootLink = new ConcurrentLink<>(null, null, 0, null);
+
+  private final ConcurrentNavigableMap<KEY, Run<KEY, VALUE>> index;
+
+  private final Comparator<KEY> comparator;
+
+  // The version of the last insert that readers may see.
+  private volatile long version = 0;
+
+  // How many values have been added. Only the writer changes it.
+  private volatile int size = 0;
+
+  public ConcurrentStore(Comparator<KEY> comparator) {
+    this.index = new ConcurrentSkipListMap<>(comparator);
+    this.comparator = comparator;
+  }
+
+  public synchronized void insert(KEY key, VALUE value) {
+
+    final long next = version + 1;
+
+    final Map.Entry<KEY, Run<KEY, VALUE>> closest = index.floorEntry(key);
+    final ConcurrentLink<KEY, VALUE> previous = (closest == null) ? rootLink : closest.getValue().last;
+
+    final ConcurrentLink<KEY, VALUE> newLink = new ConcurrentLink<>(key, value, next, previous.next);
+    previous.next = newLink;
+
+    if (closest != null && comparator.compare(closest.getKey(), key) == 0) {
+      closest.getValue().last = newLink;
+    } else {
+      index.put(key, new Run<>(newLink));
+    }
+
+    size = size + 1;
+
+    // Publish last so that a reader that sees this version also sees the link
+    // and the index entry for it.
+    version = next;
+  }
+
+  // LOAD
+  //
+  // Insert many values at once. The result is the same as inserting each one
+  // in turn, but the values are sorted by key first (keeping the order of
+  // values with the same key) so that each key's values are linked in as one
+  // piece and the index is only searched once per key. When the store is
+  // empty the index is not searched at all, each key follows the last.
+  //
+  // All the values are published together as one version.
+  public synchronized void load(Collection<? extends Map.Entry<KEY, VALUE>> entries) {
+
+    final List<Map.Entry<KEY, VALUE>> sorted = new ArrayList<>(entries);
+    Collections.sort(sorted, new Comparator<Map.Entry<KEY, VALUE>>() {
+      @Override
+      public int compare(Map.Entry<KEY, VALUE> a, Map.Entry<KEY, VALUE> b) {
+        return comparator.compare(a.getKey(), b.getKey());
+      }
+    });
+
+    final long next = version + 1;
+    final boolean empty = index.isEmpty();
+
+    ConcurrentLink<KEY, VALUE> tail = rootLink;
+
+    int position = 0;
+    while (position < sorted.size()) {
+
+      final KEY key = sorted.get(position).getKey();
+
+      // Chain together every value with this key.
+      final ConcurrentLink<KEY, VALUE> first =
+          new ConcurrentLink<>(key, sorted.get(position).getValue(), next, null);
+      ConcurrentLink<KEY, VALUE> last = first;
+      position += 1;
+
+      while (position < sorted.size() && comparator.compare(sorted.get(position).getKey(), key) == 0) {
+        final ConcurrentLink<KEY, VALUE> link =
+            new ConcurrentLink<>(key, sorted.get(position).getValue(), next, null);
+        last.next = link;
+        last = link;
+        position += 1;
+      }
+
+      final Map.Entry<KEY, Run<KEY, VALUE>> closest = empty ? null : index.floorEntry(key);
+      final ConcurrentLink<KEY, VALUE> previous = empty ?
+                                                  tail :
+                                                  (closest == null) ? rootLink : closest.getValue().last;
+
+      last.next = previous.next;
+      previous.next = first;
+
+      if (closest != null && comparator.compare(closest.getKey(), key) == 0) {
+        closest.getValue().last = last;
+      } else {
+        final Run<KEY, VALUE> run = new Run<>(first);
+        run.last = last;
+        index.put(key, run);
+      }
+
+      tail = last;
+    }
+
+    size = size + sorted.size();
+    version = next;
+  }
+
+  // SIZE
+  //
+  // How many values are in the store, counting every value of a repeated key.
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public VALUE first(KEY key) {
+    final Run<KEY, VALUE> run = index.get(key);
+    return run == null ? null : run.first.value;
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return iterable(null, null);
+  }
+
+  @Override
+  public Iterable<VALUE> at(KEY key) {
+    return iterable(key, key);
+  }
+
+  @Override
+  public Iterable<VALUE> after(KEY start) {
+    return iterable(start, null);
+  }
+
+  @Override
+  public Iterable<VALUE> before(KEY end) {
+    return iterable(null, end);
+  }
+
+  @Override
+  public Iterable<VALUE> range(KEY start, KEY end) {
+    return iterable(start, end);
+  }
+
+  // ITERABLE
+  //
+  // The values with keys from "start" to "end" (both included) as of now. A
+  // null "start" or "end" leaves that side open.
+  private Iterable<VALUE> iterable(KEY start, final KEY end) {
+
+    // Read the version before the index so every link up to it can be found.
+    final long snapshot = version;
+
+    final ConcurrentLink<KEY, VALUE> first;
+
+    if (start == null) {
+      first = rootLink.next;
+    } else {
+      final Map.Entry<KEY, Run<KEY, VALUE>> entry = index.ceilingEntry(start);
+      first = entry == null ? null : entry.getValue().first;
+    }
+
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+        return new ConcurrentLinkIterator<>(comparator, first, end, snapshot);
+      }
+    };
+  }
+
+  // The first and last link with one key. Only "last" changes after the run
+  // is created.
+  private static final class Run<KEY, VALUE> {
+
+    public final ConcurrentLink<KEY, VALUE> first;
+    public volatile ConcurrentLink<KEY, VALUE> last;
+
+    public Run(ConcurrentLink<KEY, VALUE> link) {
+      this.first = link;
+      this.last = link;
+    }
+  }
+}
@@ -32,7 +32,8 @@ final class LinkIterator<KEY, VALUE> implements Iterator<VALUE> {
 
   @Override
   public boolean hasNext() {
-    return current != null && comparator.compare(current.key, last.key) <= 0;
+    // "last" is null when nothing in the store is at or before the end key.
+    return current != null && last != null && comparator.compare(current.key, last.key) <= 0;
   }
 
   @Override
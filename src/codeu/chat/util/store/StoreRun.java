@@ -0,0 +1,31 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+// STORE RUN
+//
+// The first and last link of a series of links that all have the same key.
+// The links in between are found by following "next" from "first".
+final class StoreRun<KEY, VALUE> {
+
+  public final StoreLink<KEY, VALUE> first;
+  public StoreLink<KEY, VALUE> last;
+
+  public StoreRun(StoreLink<KEY, VALUE> link) {
+    this.first = link;
+    this.last = link;
+  }
+}
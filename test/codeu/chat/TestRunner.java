@@ -22,13 +22,29 @@ public final class TestRunner {
   public static void main(String[] args) {
      final Result result =
          JUnitCore.runClasses(
+             codeu.chat.client.core.CachingViewTest.class,
              codeu.chat.common.SecretTest.class,
+             codeu.chat.relay.BundleHistoryTest.class,
+             codeu.chat.relay.BundleLogTest.class,
              codeu.chat.relay.ServerTest.class,
              codeu.chat.server.BasicControllerTest.class,
              codeu.chat.server.RawControllerTest.class, 
              codeu.chat.server.ConversationAccessServerTest.class,
+             codeu.chat.server.ConversationIndexTest.class,
+             codeu.chat.server.LocalFileTest.class,
+             codeu.chat.server.RelayWriterTest.class,
+             codeu.chat.server.SubscriptionsTest.class,
+             codeu.chat.server.ViewTest.class,
+             codeu.chat.server.TextIndexTest.class,
+             codeu.chat.util.LoggerTest.class,
+             codeu.chat.util.MetricsTest.class,
+             codeu.chat.util.SerializersTest.class,
              codeu.chat.util.TimeTest.class,
              codeu.chat.util.UuidTest.class,
+             codeu.chat.util.connections.FrameTest.class,
+             codeu.chat.util.connections.MultiplexedConnectionSourceTest.class,
+             codeu.chat.util.connections.PooledConnectionSourceTest.class,
+             codeu.chat.util.store.ConcurrentStoreTest.class,
              codeu.chat.util.store.StoreTest.class,
              codeu.chat.util.TokenizerTest.class
          );
@@ -0,0 +1,218 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import codeu.chat.common.BasicController;
+import codeu.chat.common.BasicView;
+import codeu.chat.common.Changes;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.InterestSet;
+import codeu.chat.common.Message;
+import codeu.chat.common.ServerInfo;
+import codeu.chat.common.User;
+import codeu.chat.server.Controller;
+import codeu.chat.server.Model;
+import codeu.chat.server.View;
+import codeu.chat.util.Uuid;
+
+public final class CachingViewTest {
+
+  // Passes everything to the server's view and counts the message reads.
+  // Messages are copied, as they would be over a connection, so that the
+  // cache never sees the server's own objects change.
+  private static final class CountingView implements BasicView {
+
+    private final BasicView view;
+    public int messageReads = 0;
+
+    public CountingView(BasicView view) {
+      this.view = view;
+    }
+
+    @Override
+    public Collection<User> getUsers() { return view.getUsers(); }
+    @Override
+    public Collection<User> getUsersByPrefix(String prefix, int limit) { return view.getUsersByPrefix(prefix, limit); }
+    @Override
+    public Collection<ConversationHeader> getConversations() { return view.getConversations(); }
+    @Override
+    public Collection<ConversationHeader> getConversationsByPrefix(String prefix, int limit) {
+      return view.getConversationsByPrefix(prefix, limit);
+    }
+    @Override
+    public Changes getChanges(long epoch, long since) { return view.getChanges(epoch, since); }
+    @Override
+    public Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
+      return view.getConversationPayloads(ids);
+    }
+    @Override
+    public Collection<Message> getMessages(Uuid conversation, Uuid user, Collection<Uuid> ids) {
+      messageReads += 1;
+      return copy(view.getMessages(conversation, user, ids));
+    }
+    @Override
+    public Collection<Message> getMessagePage(Uuid conversation, Uuid user, Uuid cursor, int count, boolean forward) {
+      messageReads += 1;
+      return copy(view.getMessagePage(conversation, user, cursor, count, forward));
+    }
+    @Override
+    public Collection<Message> searchMessages(Uuid conversation, Uuid user, String query, int offset, int count) {
+      return view.searchMessages(conversation, user, query, offset, count);
+    }
+    @Override
+    public ServerInfo getInfo() { return view.getInfo(); }
+    @Override
+    public InterestSet getInterestSet(Uuid id) { return view.getInterestSet(id); }
+
+    private static Collection<Message> copy(Collection<Message> messages) {
+      final Collection<Message> copies = new ArrayList<>();
+      for (final Message m : messages) {
+        copies.add(new Message(m.id, m.next, m.previous, m.creation, m.author, m.content(), m.conversation));
+      }
+      return copies;
+    }
+  }
+
+  private BasicController controller;
+  private CountingView server;
+  private CachingView cache;
+
+  private User user;
+  private ConversationHeader conversation;
+  private List<Message> sent;
+
+  @Before
+  public void doBefore() {
+
+    final Model model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    server = new CountingView(new View(model));
+    cache = new CachingView(server);
+
+    user = controller.newUser("user");
+    conversation = controller.newConversation("conversation", user.id);
+
+    sent = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      sent.add(controller.newMessage(user.id, conversation.id, "message " + i));
+    }
+  }
+
+  private Message get(Message message) {
+    return cache.getMessages(conversation.id, user.id, Arrays.asList(message.id)).iterator().next();
+  }
+
+  @Test
+  public void testSecondReadIsCached() {
+
+    get(sent.get(0));
+    get(sent.get(0));
+
+    assertEquals(1, server.messageReads);
+    assertEquals(0.5, cache.hitRate(), 0.001);
+  }
+
+  @Test
+  public void testNewestMessageIsRevalidated() {
+
+    assertEquals(Uuid.NULL, get(sent.get(4)).next);
+
+    final Message added = controller.newMessage(user.id, conversation.id, "message 5");
+
+    // The newest message is fetched again, so the new "next" is seen.
+    assertEquals(added.id, get(sent.get(4)).next);
+    assertEquals(2, server.messageReads);
+  }
+
+  @Test
+  public void testForwardPageFromCache() {
+
+    cache.getMessagePage(conversation.id, user.id, Uuid.NULL, 5, true);
+    assertEquals(1, server.messageReads);
+
+    final List<Message> page =
+        new ArrayList<>(cache.getMessagePage(conversation.id, user.id, sent.get(0).id, 3, true));
+
+    assertEquals(1, server.messageReads);
+    assertEquals(3, page.size());
+    assertEquals(sent.get(1).id, page.get(0).id);
+    assertEquals(sent.get(3).id, page.get(2).id);
+
+    // The page would go past the newest message the cache knows of, and
+    // there may be newer ones.
+    cache.getMessagePage(conversation.id, user.id, sent.get(2).id, 3, true);
+    assertEquals(2, server.messageReads);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsDropped() {
+
+    // Room for about two messages.
+    cache = new CachingView(server, 500);
+
+    get(sent.get(0));
+    get(sent.get(1));
+    get(sent.get(0));
+    get(sent.get(2));
+
+    final int reads = server.messageReads;
+
+    get(sent.get(0));
+    assertEquals(reads, server.messageReads);
+
+    get(sent.get(1));
+    assertEquals(reads + 1, server.messageReads);
+  }
+
+  @Test
+  public void testOtherUserIsNotServedFromCache() {
+
+    final User other = controller.newUser("other");
+
+    get(sent.get(0));
+    cache.getMessages(conversation.id, other.id, Arrays.asList(sent.get(0).id));
+
+    // The second user's read goes to the server, which decides what they may
+    // see, and the first user's copy is gone with it.
+    assertEquals(2, server.messageReads);
+
+    get(sent.get(0));
+    assertEquals(3, server.messageReads);
+  }
+
+  @Test
+  public void testOtherConversationIsNotServedFromCache() {
+
+    final ConversationHeader elsewhere = controller.newConversation("elsewhere", user.id);
+
+    get(sent.get(0));
+    cache.getMessages(elsewhere.id, user.id, Arrays.asList(sent.get(0).id));
+    assertEquals(2, server.messageReads);
+
+    cache.getMessagePage(conversation.id, user.id, Uuid.NULL, 5, true);
+    cache.getMessagePage(elsewhere.id, user.id, sent.get(0).id, 3, true);
+    assertEquals(4, server.messageReads);
+  }
+}
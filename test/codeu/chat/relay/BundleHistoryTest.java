@@ -0,0 +1,179 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.relay;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class BundleHistoryTest {
+
+  private static Relay.Bundle bundle(int id) {
+    return bundle(id, Uuid.NULL);
+  }
+
+  private static Relay.Bundle bundle(final int id, final Uuid team) {
+    return new Relay.Bundle() {
+      @Override
+      public Uuid id() { return new Uuid(id); }
+      @Override
+      public Time time() { return Time.fromMs(id); }
+      @Override
+      public Uuid team() { return team; }
+      @Override
+      public Relay.Bundle.Component user() { return null; }
+      @Override
+      public Relay.Bundle.Component conversation() { return null; }
+      @Override
+      public Relay.Bundle.Component message() { return null; }
+    };
+  }
+
+  private static void assertIds(Collection<Relay.Bundle> actual, int first, int count) {
+    assertEquals(count, actual.size());
+    final Iterator<Relay.Bundle> bundles = actual.iterator();
+    for (int i = 0; i < count; i++) {
+      assertEquals(new Uuid(first + i), bundles.next().id());
+    }
+  }
+
+  @Test
+  public void testReadFromCursor() {
+
+    final BundleHistory history = new BundleHistory(100);
+    for (int i = 2; i < 50; i++) {
+      history.add(bundle(i));
+    }
+
+    assertIds(history.read(new Uuid(10), 5), 11, 5);
+    assertIds(history.read(new Uuid(47), 5), 48, 2);
+    assertIds(history.read(new Uuid(49), 5), 0, 0);
+  }
+
+  @Test
+  public void testUnknownCursorStartsAtOldest() {
+
+    final BundleHistory history = new BundleHistory(100);
+    for (int i = 2; i < 10; i++) {
+      history.add(bundle(i));
+    }
+
+    assertIds(history.read(Uuid.NULL, 3), 2, 3);
+    assertIds(history.read(new Uuid(500), 3), 2, 3);
+    assertIds(history.read(new Uuid(new Uuid(1), 5), 3), 2, 3);
+  }
+
+  @Test
+  public void testOverwriteOldest() {
+
+    final BundleHistory history = new BundleHistory(4);
+    for (int i = 2; i < 12; i++) {
+      history.add(bundle(i));
+    }
+
+    assertEquals(4, history.size());
+    assertIds(history.read(Uuid.NULL, 10), 8, 4);
+
+    // A cursor that has been dropped starts again from the oldest.
+    assertIds(history.read(new Uuid(3), 10), 8, 4);
+    assertIds(history.read(new Uuid(9), 10), 10, 2);
+  }
+
+  @Test
+  public void testGrowKeepsOrder() {
+
+    final BundleHistory history = new BundleHistory(5000);
+
+    // Wrap the initial ring before it has to grow.
+    for (int i = 1; i <= 3000; i++) {
+      history.add(bundle(i));
+    }
+
+    assertEquals(3000, history.size());
+    assertIds(history.read(Uuid.NULL, 3000), 1, 3000);
+    assertIds(history.read(new Uuid(1500), 10), 1501, 10);
+  }
+
+  @Test
+  public void testReadByTeam() {
+
+    final Uuid a = new Uuid(1);
+    final Uuid b = new Uuid(2);
+    final Uuid c = new Uuid(3);
+
+    final BundleHistory history = new BundleHistory(100);
+    for (int i = 1; i <= 30; i++) {
+      history.add(bundle(i, i % 3 == 0 ? a : (i % 3 == 1 ? b : c)));
+    }
+
+    // Team "a" wrote every third bundle.
+    final Collection<Relay.Bundle> onlyA = history.read(Uuid.NULL, 100, Arrays.asList(a));
+    assertEquals(10, onlyA.size());
+    int expected = 3;
+    for (final Relay.Bundle bundle : onlyA) {
+      assertEquals(new Uuid(expected), bundle.id());
+      expected += 3;
+    }
+
+    // Two teams come back merged in id order, starting after the cursor.
+    final Collection<Relay.Bundle> aAndB = history.read(new Uuid(10), 4, Arrays.asList(a, b));
+    final int[] ids = { 12, 13, 15, 16 };
+    int at = 0;
+    for (final Relay.Bundle bundle : aAndB) {
+      assertEquals(new Uuid(ids[at++]), bundle.id());
+    }
+    assertEquals(ids.length, at);
+
+    assertIds(history.read(Uuid.NULL, 10, Arrays.asList(new Uuid(9))), 0, 0);
+  }
+
+  @Test
+  public void testReadByTeamAfterOverwrite() {
+
+    final Uuid a = new Uuid(1);
+    final Uuid b = new Uuid(2);
+
+    final BundleHistory history = new BundleHistory(4);
+    for (int i = 1; i <= 10; i++) {
+      history.add(bundle(i, i <= 8 ? a : b));
+    }
+
+    // Only 7 to 10 are left, so team "a" has two.
+    assertIds(history.read(Uuid.NULL, 10, Arrays.asList(a)), 7, 2);
+    assertIds(history.read(Uuid.NULL, 10, Arrays.asList(b)), 9, 2);
+  }
+
+  @Test
+  public void testEmptyHistory() {
+    final BundleHistory history = new BundleHistory(0);
+    history.add(bundle(1));
+    assertIds(history.read(Uuid.NULL, 10), 0, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGapIsRejected() {
+    final BundleHistory history = new BundleHistory(10);
+    history.add(bundle(1));
+    history.add(bundle(3));
+  }
+}
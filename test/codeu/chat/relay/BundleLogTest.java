@@ -0,0 +1,230 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class BundleLogTest {
+
+  private static final long NO_LIMIT = 0;
+
+  private File directory;
+
+  @Before
+  public void doBefore() throws IOException {
+    directory = Files.createTempDirectory("bundlelog").toFile();
+  }
+
+  @After
+  public void doAfter() {
+    for (final File child : directory.listFiles()) {
+      child.delete();
+    }
+    directory.delete();
+  }
+
+  private static Relay.Bundle.Component component(final int id, final String text) {
+    return new Relay.Bundle.Component() {
+      @Override
+      public Uuid id() { return new Uuid(id); }
+      @Override
+      public String text() { return text; }
+      @Override
+      public Time time() { return Time.fromMs(id); }
+    };
+  }
+
+  private static Relay.Bundle bundle(int id, Uuid team) {
+    return bundle(id, team, Time.now());
+  }
+
+  private static Relay.Bundle bundle(final int id, final Uuid team, final Time time) {
+    return new Relay.Bundle() {
+      @Override
+      public Uuid id() { return new Uuid(id); }
+      @Override
+      public Time time() { return time; }
+      @Override
+      public Uuid team() { return team; }
+      @Override
+      public Relay.Bundle.Component user() { return component(1, "user"); }
+      @Override
+      public Relay.Bundle.Component conversation() { return component(2, "conversation"); }
+      @Override
+      public Relay.Bundle.Component message() { return component(id, "message " + id); }
+    };
+  }
+
+  private static void assertIds(Collection<Relay.Bundle> actual, int first, int count) {
+    assertEquals(count, actual.size());
+    final Iterator<Relay.Bundle> bundles = actual.iterator();
+    for (int i = 0; i < count; i++) {
+      final Relay.Bundle bundle = bundles.next();
+      assertEquals(new Uuid(first + i), bundle.id());
+      assertEquals("message " + (first + i), bundle.message().text());
+    }
+  }
+
+  private int segments() {
+    return directory.list().length;
+  }
+
+  @Test
+  public void testReopen() throws IOException {
+
+    final BundleLog first = new BundleLog(directory, 1024, NO_LIMIT, NO_LIMIT);
+    for (int i = 2; i < 300; i++) {
+      first.append(bundle(i, Uuid.NULL));
+    }
+    first.close();
+
+    assertTrue(segments() > 1);
+
+    final BundleLog second = new BundleLog(directory, 1024, NO_LIMIT, NO_LIMIT);
+    assertEquals(2, second.first());
+    assertEquals(299, second.last());
+
+    assertIds(second.read(2, 300, 1000, null), 2, 298);
+    assertIds(second.read(150, 300, 10, null), 150, 10);
+    assertIds(second.read(295, 1000, 10, null), 295, 5);
+    assertIds(second.read(150, 155, 10, null), 150, 5);
+
+    // New bundles carry on from the last one.
+    second.append(bundle(300, Uuid.NULL));
+    assertIds(second.read(299, 1000, 10, null), 299, 2);
+  }
+
+  @Test
+  public void testReadByTeam() throws IOException {
+
+    final Uuid a = new Uuid(1);
+    final Uuid b = new Uuid(2);
+
+    final BundleLog log = new BundleLog(directory, 1024, NO_LIMIT, NO_LIMIT);
+    for (int i = 1; i <= 200; i++) {
+      log.append(bundle(i, i <= 100 ? a : b));
+    }
+
+    final Collection<Relay.Bundle> onlyB = log.read(1, 201, 1000, Arrays.asList(b));
+    assertIds(onlyB, 101, 100);
+
+    final Collection<Relay.Bundle> someA = log.read(50, 201, 10, Arrays.asList(a));
+    assertIds(someA, 50, 10);
+
+    assertTrue(log.read(1, 201, 1000, Arrays.asList(new Uuid(3))).isEmpty());
+  }
+
+  @Test
+  public void testDamagedEndIsDropped() throws IOException {
+
+    final BundleLog first = new BundleLog(directory, 1 << 20, NO_LIMIT, NO_LIMIT);
+    for (int i = 1; i <= 10; i++) {
+      first.append(bundle(i, Uuid.NULL));
+    }
+    first.close();
+
+    // Simulate a crash part way through writing the next record.
+    final File segment = directory.listFiles()[0];
+    final long good = segment.length();
+    try (final FileOutputStream out = new FileOutputStream(segment, true)) {
+      out.write(new byte[] { 0, 0, 1, 0, 1, 2, 3 });
+    }
+
+    final BundleLog second = new BundleLog(directory, 1 << 20, NO_LIMIT, NO_LIMIT);
+    assertEquals(10, second.last());
+    assertEquals(good, segment.length());
+
+    second.append(bundle(11, Uuid.NULL));
+    second.close();
+
+    assertIds(new BundleLog(directory, 1 << 20, NO_LIMIT, NO_LIMIT).read(1, 100, 100, null), 1, 11);
+  }
+
+  @Test
+  public void testSizeRetention() throws IOException {
+
+    final BundleLog log = new BundleLog(directory, 1024, NO_LIMIT, 4096);
+    for (int i = 1; i <= 500; i++) {
+      log.append(bundle(i, Uuid.NULL));
+    }
+
+    assertTrue(log.bytes() <= 4096 + 1024 + 200);
+    assertTrue(log.first() > 1);
+    assertEquals(500, log.last());
+
+    // What is left can still be read, starting from the oldest.
+    final Collection<Relay.Bundle> rest = log.read(1, 501, 1000, null);
+    assertIds(rest, (int) log.first(), (int) (500 - log.first() + 1));
+  }
+
+  @Test
+  public void testTimeRetention() throws IOException {
+
+    final BundleLog log = new BundleLog(directory, 1024, 60000, NO_LIMIT);
+
+    final Time old = Time.fromMs(System.currentTimeMillis() - 120000);
+    for (int i = 1; i <= 100; i++) {
+      log.append(bundle(i, Uuid.NULL, old));
+    }
+    for (int i = 101; i <= 200; i++) {
+      log.append(bundle(i, Uuid.NULL));
+    }
+
+    // Only segments that hold a new bundle are kept.
+    assertTrue(log.first() > 1);
+    assertTrue(log.first() <= 101);
+    assertEquals(200, log.last());
+  }
+
+  @Test
+  public void testHistoryReadsPastRing() throws IOException {
+
+    final BundleHistory first = new BundleHistory(10, new BundleLog(directory, 1024, NO_LIMIT, NO_LIMIT));
+    for (int i = 2; i < 100; i++) {
+      first.add(bundle(i, Uuid.NULL));
+    }
+    first.close();
+
+    assertEquals(10, first.size());
+
+    // The ring only holds the newest ten, the rest come from the log.
+    final BundleHistory second = new BundleHistory(10, new BundleLog(directory, 1024, NO_LIMIT, NO_LIMIT));
+    assertEquals(10, second.size());
+    assertEquals(99, second.last());
+
+    assertIds(second.read(Uuid.NULL, 5), 2, 5);
+    assertIds(second.read(new Uuid(85), 10), 86, 10);
+    assertIds(second.read(new Uuid(95), 10), 96, 4);
+    assertIds(second.read(new Uuid(99), 10), 0, 0);
+
+    final Collection<Relay.Bundle> all = second.read(new Uuid(1), 1000, Arrays.asList(Uuid.NULL));
+    assertIds(all, 2, 98);
+  }
+}
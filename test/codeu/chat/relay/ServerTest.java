@@ -14,6 +14,11 @@
 
 package codeu.chat.relay;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 
 import static org.junit.Assert.*;
@@ -287,4 +292,277 @@ public final class ServerTest {
       assertTrue(Uuid.equals(bundle.id(), new Uuid(3)));
     }
   }
+
+  @Test
+  public void testSubscribeExcludesSelf() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid teamA = new Uuid(3);
+    final Uuid teamB = new Uuid(4);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(teamA, secret));
+    assertTrue(relay.addTeam(teamB, secret));
+
+    assertTrue(relay.write(teamA,
+                           secret,
+                           relay.pack(new Uuid(4), "User", Time.now()),
+                           relay.pack(new Uuid(5), "Conversation", Time.now()),
+                           relay.pack(new Uuid(6), "From A", Time.now())));
+
+    assertTrue(relay.write(teamB,
+                           secret,
+                           relay.pack(new Uuid(7), "User", Time.now()),
+                           relay.pack(new Uuid(8), "Conversation", Time.now()),
+                           relay.pack(new Uuid(9), "From B", Time.now())));
+
+    assertEquals(2, relay.read(teamA, secret, Uuid.NULL, 8).size());
+
+    assertTrue(relay.subscribe(teamA, secret, false, new ArrayList<Uuid>()));
+
+    final Collection<Relay.Bundle> read = relay.read(teamA, secret, Uuid.NULL, 8);
+    assertTrue(read.size() == 1);
+
+    for (final Relay.Bundle bundle : read) {
+      assertTrue(Uuid.equals(bundle.team(), teamB));
+      assertTrue(Uuid.equals(bundle.message().id(), new Uuid(9)));
+    }
+
+    // Other teams are not affected.
+    assertEquals(2, relay.read(teamB, secret, Uuid.NULL, 8).size());
+  }
+
+  @Test
+  public void testSubscribeListedTeams() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid teamA = new Uuid(3);
+    final Uuid teamB = new Uuid(4);
+    final Uuid teamC = new Uuid(5);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(teamA, secret));
+    assertTrue(relay.addTeam(teamB, secret));
+    assertTrue(relay.addTeam(teamC, secret));
+
+    for (final Uuid team : Arrays.asList(teamB, teamC, teamB, teamC)) {
+      assertTrue(relay.write(team,
+                             secret,
+                             relay.pack(new Uuid(4), "User", Time.now()),
+                             relay.pack(new Uuid(5), "Conversation", Time.now()),
+                             relay.pack(new Uuid(6), "Hello World", Time.now())));
+    }
+
+    assertTrue(relay.subscribe(teamA, secret, false, Arrays.asList(teamC)));
+
+    final Collection<Relay.Bundle> first = relay.read(teamA, secret, Uuid.NULL, 1);
+    assertTrue(first.size() == 1);
+
+    Uuid last = Uuid.NULL;
+    for (final Relay.Bundle bundle : first) {
+      assertTrue(Uuid.equals(bundle.team(), teamC));
+      last = bundle.id();
+    }
+
+    // Continuing from the last bundle read skips over team B's bundles.
+    final Collection<Relay.Bundle> second = relay.read(teamA, secret, last, 8);
+    assertTrue(second.size() == 1);
+
+    for (final Relay.Bundle bundle : second) {
+      assertTrue(Uuid.equals(bundle.team(), teamC));
+      assertFalse(Uuid.equals(bundle.id(), last));
+    }
+  }
+
+  @Test
+  public void testSubscribeFailWrongSecret() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+    final Secret wrongSecret = new Secret((byte)0x00, (byte)0x01, (byte)0x00);
+
+    assertTrue(relay.addTeam(team, secret));
+    assertFalse(relay.subscribe(team, wrongSecret, false, new ArrayList<Uuid>()));
+  }
+
+  @Test
+  public void testWaitReturnsOnWrite() throws Exception {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    final Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException ex) {
+          return;
+        }
+        relay.write(team,
+                    secret,
+                    relay.pack(new Uuid(4), "User", Time.now()),
+                    relay.pack(new Uuid(5), "Conversation", Time.now()),
+                    relay.pack(new Uuid(6), "Hello World", Time.now()));
+      }
+    };
+
+    final long start = System.currentTimeMillis();
+    writer.start();
+
+    final Collection<Relay.Bundle> read = relay.read(team, secret, Uuid.NULL, 8, 10000);
+    writer.join();
+
+    assertTrue(read.size() == 1);
+    assertTrue(System.currentTimeMillis() - start < 5000);
+  }
+
+  @Test
+  public void testWaitTimesOut() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    final long start = System.currentTimeMillis();
+    assertTrue(relay.read(team, secret, Uuid.NULL, 8, 50).isEmpty());
+    assertTrue(System.currentTimeMillis() - start >= 50);
+  }
+
+  @Test
+  public void testWaitFailWrongSecret() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+    final Secret wrongSecret = new Secret((byte)0x00, (byte)0x01, (byte)0x00);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    // An unknown team is answered straight away rather than left waiting.
+    final long start = System.currentTimeMillis();
+    assertTrue(relay.read(team, wrongSecret, Uuid.NULL, 8, 10000).isEmpty());
+    assertTrue(System.currentTimeMillis() - start < 5000);
+  }
+
+  @Test
+  public void testWriteBatch() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+    final Secret wrongSecret = new Secret((byte)0x00, (byte)0x01, (byte)0x00);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    final Collection<Relay.Packet> packets = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      packets.add(relay.pack(relay.pack(new Uuid(4), "User", Time.now()),
+                             relay.pack(new Uuid(5), "Conversation", Time.now()),
+                             relay.pack(new Uuid(10 + i), "Hello World", Time.now())));
+    }
+
+    assertFalse(relay.write(team, wrongSecret, packets));
+    assertTrue(relay.read(team, secret, Uuid.NULL, 8).isEmpty());
+
+    assertTrue(relay.write(team, secret, packets));
+
+    final Collection<Relay.Bundle> read = relay.read(team, secret, Uuid.NULL, 8);
+    assertTrue(read.size() == 3);
+
+    int expected = 10;
+    for (final Relay.Bundle bundle : read) {
+      assertTrue(Uuid.equals(bundle.message().id(), new Uuid(expected)));
+      expected += 1;
+    }
+  }
+
+  @Test
+  public void testBadPacketRefusesWholeBatch() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    final Collection<Relay.Packet> packets = new ArrayList<>();
+    packets.add(relay.pack(relay.pack(new Uuid(4), "User", Time.now()),
+                           relay.pack(new Uuid(5), "Conversation", Time.now()),
+                           relay.pack(new Uuid(10), "Hello World", Time.now())));
+    packets.add(relay.pack(relay.pack(new Uuid(4), "User", Time.now()),
+                           relay.pack(new Uuid(5), "Conversation", Time.now()),
+                           relay.pack(new Uuid(11), null, Time.now())));
+
+    assertFalse(relay.write(team, secret, packets));
+    assertTrue(relay.read(team, secret, Uuid.NULL, 8).isEmpty());
+  }
+
+  @Test
+  public void testResumeAfterRestart() throws IOException {
+
+    final File directory = Files.createTempDirectory("relay").toFile();
+
+    try {
+
+      final Uuid team = new Uuid(3);
+      final Uuid reader = new Uuid(7);
+      final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+      final Server first = new Server(8, 8, directory, 0, 0);
+      first.addTeam(team, secret);
+      first.addTeam(reader, secret);
+
+      for (int i = 0; i < 3; i++) {
+        assertTrue(first.write(team,
+                               secret,
+                               first.pack(new Uuid(4), "User", Time.now()),
+                               first.pack(new Uuid(5), "Conversation", Time.now()),
+                               first.pack(new Uuid(10 + i), "Hello World", Time.now())));
+      }
+
+      Uuid cursor = Uuid.NULL;
+      for (final Relay.Bundle bundle : first.read(reader, secret, Uuid.NULL, 8)) {
+        cursor = bundle.id();
+      }
+
+      // A new relay on the same directory keeps the history and its ids, so
+      // the reader's cursor still points at the last bundle it read.
+      final Server second = new Server(8, 8, directory, 0, 0);
+      second.addTeam(team, secret);
+      second.addTeam(reader, secret);
+
+      assertTrue(second.write(team,
+                              secret,
+                              second.pack(new Uuid(4), "User", Time.now()),
+                              second.pack(new Uuid(5), "Conversation", Time.now()),
+                              second.pack(new Uuid(20), "Hello Again", Time.now())));
+
+      assertEquals(4, second.read(reader, secret, Uuid.NULL, 8).size());
+
+      final Collection<Relay.Bundle> read = second.read(reader, secret, cursor, 8);
+      assertEquals(1, read.size());
+      assertEquals(new Uuid(20), read.iterator().next().message().id());
+
+    } finally {
+      for (final File child : directory.listFiles()) {
+        child.delete();
+      }
+      directory.delete();
+    }
+  }
 }
@@ -18,8 +18,13 @@ import static org.junit.Assert.*;
 import org.junit.Test;
 import org.junit.Before;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
 import codeu.chat.common.BasicController;
 import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
 import codeu.chat.common.User;
 import codeu.chat.util.Uuid;
@@ -89,4 +94,54 @@ public final class BasicControllerTest {
         "Check that the message has a valid reference",
         message == null);
   }
+
+  @Test
+  public void testReloadFromLocalFile() throws IOException {
+
+    final File directory = Files.createTempDirectory("controller").toFile();
+
+    try {
+
+      final Model model = new Model();
+      final LocalFile file = new LocalFile(directory, model);
+      final Controller first = new Controller(Uuid.NULL, model, file);
+      final User user = first.newUser("user");
+      final User other = first.newUser("other");
+      final ConversationHeader conversation = first.newConversation("conversation", user.id);
+      first.authorityModificationRequest(conversation.id, other.id, user.id, "m");
+      final Message one = first.newMessage(user.id, conversation.id, "one");
+      final Message two = first.newMessage(user.id, conversation.id, "two");
+      final Message three = first.newMessage(other.id, conversation.id, "three");
+      file.saveData();
+
+      final Model reloaded = new Model();
+      new Controller(Uuid.NULL, reloaded, new LocalFile(directory, reloaded));
+
+      assertEquals("other", reloaded.userById().first(other.id).name);
+      assertEquals("conversation", reloaded.conversationById().first(conversation.id.root()).title);
+      assertTrue(reloaded.isCreator(conversation.id, user.id));
+      assertTrue(reloaded.isMember(conversation.id, other.id));
+
+      // Loaded users and conversations are numbered as changes too.
+      assertEquals(3, reloaded.lastChange());
+      assertEquals(other.id, reloaded.userByChange().first(2L).id);
+      assertEquals(conversation.id, reloaded.conversationByChange().first(3L).id);
+
+      // The messages are linked together in the order they were added.
+      final ConversationPayload payload = reloaded.conversationPayloadById().first(conversation.id.root());
+      assertEquals(one.id, payload.firstMessage);
+      assertEquals(three.id, payload.lastMessage);
+      assertEquals(two.id, reloaded.messageById().first(one.id).next);
+      assertEquals(three.id, reloaded.messageById().first(two.id).next);
+      assertEquals(Uuid.NULL, reloaded.messageById().first(three.id).next);
+      assertEquals("two", reloaded.messageById().first(two.id).content());
+      assertEquals(3, reloaded.messageByConversation(conversation.id.root()).size());
+
+    } finally {
+      for (final File child : directory.listFiles()) {
+        child.delete();
+      }
+      directory.delete();
+    }
+  }
 }
@@ -25,6 +25,7 @@
 
 package codeu.chat.server;
 import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -71,7 +72,7 @@ public final class ConversationAccessServerTest {
         "Check that conversation has a valid reference",
         conversation);    
         
-    HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+    Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
     HashMap<Uuid, Byte> rightMap = new HashMap<Uuid, Byte>();
     rightMap.put(user.id, creatorByte);
 
@@ -108,7 +109,7 @@ public final class ConversationAccessServerTest {
 	User p1 = controller.newUser("p1");
 	ConversationHeader chatA = controller.newConversation("chatA", p1.id);
 	  
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(chatA);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(chatA);
 
 	assertTrue(
 		"Check that the correct map was accessed",
@@ -122,7 +123,7 @@ public final class ConversationAccessServerTest {
   @Test
   public void secureCreatorByteTest(){
 	ConversationHeader conversation = spawnTestConversation();
-    HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+    Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
   
     assertEquals(
         "Check that the creator's byte is 111",
@@ -151,7 +152,7 @@ public final class ConversationAccessServerTest {
 		"Check automatic membership for newcomers to chat",
 		model.isMember(conversation, member.id));
 		    		    
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
 	assertEquals(
 		"Check that newcomer byte is 001",
 		accessMap.get(member.id).byteValue(),memberByte);
@@ -178,7 +179,7 @@ public final class ConversationAccessServerTest {
 	controller.authorityModificationRequest(conversation.id, users[1], users[1], "o");
 	controller.authorityModificationRequest(conversation.id, users[1], users[2], "o");
 	
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
 	
 	assertEquals(
 		"Check that illegal cases of addOwner do nothing",
@@ -196,7 +197,7 @@ public final class ConversationAccessServerTest {
 	controller.authorityModificationRequest(conversation.id, users[0], users[0], "m");
 	controller.authorityModificationRequest(conversation.id, users[0], users[2], "m");
 	
-	HashMap<Uuid,Byte> accessMap = model.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
 	
 	assertEquals(
 		"Check that illegal cases of demoteOwner do nothing",
@@ -222,7 +223,7 @@ public final class ConversationAccessServerTest {
 	Uuid[] users = spawnRest(conversation);
 	User newcomer = controller.newUser("newcomer");
     
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
 	
 	controller.authorityModificationRequest(conversation.id, newcomer.id, users[2], "b");
 	controller.authorityModificationRequest(conversation.id, conversation.owner, conversation.owner, "b");    
@@ -241,7 +242,7 @@ public final class ConversationAccessServerTest {
 	final User badOwner = spawnOwner(conversation, "owner");
 	
 	controller.authorityModificationRequest(conversation.id, badOwner.id, conversation.owner, "b");
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);  
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);  
 	
 	assertEquals(
 	    "Check that a creator can ban an owner",
@@ -269,7 +270,7 @@ public final class ConversationAccessServerTest {
 	User badMember = spawnMember(conversation);
 	
 	controller.authorityModificationRequest(conversation.id, badMember.id, conversation.owner, "b");
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
 	
 	assertEquals(
 	    "Check that a creator can ban a member",
@@ -286,7 +287,7 @@ public final class ConversationAccessServerTest {
 	User badNewcomer = controller.newUser("badNewcomer");
 	
 	controller.authorityModificationRequest(conversation.id, badNewcomer.id, conversation.owner, "b");
-    HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+    Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
     
     assertEquals(
         "Check that an owner can ban newcomers",
@@ -304,7 +305,7 @@ public final class ConversationAccessServerTest {
 	User badOwner = spawnOwner(conversation, "badOwner");
 	
 	controller.authorityModificationRequest(conversation.id, badOwner.id, goodOwner.id, "b");
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
 	
 	assertEquals(
 	    "Check that an owner can ban other owners",
@@ -332,7 +333,7 @@ public final class ConversationAccessServerTest {
 	Uuid[] users = spawnRest(conversation);
 	
 	controller.authorityModificationRequest(conversation.id, users[1], users[0], "b");
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
 	
 	assertEquals(
 	    "Check that an owner can ban members",
@@ -350,7 +351,7 @@ public final class ConversationAccessServerTest {
 	User owner = spawnOwner(conversation, "owner");
 	
 	controller.authorityModificationRequest(conversation.id, badNewcomer.id, owner.id, "b");
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
 	
 	assertEquals(
 	    "Check that an owner can ban newcomers",
@@ -365,7 +366,7 @@ public final class ConversationAccessServerTest {
   public void noIllegalMembersAddedTest(){
 	ConversationHeader conversation = spawnTestConversation();
 	Uuid[] users = spawnRest(conversation);
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
 	
 	controller.authorityModificationRequest(conversation.id, users[0], conversation.owner, "m");
 	controller.authorityModificationRequest(conversation.id, conversation.owner, users[0], "m");
@@ -383,7 +384,7 @@ public final class ConversationAccessServerTest {
 	ConversationHeader conversation = spawnTestConversation();
 	User newcomer = controller.newUser("newcomer");
 	controller.authorityModificationRequest(conversation.id, newcomer.id, conversation.owner, "m");
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
 	
 	assertEquals(
 	    "Check that a creator can add a newcomer not in chat to their chat",
@@ -399,7 +400,7 @@ public final class ConversationAccessServerTest {
 	ConversationHeader conversation = spawnTestConversation();
 	User newcomer = controller.newUser("newcomer");
 	controller.authorityModificationRequest(conversation.id, newcomer.id, conversation.owner, "m");
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(conversation);
 		
 	assertEquals(
 		"Check that a creator can add a newcomer not in chat to their chat",
@@ -427,7 +428,7 @@ public final class ConversationAccessServerTest {
 	rightMap.put(p2.id, memberByte);
 	rightMap.put(p3.id, ownerByte);
 		
-	HashMap<Uuid, Byte> accessMap = model.getPermissionMap(chatA);
+	Map<Uuid, Byte> accessMap = model.getPermissionMap(chatA);
 		
 	assertEquals(accessMap, rightMap);
 		
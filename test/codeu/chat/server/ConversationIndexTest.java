@@ -0,0 +1,173 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ConversationIndexTest {
+
+  private static Message message(int id, long time) {
+    return new Message(new Uuid(id), Uuid.NULL, Uuid.NULL, Time.fromMs(time), Uuid.NULL, "", Uuid.NULL);
+  }
+
+  @Test
+  public void testGrowAndIndexOf() {
+
+    final ConversationIndex index = new ConversationIndex();
+
+    for (int i = 0; i < 100; i++) {
+      index.add(message(i + 1, i));
+    }
+
+    assertEquals(100, index.size());
+    assertEquals(0, index.indexOf(new Uuid(1)));
+    assertEquals(99, index.indexOf(new Uuid(100)));
+    assertEquals(-1, index.indexOf(new Uuid(1000)));
+    assertEquals(new Uuid(50), index.get(49).id);
+  }
+
+  @Test
+  public void testPageBothWays() {
+
+    final ConversationIndex index = new ConversationIndex();
+
+    for (int i = 0; i < 10; i++) {
+      index.add(message(i + 1, i));
+    }
+
+    final List<Message> newest = new ArrayList<>(index.page(index.size() - 1, 3, false));
+    assertEquals(3, newest.size());
+    assertEquals(new Uuid(10), newest.get(0).id);
+    assertEquals(new Uuid(8), newest.get(2).id);
+
+    final List<Message> tail = new ArrayList<>(index.page(8, 5, true));
+    assertEquals(2, tail.size());
+    assertEquals(new Uuid(9), tail.get(0).id);
+
+    assertTrue(index.page(10, 5, true).isEmpty());
+    assertTrue(index.page(-1, 5, false).isEmpty());
+  }
+
+  @Test
+  public void testSeekInOrder() {
+
+    final ConversationIndex index = new ConversationIndex();
+
+    for (int i = 0; i < 10; i++) {
+      index.add(message(i + 1, i * 10));
+    }
+
+    assertEquals(0, index.seek(Time.fromMs(0)));
+    assertEquals(3, index.seek(Time.fromMs(25)));
+    assertEquals(3, index.seek(Time.fromMs(30)));
+    assertEquals(10, index.seek(Time.fromMs(1000)));
+  }
+
+  @Test
+  public void testSeekOutOfOrder() {
+
+    final ConversationIndex index = new ConversationIndex();
+
+    index.add(message(1, 10));
+    index.add(message(2, 30));
+    index.add(message(3, 20));
+    index.add(message(4, 40));
+
+    assertEquals(1, index.seek(Time.fromMs(15)));
+    assertEquals(3, index.seek(Time.fromMs(35)));
+  }
+
+  @Test
+  public void testLiveMessagesAreIndexedOnAdd() {
+
+    final int[] reads = new int[1];
+    final ConversationIndex index = new ConversationIndex();
+
+    index.add(counted(1, "lunch", reads));
+    index.add(counted(2, "other", reads));
+    assertEquals(2, reads[0]);
+
+    final List<Message> found = new ArrayList<>(index.search("lunch", 0, 10));
+    assertEquals(1, found.size());
+    assertEquals(new Uuid(1), found.get(0).id);
+    assertEquals(2, reads[0]);
+  }
+
+  @Test
+  public void testSavedMessagesAreIndexedApart() {
+
+    final int[] reads = new int[1];
+    final ConversationIndex index = new ConversationIndex();
+
+    for (int i = 0; i < 3; i++) {
+      index.addSaved(counted(i + 1, i == 1 ? "lunch" : "other", reads));
+    }
+
+    // Loading never reads the content.
+    assertEquals(0, reads[0]);
+
+    index.add(counted(4, "lunch again", reads));
+    assertEquals(1, reads[0]);
+
+    index.indexSaved();
+    assertEquals(4, reads[0]);
+
+    // Newest first among equal matches, across both indexes.
+    final List<Message> found = new ArrayList<>(index.search("lunch", 0, 10));
+    assertEquals(2, found.size());
+    assertEquals(new Uuid(4), found.get(0).id);
+    assertEquals(new Uuid(2), found.get(1).id);
+    assertEquals(4, reads[0]);
+  }
+
+  @Test
+  public void testSearchIndexesSavedMessages() {
+
+    final int[] reads = new int[1];
+    final ConversationIndex index = new ConversationIndex();
+
+    index.addSaved(counted(1, "lunch", reads));
+    index.addSaved(counted(2, "other", reads));
+
+    // A search that gets there before "indexSaved" builds the index itself.
+    assertEquals(1, index.search("lunch", 0, 10).size());
+    assertEquals(2, reads[0]);
+
+    assertEquals(1, index.search("lunch", 0, 10).size());
+    assertEquals(2, reads[0]);
+  }
+
+  // A message that counts how many times its content is read.
+  private static Message counted(int id, final String content, final int[] reads) {
+    return new Message(new Uuid(id), Uuid.NULL, Uuid.NULL, Time.fromMs(id), Uuid.NULL,
+        new Message.Text() {
+          @Override
+          public String read() {
+            reads[0] += 1;
+            return content;
+          }
+        },
+        Uuid.NULL);
+  }
+}
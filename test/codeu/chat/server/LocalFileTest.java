@@ -0,0 +1,333 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationHeader.ConversationUuid;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class LocalFileTest {
+
+  private final User author = new User(new Uuid(500), "author", Time.fromMs(1));
+  private final ConversationHeader conversation =
+      new ConversationHeader(new ConversationUuid(600), author.id, Time.fromMs(2), "conversation");
+
+  private File directory;
+
+  @Before
+  public void doBefore() throws IOException {
+    directory = Files.createTempDirectory("localfile").toFile();
+  }
+
+  @After
+  public void doAfter() {
+    for (final File child : directory.listFiles()) {
+      child.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testReopenAfterSave() throws IOException {
+
+    final Model model = new Model();
+    final LocalFile first = new LocalFile(directory, model);
+    addConversation(model, first);
+    addMessage(model, first, message(3, "hello"));
+    first.addAuthority(conversation.id, new Uuid(1), (byte) 0b001);
+    first.saveData();
+
+    final Model reloaded = new Model();
+    final LocalFile second = new LocalFile(directory, reloaded);
+
+    assertEquals(1, second.getUsers().size());
+    assertEquals("author", second.getUsers().iterator().next().name);
+    assertEquals(1, second.getauthorityList().size());
+
+    assertEquals("author", reloaded.userById().first(author.id).name);
+    assertEquals("conversation", reloaded.conversationById().first(conversation.id.root()).title);
+    assertEquals(1, reloaded.messageCount());
+    assertEquals("hello", reloaded.messageById().first(new Uuid(3)).content());
+  }
+
+  @Test
+  public void testRepeatedAddIsNotJournaled() throws IOException {
+
+    final LocalFile file = new LocalFile(directory, new Model());
+    final User user = new User(new Uuid(1), "user", Time.fromMs(10));
+
+    file.addUser(user);
+    final long size = file.saveData();
+    assertEquals(size, new File(directory, "journal.0.log").length());
+
+    file.addUser(user);
+    assertEquals(0, file.saveData());
+
+    assertEquals(size, new File(directory, "journal.0.log").length());
+  }
+
+  @Test
+  public void testPartialRecordIsDropped() throws IOException {
+
+    final LocalFile first = new LocalFile(directory, new Model());
+    first.addUser(new User(new Uuid(1), "user", Time.fromMs(10)));
+    first.saveData();
+
+    // Simulate a crash part way through writing the next record.
+    final File journal = new File(directory, "journal.0.log");
+    final long good = journal.length();
+    try (final FileOutputStream out = new FileOutputStream(journal, true)) {
+      Serializers.INTEGER.write(out, 100);
+      out.write(new byte[] { 1, 2, 3 });
+    }
+
+    final LocalFile second = new LocalFile(directory, new Model());
+    assertEquals(1, second.getUsers().size());
+    assertEquals(good, journal.length());
+
+    second.addUser(new User(new Uuid(4), "other", Time.fromMs(30)));
+    second.saveData();
+
+    assertEquals(2, new LocalFile(directory, new Model()).getUsers().size());
+  }
+
+  @Test
+  public void testBadChecksumEndsJournal() throws IOException {
+
+    // Enough records that they are checked in several chunks at once.
+    final LocalFile first = new LocalFile(directory, new Model());
+    for (int i = 0; i < 5000; i++) {
+      first.addUser(new User(new Uuid(i + 1), String.format("user%05d", i), Time.fromMs(i)));
+    }
+    first.saveData();
+
+    // Every record is the same size, so damage the middle of record 3000.
+    final File journal = new File(directory, "journal.0.log");
+    final long record = journal.length() / 5000;
+    try (final RandomAccessFile out = new RandomAccessFile(journal, "rw")) {
+      out.seek(3000 * record + record / 2);
+      final int b = out.read();
+      out.seek(3000 * record + record / 2);
+      out.write(b ^ 0xFF);
+    }
+
+    final LocalFile second = new LocalFile(directory, new Model());
+    assertEquals(3000, second.getUsers().size());
+    assertEquals(3000 * record, journal.length());
+  }
+
+  @Test
+  public void testFailedWriteIsReplacedBySnapshot() throws IOException {
+
+    final AtomicBoolean fail = new AtomicBoolean(false);
+
+    // Fails the next write after only writing half of it, the way a full disk
+    // would.
+    final Model model = new Model();
+    final LocalFile first = new LocalFile(directory, model) {
+      @Override
+      Journal openJournal(File file) throws IOException {
+        return new Journal(file, new FileOutputStream(file, true) {
+          @Override
+          public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (fail.getAndSet(false)) {
+              super.write(bytes, offset, length / 2);
+              throw new IOException("No space left on device");
+            }
+            super.write(bytes, offset, length);
+          }
+        });
+      }
+    };
+
+    addConversation(model, first);
+    first.saveData();
+
+    // Larger than the journal's buffer, so it is written out straight away.
+    final char[] body = new char[20000];
+    Arrays.fill(body, 'x');
+
+    fail.set(true);
+    addMessage(model, first, message(2, new String(body)));
+    first.addUser(new User(new Uuid(3), "after", Time.fromMs(30)));
+    first.saveData();
+
+    assertTrue(new File(directory, "snapshot.1.sav").exists());
+    assertFalse(new File(directory, "journal.0.log").exists());
+
+    first.addUser(new User(new Uuid(4), "later", Time.fromMs(40)));
+    first.saveData();
+
+    final Model reloaded = new Model();
+    final LocalFile second = new LocalFile(directory, reloaded);
+    assertEquals(3, second.getUsers().size());
+    assertEquals(1, reloaded.messageCount());
+    assertEquals(new String(body), reloaded.messageById().first(new Uuid(2)).content());
+  }
+
+  @Test
+  public void testCompaction() throws IOException {
+
+    final Model model = new Model();
+    final LocalFile first = new LocalFile(directory, model);
+    final char[] body = new char[200];
+    Arrays.fill(body, 'x');
+
+    // Write enough to pass the minimum compaction size.
+    addConversation(model, first);
+    for (int i = 0; i < 10000; i++) {
+      addMessage(model, first, message(i + 1, new String(body)));
+    }
+    first.saveData();
+
+    assertTrue(new File(directory, "snapshot.1.sav").exists());
+    assertFalse(new File(directory, "journal.0.log").exists());
+
+    addMessage(model, first, message(20000, "last"));
+    first.saveData();
+
+    final Model reloaded = new Model();
+    new LocalFile(directory, reloaded);
+    assertEquals(10001, reloaded.messageCount());
+    assertEquals("last", messages(reloaded)[10000].content());
+  }
+
+  @Test
+  public void testMessageInSnapshotAndJournal() throws IOException {
+
+    // A message added to the model while a snapshot is being taken can end
+    // up in the snapshot and in the journal after it.
+    final Model model = new Model();
+    final LocalFile first = new LocalFile(directory, model);
+    final char[] body = new char[200];
+    Arrays.fill(body, 'x');
+
+    addConversation(model, first);
+    for (int i = 0; i < 10000; i++) {
+      addMessage(model, first, message(i + 1, new String(body)));
+    }
+    final Message late = message(20000, "late");
+    model.add(late);
+    first.saveData();
+    first.addMessage(late);
+    first.saveData();
+
+    final Model reloaded = new Model();
+    new LocalFile(directory, reloaded);
+    assertEquals(10001, reloaded.messageCount());
+    assertEquals(10001, reloaded.messageByConversation(conversation.id.root()).size());
+    assertEquals(late.id, messages(reloaded)[10000].id);
+  }
+
+  @Test
+  public void testLegacyFilesAreMigrated() throws IOException {
+
+    try (final FileOutputStream out =
+             new FileOutputStream(new File(directory.getPath() + LocalFile.USER_FILE_NAME))) {
+      Serializers.collection(User.SERIALIZER).write(
+          out, Arrays.asList(new User(new Uuid(1), "user", Time.fromMs(10))));
+    }
+
+    assertEquals(1, new LocalFile(directory, new Model()).getUsers().size());
+    assertFalse(new File(directory.getPath() + LocalFile.USER_FILE_NAME).exists());
+    assertEquals(1, new LocalFile(directory, new Model()).getUsers().size());
+  }
+
+  @Test
+  public void testSavedContentIsReadFromFile() throws IOException {
+
+    final Model model = new Model();
+    final LocalFile first = new LocalFile(directory, model);
+    addConversation(model, first);
+    for (int i = 0; i < 100; i++) {
+      addMessage(model, first, message(i + 1, "message " + i));
+    }
+    first.saveData();
+
+    final Model loaded = new Model();
+    final LocalFile second = new LocalFile(directory, loaded);
+
+    int i = 0;
+    for (final Message message : messages(loaded)) {
+      assertEquals(new Uuid(i + 1), message.id);
+      assertEquals(author.id, message.author);
+      assertEquals(conversation.id.root(), message.conversation);
+      assertEquals("message " + i, message.content());
+      i += 1;
+    }
+    assertEquals(100, i);
+
+    // The content can still be read and saved again after compaction has
+    // deleted the file it was read from.
+    final char[] body = new char[200];
+    Arrays.fill(body, 'x');
+    for (int j = 0; j < 10000; j++) {
+      addMessage(loaded, second, message(1000 + j, new String(body)));
+    }
+    second.saveData();
+
+    assertFalse(new File(directory, "journal.0.log").exists());
+    assertEquals("message 5", messages(loaded)[5].content());
+
+    final Model reopened = new Model();
+    new LocalFile(directory, reopened);
+    final Message[] all = messages(reopened);
+    assertEquals(10100, all.length);
+    assertEquals("message 99", all[99].content());
+    assertEquals(new String(body), all[10099].content());
+  }
+
+  // Add the user and conversation that messages are written in, the same way
+  // Controller does: to the model first and then to the file.
+  private void addConversation(Model model, LocalFile file) {
+    model.add(author);
+    file.addUser(author);
+    model.add(conversation);
+    file.addConversationHeader(conversation);
+  }
+
+  private static void addMessage(Model model, LocalFile file, Message message) {
+    model.add(message);
+    file.addMessage(message);
+  }
+
+  private Message message(int id, String content) {
+    return new Message(
+        new Uuid(id), Uuid.NULL, Uuid.NULL, Time.fromMs(id), author.id, content, conversation.id.root());
+  }
+
+  // The messages of the conversation in the order they were added.
+  private Message[] messages(Model model) {
+    final ConversationIndex index = model.messageByConversation(conversation.id.root());
+    return index.page(0, index.size(), true).toArray(new Message[0]);
+  }
+}
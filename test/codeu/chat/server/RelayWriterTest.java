@@ -0,0 +1,239 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.util.Metrics;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class RelayWriterTest {
+
+  // A relay that records every batch written to it. The first "failures"
+  // writes act as if the relay could not be reached, and after those the next
+  // "refusals" are refused.
+  private static final class RecordingRelay implements Relay {
+
+    private final NoOpRelay packer = new NoOpRelay();
+    private final List<Integer> batches = new ArrayList<>();
+    private final List<Relay.Packet> written = new ArrayList<>();
+    private int failures;
+    private int refusals;
+    private int attempts;
+
+    public RecordingRelay(int failures) {
+      this(failures, 0);
+    }
+
+    public RecordingRelay(int failures, int refusals) {
+      this.failures = failures;
+      this.refusals = refusals;
+    }
+
+    @Override
+    public Relay.Bundle.Component pack(Uuid id, String text, Time time) {
+      return packer.pack(id, text, time);
+    }
+
+    @Override
+    public Relay.Packet pack(Relay.Bundle.Component user,
+                             Relay.Bundle.Component conversation,
+                             Relay.Bundle.Component message) {
+      return packer.pack(user, conversation, message);
+    }
+
+    @Override
+    public boolean write(Uuid teamId,
+                         Secret teamSecret,
+                         Relay.Bundle.Component user,
+                         Relay.Bundle.Component conversation,
+                         Relay.Bundle.Component message) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized boolean write(Uuid teamId, Secret teamSecret, Collection<Relay.Packet> packets)
+        throws IOException {
+      attempts += 1;
+      if (failures > 0) {
+        failures -= 1;
+        throw new IOException("Relay is down");
+      }
+      if (refusals > 0) {
+        refusals -= 1;
+        return false;
+      }
+      batches.add(packets.size());
+      written.addAll(packets);
+      notifyAll();
+      return true;
+    }
+
+    @Override
+    public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
+      return new ArrayList<>();
+    }
+
+    @Override
+    public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range, long timeoutMs) {
+      return new ArrayList<>();
+    }
+
+    @Override
+    public boolean subscribe(Uuid teamId, Secret teamSecret, boolean includeSelf, Collection<Uuid> teams) {
+      return true;
+    }
+
+    public synchronized void awaitWritten(int count) throws InterruptedException {
+      final long deadline = System.currentTimeMillis() + 10000;
+      while (written.size() < count && System.currentTimeMillis() < deadline) {
+        wait(100);
+      }
+    }
+  }
+
+  private static final Uuid TEAM = new Uuid(1);
+  private static final Secret SECRET = new Secret((byte) 0x01);
+
+  private RelayWriter writer;
+
+  @After
+  public void doAfter() {
+    if (writer != null) {
+      writer.stop();
+    }
+  }
+
+  private static Relay.Packet packet(Relay relay, int id) {
+    return relay.pack(relay.pack(new Uuid(1), "user", Time.fromMs(0)),
+                      relay.pack(new Uuid(2), "conversation", Time.fromMs(0)),
+                      relay.pack(new Uuid(id), "message", Time.fromMs(0)));
+  }
+
+  @Test
+  public void testBurstIsBatched() throws InterruptedException {
+
+    final RecordingRelay relay = new RecordingRelay(0);
+
+    // A long flush time makes sure the whole burst is queued before anything
+    // is sent.
+    writer = new RelayWriter(relay, TEAM, SECRET, 100, 10, 200);
+
+    for (int i = 0; i < 25; i++) {
+      assertTrue(writer.add(packet(relay, 100 + i)));
+    }
+
+    writer.start();
+    relay.awaitWritten(25);
+
+    synchronized (relay) {
+      assertEquals(25, relay.written.size());
+      assertEquals(3, relay.batches.size());
+      assertEquals(Integer.valueOf(10), relay.batches.get(0));
+      assertEquals(Integer.valueOf(10), relay.batches.get(1));
+      assertEquals(Integer.valueOf(5), relay.batches.get(2));
+
+      // Messages are sent in the order they were added.
+      for (int i = 0; i < 25; i++) {
+        assertEquals(new Uuid(100 + i), relay.written.get(i).message().id());
+      }
+    }
+  }
+
+  @Test
+  public void testFailedBatchIsRetried() throws InterruptedException {
+
+    final RecordingRelay relay = new RecordingRelay(2);
+
+    writer = new RelayWriter(relay, TEAM, SECRET, 100, 10, 0);
+    writer.start();
+
+    assertTrue(writer.add(packet(relay, 7)));
+    relay.awaitWritten(1);
+
+    synchronized (relay) {
+      assertEquals(1, relay.written.size());
+      assertEquals(new Uuid(7), relay.written.get(0).message().id());
+    }
+  }
+
+  @Test
+  public void testRefusedBatchIsDropped() throws InterruptedException {
+
+    final RecordingRelay relay = new RecordingRelay(0, 1);
+    final Metrics metrics = new Metrics();
+
+    writer = new RelayWriter(relay, TEAM, SECRET, 100, 1, 0, metrics);
+    writer.start();
+
+    // The refused batch is not sent again and does not hold up the next one.
+    assertTrue(writer.add(packet(relay, 1)));
+    assertTrue(writer.add(packet(relay, 2)));
+    relay.awaitWritten(1);
+
+    synchronized (relay) {
+      assertEquals(1, relay.written.size());
+      assertEquals(new Uuid(2), relay.written.get(0).message().id());
+      assertEquals(2, relay.attempts);
+    }
+    assertEquals(1L, (long) metrics.values().get("relay.write.dropped"));
+  }
+
+  @Test
+  public void testRetriesAreCapped() throws InterruptedException {
+
+    // Down for the first batch's three attempts, back for the second batch.
+    final RecordingRelay relay = new RecordingRelay(3);
+    final Metrics metrics = new Metrics();
+
+    writer = new RelayWriter(relay, TEAM, SECRET, 100, 1, 0, 3, metrics);
+    writer.start();
+
+    assertTrue(writer.add(packet(relay, 1)));
+    assertTrue(writer.add(packet(relay, 2)));
+    relay.awaitWritten(1);
+
+    synchronized (relay) {
+      assertEquals(1, relay.written.size());
+      assertEquals(new Uuid(2), relay.written.get(0).message().id());
+      assertEquals(4, relay.attempts);
+    }
+    assertEquals(1L, (long) metrics.values().get("relay.write.dropped"));
+  }
+
+  @Test
+  public void testFullQueueDrops() {
+
+    final RecordingRelay relay = new RecordingRelay(0);
+
+    // Never started, so nothing leaves the queue.
+    writer = new RelayWriter(relay, TEAM, SECRET, 2, 10, 0);
+
+    assertTrue(writer.add(packet(relay, 1)));
+    assertTrue(writer.add(packet(relay, 2)));
+    assertFalse(writer.add(packet(relay, 3)));
+  }
+}
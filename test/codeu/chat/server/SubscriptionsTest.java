@@ -0,0 +1,258 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import codeu.chat.common.Bookmark;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationHeader.ConversationUuid;
+import codeu.chat.common.InterestSet;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Metrics;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+public final class SubscriptionsTest {
+
+  // A connection to a client in the same process. What the server writes can
+  // be read from "events" and closing "client" looks like the client leaving.
+  private static final class PipeConnection implements Connection {
+
+    public final PipedInputStream events = new PipedInputStream(1 << 16);
+    public final PipedOutputStream client = new PipedOutputStream();
+
+    private final PipedInputStream in = new PipedInputStream(client);
+    private final PipedOutputStream out = new PipedOutputStream(events);
+
+    public PipeConnection() throws IOException { }
+
+    @Override
+    public InputStream in() { return in; }
+
+    @Override
+    public OutputStream out() { return out; }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+      in.close();
+    }
+  }
+
+  private final User alice = new User(new Uuid(1), "alice", Time.now());
+  private final User bob = new User(new Uuid(2), "bob", Time.now());
+  private final User carol = new User(new Uuid(3), "carol", Time.now());
+
+  private final ConversationHeader chat =
+      new ConversationHeader(new ConversationUuid(10), alice.id, Time.now(), "chat");
+  private final ConversationHeader other =
+      new ConversationHeader(new ConversationUuid(11), bob.id, Time.now(), "other");
+
+  private int nextMessage = 100;
+
+  private ExecutorService executor;
+  private Metrics metrics;
+  private Model model;
+
+  @Before
+  public void doBefore() {
+    executor = Executors.newCachedThreadPool();
+    metrics = new Metrics();
+
+    // Alice owns "chat" and is a member of "other", Carol is in neither.
+    model = new Model();
+    model.add(chat);
+    model.add(other);
+    model.changeAuthority(other.id, alice.id, Model.USER_TYPE_MEMBER);
+  }
+
+  @After
+  public void doAfter() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testConversationsAndAuthors() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions(model, executor, metrics);
+    final PipeConnection connection = new PipeConnection();
+
+    subscriptions.open(alice.id, connection);
+    subscriptions.update(alice.id, interests(chat, bob));
+
+    final Message own = message(alice, chat, "mine");
+    final Message inChat = message(carol, chat, "in chat");
+    final Message fromBob = message(bob, other, "from bob");
+    final Message neither = message(carol, other, "neither");
+    final Message both = message(bob, chat, "both");
+
+    subscriptions.publish(chat, own);
+    subscriptions.publish(chat, inChat);
+    subscriptions.publish(other, fromBob);
+    subscriptions.publish(other, neither);
+    subscriptions.publish(chat, both);
+
+    assertEvent(connection, chat, inChat);
+    assertEvent(connection, other, fromBob);
+    assertEvent(connection, chat, both);
+
+    assertEquals(3L, (long) metrics.values().get("subscriptions.published"));
+  }
+
+  @Test
+  public void testUpdate() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions(model, executor, metrics);
+    final PipeConnection connection = new PipeConnection();
+
+    subscriptions.open(alice.id, connection);
+
+    final Message before = message(carol, chat, "before");
+    final Message after = message(carol, chat, "after");
+    final Message dropped = message(carol, chat, "dropped");
+
+    subscriptions.publish(chat, before);
+    subscriptions.update(alice.id, interests(chat, null));
+    subscriptions.publish(chat, after);
+    subscriptions.update(alice.id, interests(other, null));
+    subscriptions.publish(chat, dropped);
+
+    assertEvent(connection, chat, after);
+    assertEquals(1L, (long) metrics.values().get("subscriptions.published"));
+  }
+
+  @Test
+  public void testOnlyMembersHear() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions(model, executor, metrics);
+    final PipeConnection connection = new PipeConnection();
+
+    subscriptions.open(carol.id, connection);
+    subscriptions.update(carol.id, interests(chat, alice));
+
+    final Message outsider = message(alice, chat, "outsider");
+    final Message member = message(alice, chat, "member");
+    final Message banned = message(alice, chat, "banned");
+
+    subscriptions.publish(chat, outsider);
+    assertEquals(0L, (long) metrics.values().get("subscriptions.published"));
+
+    model.changeAuthority(chat.id, carol.id, Model.USER_TYPE_MEMBER);
+    subscriptions.publish(chat, member);
+
+    // Taking Carol out of the conversation stops the events at once, without
+    // her interests changing.
+    model.changeAuthority(chat.id, carol.id, Model.USER_TYPE_BANNED);
+    subscriptions.publish(chat, banned);
+
+    assertEvent(connection, chat, member);
+    assertEquals(1L, (long) metrics.values().get("subscriptions.published"));
+  }
+
+  @Test
+  public void testClientLeaves() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions(model, executor, metrics);
+    final PipeConnection connection = new PipeConnection();
+
+    subscriptions.open(alice.id, connection);
+    subscriptions.update(alice.id, interests(chat, null));
+    assertEquals(1, subscriptions.size());
+
+    connection.client.close();
+
+    // The server closes its end once it notices.
+    assertEquals(-1, connection.events.read());
+    assertEquals(0, subscriptions.size());
+
+    // Nothing is left to publish to.
+    subscriptions.publish(chat, message(carol, chat, "gone"));
+    assertEquals(0L, (long) metrics.values().get("subscriptions.published"));
+  }
+
+  @Test
+  public void testSlowSubscriberDropped() throws Exception {
+
+    // Never runs the senders, so nothing is taken off the queue.
+    final Executor stalled = new Executor() {
+      @Override
+      public void execute(Runnable task) { }
+    };
+
+    final Subscriptions subscriptions = new Subscriptions(model, stalled, 2, metrics);
+
+    subscriptions.open(alice.id, new PipeConnection());
+    subscriptions.update(alice.id, interests(chat, null));
+
+    subscriptions.publish(chat, message(carol, chat, "one"));
+    subscriptions.publish(chat, message(carol, chat, "two"));
+    assertEquals(1, subscriptions.size());
+
+    subscriptions.publish(chat, message(carol, chat, "three"));
+    assertEquals(0, subscriptions.size());
+    assertEquals(1L, (long) metrics.values().get("subscriptions.dropped"));
+  }
+
+  private Message message(User author, ConversationHeader conversation, String content) {
+    return new Message(new Uuid(nextMessage++),
+                       Uuid.NULL,
+                       Uuid.NULL,
+                       Time.now(),
+                       author.id,
+                       content,
+                       conversation.id.root());
+  }
+
+  private static InterestSet interests(ConversationHeader conversation, User user) {
+    final InterestSet interests = new InterestSet();
+    if (conversation != null) {
+      final Bookmark bookmark = new Bookmark();
+      bookmark.conversation = conversation;
+      interests.bookmarks.add(bookmark);
+    }
+    if (user != null) {
+      interests.users.add(user);
+    }
+    return interests;
+  }
+
+  private static void assertEvent(PipeConnection connection,
+                                  ConversationHeader conversation,
+                                  Message message) throws IOException {
+    assertEquals(NetworkCode.NEW_MESSAGE_EVENT, (int) Serializers.INTEGER.read(connection.events));
+    assertEquals(conversation.title, ConversationHeader.SERIALIZER.read(connection.events).title);
+    final Message read = Message.SERIALIZER.read(connection.events);
+    assertEquals(message.id, read.id);
+    assertEquals(message.content(), read.content());
+  }
+}
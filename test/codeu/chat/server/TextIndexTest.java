@@ -0,0 +1,113 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class TextIndexTest {
+
+  @Test
+  public void testTerms() {
+    assertEquals(Arrays.asList("hello", "world", "it", "s", "42"),
+                 new ArrayList<>(TextIndex.terms("Hello, WORLD! it's 42 hello")));
+    assertTrue(TextIndex.terms("  ... ").isEmpty());
+  }
+
+  @Test
+  public void testOneTermNewestFirst() {
+
+    final TextIndex index = new TextIndex();
+    index.add(0, "lunch today");
+    index.add(1, "no");
+    index.add(2, "Lunch?");
+
+    assertArrayEquals(new int[] { 2, 0 }, index.search("lunch"));
+    assertArrayEquals(new int[0], index.search("dinner"));
+    assertArrayEquals(new int[0], index.search(""));
+  }
+
+  @Test
+  public void testMoreTermsRankHigher() {
+
+    final TextIndex index = new TextIndex();
+    index.add(0, "red green blue");
+    index.add(1, "red");
+    index.add(2, "green blue");
+    index.add(3, "yellow");
+    index.add(4, "blue");
+
+    assertArrayEquals(new int[] { 0, 2, 4, 1 }, index.search("red green blue"));
+  }
+
+  @Test
+  public void testSearchSeveralAsOne() {
+
+    final TextIndex before = new TextIndex();
+    before.add(0, "red green");
+    before.add(1, "red");
+
+    final TextIndex after = new TextIndex();
+    after.add(2, "green");
+    after.add(3, "red green");
+
+    assertArrayEquals(new int[] { 3, 0, 2, 1 }, TextIndex.search("red green", before, after));
+    assertArrayEquals(new int[] { 3, 1, 0 }, TextIndex.search("red", before, after));
+  }
+
+  @Test
+  public void testLargeGaps() {
+
+    final TextIndex index = new TextIndex();
+    final int[] positions = { 0, 127, 128, 20000, 3000000 };
+
+    for (final int position : positions) {
+      index.add(position, "word");
+    }
+
+    assertArrayEquals(new int[] { 3000000, 20000, 128, 127, 0 }, index.search("word"));
+  }
+
+  @Test
+  public void testConversationSearchPages() {
+
+    final ConversationIndex index = new ConversationIndex();
+
+    for (int i = 0; i < 25; i++) {
+      index.add(new Message(new Uuid(i + 1), Uuid.NULL, Uuid.NULL, Time.fromMs(i), Uuid.NULL,
+                            (i % 5 == 0) ? "ping pong" : "ping", Uuid.NULL));
+    }
+
+    final List<Message> first = new ArrayList<>(index.search("pong ping", 0, 7));
+    assertEquals(7, first.size());
+
+    // Both words first (newest first), then one word.
+    assertEquals(new Uuid(21), first.get(0).id);
+    assertEquals(new Uuid(1), first.get(4).id);
+    assertEquals(new Uuid(25), first.get(5).id);
+
+    final List<Message> last = new ArrayList<>(index.search("pong ping", 20, 7));
+    assertEquals(5, last.size());
+    assertEquals(new Uuid(2), last.get(4).id);
+  }
+}
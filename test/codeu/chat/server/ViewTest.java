@@ -0,0 +1,187 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import codeu.chat.common.BasicController;
+import codeu.chat.common.Changes;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationHeader.ConversationUuid;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Uuid;
+
+public final class ViewTest {
+
+  private Model model;
+  private BasicController controller;
+  private View view;
+
+  private User user;
+  private ConversationHeader conversation;
+  private List<Message> sent;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    view = new View(model);
+
+    user = controller.newUser("user");
+    conversation = controller.newConversation("conversation", user.id);
+
+    sent = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      sent.add(controller.newMessage(user.id, conversation.id, "message " + i));
+    }
+  }
+
+  @Test
+  public void testFirstPageForward() {
+
+    final List<Message> page = new ArrayList<>(
+        view.getMessagePage(conversation.id, user.id, Uuid.NULL, 4, true));
+
+    assertEquals(4, page.size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(sent.get(i).id, page.get(i).id);
+    }
+  }
+
+  @Test
+  public void testPageAfterCursor() {
+
+    final List<Message> page = new ArrayList<>(
+        view.getMessagePage(conversation.id, user.id, sent.get(7).id, 4, true));
+
+    assertEquals(2, page.size());
+    assertEquals(sent.get(8).id, page.get(0).id);
+    assertEquals(sent.get(9).id, page.get(1).id);
+  }
+
+  @Test
+  public void testPagesBackward() {
+
+    final List<Message> first = new ArrayList<>(
+        view.getMessagePage(conversation.id, user.id, Uuid.NULL, 3, false));
+
+    assertEquals(3, first.size());
+    assertEquals(sent.get(9).id, first.get(0).id);
+    assertEquals(sent.get(7).id, first.get(2).id);
+
+    final List<Message> second = new ArrayList<>(
+        view.getMessagePage(conversation.id, user.id, first.get(2).id, 100, false));
+
+    assertEquals(7, second.size());
+    assertEquals(sent.get(6).id, second.get(0).id);
+    assertEquals(sent.get(0).id, second.get(6).id);
+  }
+
+  @Test
+  public void testCursorFromOtherConversation() {
+
+    final ConversationHeader other = controller.newConversation("other", user.id);
+
+    assertTrue(view.getMessagePage(other.id, user.id, sent.get(0).id, 4, true).isEmpty());
+  }
+
+  @Test
+  public void testConversationIdSurvivesSerialization() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ConversationHeader.SERIALIZER.write(out, conversation);
+    final ConversationHeader read =
+        ConversationHeader.SERIALIZER.read(new ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals(conversation.id, read.id);
+    assertEquals(4, view.getMessagePage(read.id, user.id, Uuid.NULL, 4, true).size());
+  }
+
+  @Test
+  public void testUsersByPrefix() {
+
+    controller.newUser("Alice");
+    controller.newUser("alicia");
+    controller.newUser("bob");
+    controller.newUser("al");
+
+    final List<String> names = new ArrayList<>();
+    for (final User found : view.getUsersByPrefix("ali", 10)) {
+      names.add(found.name);
+    }
+    assertEquals(2, names.size());
+    assertEquals("Alice", names.get(0));
+    assertEquals("alicia", names.get(1));
+
+    assertEquals(1, view.getUsersByPrefix("ali", 1).size());
+    assertEquals(3, view.getUsersByPrefix("AL", 10).size());
+    assertTrue(view.getUsersByPrefix("carol", 10).isEmpty());
+  }
+
+  @Test
+  public void testConversationsByPrefix() {
+
+    controller.newConversation("conversations", user.id);
+    controller.newConversation("talk", user.id);
+
+    final List<ConversationHeader> found = new ArrayList<>(view.getConversationsByPrefix("conv", 10));
+
+    assertEquals(2, found.size());
+    assertEquals(conversation.id, found.get(0).id);
+    assertEquals("conversations", found.get(1).title);
+  }
+
+  @Test
+  public void testChangesSince() {
+
+    final Changes all = view.getChanges(model.epoch(), 0);
+    assertFalse(all.reset);
+    assertEquals(1, all.users.size());
+    assertEquals(1, all.conversations.size());
+
+    final User added = controller.newUser("added");
+
+    final Changes next = view.getChanges(all.epoch, all.last);
+    assertEquals(1, next.users.size());
+    assertEquals(added.id, next.users.iterator().next().id);
+    assertTrue(next.conversations.isEmpty());
+
+    final Changes none = view.getChanges(next.epoch, next.last);
+    assertTrue(none.users.isEmpty());
+    assertTrue(none.conversations.isEmpty());
+    assertEquals(next.last, none.last);
+  }
+
+  @Test
+  public void testChangesFromOtherEpoch() {
+
+    final Changes changes = view.getChanges(model.epoch() + 1, 100);
+
+    assertTrue(changes.reset);
+    assertEquals(model.epoch(), changes.epoch);
+    assertEquals(1, changes.users.size());
+    assertEquals(1, changes.conversations.size());
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class LoggerTest {
+
+  private final List<LogRecord> records = new ArrayList<>();
+
+  private final Handler handler = new Handler() {
+    @Override
+    public void publish(LogRecord record) { records.add(record); }
+    @Override
+    public void flush() { }
+    @Override
+    public void close() { }
+  };
+
+  private Logger.Log log;
+  private File file;
+
+  @Before
+  public void doBefore() throws IOException {
+    log = Logger.newLog(LoggerTest.class);
+    java.util.logging.Logger.getLogger(LoggerTest.class.getName()).addHandler(handler);
+    file = File.createTempFile("logger-test", ".log");
+  }
+
+  @After
+  public void doAfter() {
+    java.util.logging.Logger.getLogger(LoggerTest.class.getName()).removeHandler(handler);
+    file.delete();
+  }
+
+  @Test
+  public void testCallerIsSource() {
+
+    log.info("value=%d", 7);
+
+    assertEquals(1, records.size());
+    assertEquals("value=7", records.get(0).getMessage());
+    assertEquals(LoggerTest.class.getName(), records.get(0).getSourceClassName());
+    assertEquals("testCallerIsSource", records.get(0).getSourceMethodName());
+  }
+
+  @Test
+  public void testBelowLevelIsNotFormatted() {
+
+    final Object param = new Object() {
+      @Override
+      public String toString() {
+        fail("A message below the log level should not be formatted.");
+        return "";
+      }
+    };
+
+    log.verbose("%s", param);
+
+    assertTrue(records.isEmpty());
+  }
+
+  @Test
+  public void testAsyncFileHandlerWritesInOrder() throws IOException {
+
+    final AsyncFileHandler async = new AsyncFileHandler(file.getPath());
+    async.setFormatter(new Formatter() {
+      @Override
+      public String format(LogRecord record) {
+        return record.getMessage() + "\n";
+      }
+    });
+
+    for (int i = 0; i < 10000; i++) {
+      async.publish(new LogRecord(java.util.logging.Level.INFO, Integer.toString(i)));
+    }
+    async.close();
+
+    final List<String> lines = Files.readAllLines(file.toPath(), Charset.defaultCharset());
+
+    assertEquals(10000, lines.size());
+    for (int i = 0; i < lines.size(); i++) {
+      assertEquals(Integer.toString(i), lines.get(i));
+    }
+  }
+}
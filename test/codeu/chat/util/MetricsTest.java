@@ -0,0 +1,87 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public final class MetricsTest {
+
+  @Test
+  public void testSameNameSameInstrument() {
+
+    final Metrics metrics = new Metrics();
+
+    assertSame(metrics.counter("a"), metrics.counter("a"));
+    assertSame(metrics.latency("b"), metrics.latency("b"));
+    assertNotSame(metrics.counter("a"), metrics.counter("c"));
+  }
+
+  @Test
+  public void testValues() {
+
+    final Metrics metrics = new Metrics();
+
+    metrics.counter("count").increment();
+    metrics.counter("count").add(4);
+    metrics.gauge("gauge", new Metrics.Gauge() {
+      @Override
+      public long value() { return 42; }
+    });
+
+    final Map<String, Long> values = metrics.values();
+
+    assertEquals(2, values.size());
+    assertEquals(Long.valueOf(5), values.get("count"));
+    assertEquals(Long.valueOf(42), values.get("gauge"));
+  }
+
+  @Test
+  public void testLatencySummary() {
+
+    final Metrics.Latency latency = new Metrics.Latency();
+
+    // 98 fast samples (10us) and 2 slow ones (5ms).
+    for (int i = 0; i < 98; i++) {
+      latency.add(10000);
+    }
+    latency.add(5000000);
+    latency.add(5000000);
+
+    final Metrics.Summary summary = latency.summary();
+
+    assertEquals(100, summary.count);
+    assertEquals(5000, summary.maxUs);
+    assertEquals((98 * 10 + 2 * 5000) / 100, summary.meanUs);
+
+    // Percentiles are the upper edge of their bucket, at most twice the value.
+    assertTrue(summary.p50Us >= 10 && summary.p50Us <= 20);
+    assertTrue(summary.p99Us >= 5000 && summary.p99Us <= 10000);
+  }
+
+  @Test
+  public void testEmptyLatency() {
+
+    final Metrics.Summary summary = new Metrics.Latency().summary();
+
+    assertEquals(0, summary.count);
+    assertEquals(0, summary.meanUs);
+    assertEquals(0, summary.p50Us);
+    assertEquals(0, summary.maxUs);
+  }
+}
@@ -0,0 +1,90 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class SerializersTest {
+
+  private static <T> T roundTrip(Serializer<T> serializer, T value) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.write(out, value);
+    return serializer.read(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  @Test
+  public void testIntegerRoundTrip() throws IOException {
+    assertEquals(Integer.valueOf(0), roundTrip(Serializers.INTEGER, 0));
+    assertEquals(Integer.valueOf(-1), roundTrip(Serializers.INTEGER, -1));
+    assertEquals(Integer.valueOf(Integer.MIN_VALUE), roundTrip(Serializers.INTEGER, Integer.MIN_VALUE));
+    assertEquals(Integer.valueOf(0x12345678), roundTrip(Serializers.INTEGER, 0x12345678));
+  }
+
+  @Test
+  public void testLongRoundTrip() throws IOException {
+    assertEquals(Long.valueOf(-1L), roundTrip(Serializers.LONG, -1L));
+    assertEquals(Long.valueOf(Long.MAX_VALUE), roundTrip(Serializers.LONG, Long.MAX_VALUE));
+    assertEquals(Long.valueOf(0x0102030405060708L), roundTrip(Serializers.LONG, 0x0102030405060708L));
+  }
+
+  @Test
+  public void testIntegerWireFormat() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, 0x01020304);
+    assertArrayEquals(new byte[] { 1, 2, 3, 4 }, out.toByteArray());
+  }
+
+  @Test
+  public void testBytesReadInPieces() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.BYTES.write(out, new byte[] { 5, 6, 7, 8, 9 });
+
+    // A socket may return fewer bytes than asked for, make sure the reader
+    // keeps asking until it has all of them.
+    final InputStream trickle = new ByteArrayInputStream(out.toByteArray()) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 1));
+      }
+    };
+
+    assertArrayEquals(new byte[] { 5, 6, 7, 8, 9 }, Serializers.BYTES.read(trickle));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testIntegerEndOfStream() throws IOException {
+    Serializers.INTEGER.read(new ByteArrayInputStream(new byte[] { 1, 2 }));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testBytesEndOfStream() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, 10);
+    out.write(new byte[] { 1, 2, 3 });
+    Serializers.BYTES.read(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testUuidEndOfStream() throws IOException {
+    Uuid.SERIALIZER.read(new ByteArrayInputStream(new byte[0]));
+  }
+}
@@ -14,6 +14,8 @@
 
 package codeu.chat.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -149,4 +151,80 @@ public final class UuidTest {
 
     assertEquals(start, end);
   }
+
+  @Test
+  public void testHashMatchesEquals() {
+    final Uuid u1 = new Uuid(new Uuid(new Uuid(1), 2), 3);
+    final Uuid u2 = new Uuid(new Uuid(new Uuid(1), 2), 3);
+    assertEquals(u1.hashCode(), u2.hashCode());
+
+    // A conversation id repeats the id of its root, which must not make all
+    // of them hash the same.
+    final Uuid c1 = new Uuid(new Uuid(new Uuid(1), 2), 2);
+    final Uuid c2 = new Uuid(new Uuid(new Uuid(1), 3), 3);
+    assertNotEquals(c1.hashCode(), c2.hashCode());
+  }
+
+  @Test
+  public void testCompare() {
+    final Uuid r = new Uuid(1);
+
+    assertEquals(0, Uuid.compare(null, null));
+    assertTrue(Uuid.compare(null, r) < 0);
+    assertTrue(Uuid.compare(r, null) > 0);
+
+    assertEquals(0, Uuid.compare(new Uuid(r, 5), new Uuid(new Uuid(1), 5)));
+    assertTrue(Uuid.compare(new Uuid(r, 4), new Uuid(r, 5)) < 0);
+    assertTrue(Uuid.compare(new Uuid(new Uuid(2), 5), new Uuid(r, 5)) > 0);
+
+    // The tail id decides before the root does.
+    assertTrue(Uuid.compare(new Uuid(new Uuid(9), 1), new Uuid(r, 2)) < 0);
+
+    // Same ids, but one chain runs out first.
+    assertTrue(Uuid.compare(new Uuid(5), new Uuid(r, 5)) < 0);
+  }
+
+  @Test
+  public void testSerializerFormat() throws IOException {
+    final Uuid id = new Uuid(new Uuid(1), 2);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Uuid.SERIALIZER.write(out, id);
+
+    // Length, then the ids from the tail to the root.
+    assertArrayEquals(new byte[] { 2, 0, 0, 0, 2, 0, 0, 0, 1 }, out.toByteArray());
+  }
+
+  @Test
+  public void testReadSharesInternedRoot() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Uuid.SERIALIZER.write(out, new Uuid(new Uuid(77), 1));
+    Uuid.SERIALIZER.write(out, new Uuid(new Uuid(77), 2));
+
+    final Uuid known = new Uuid(new Uuid(new Uuid(77), 3), 4);
+    Uuid.intern(known);
+
+    final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    final Uuid a = Uuid.SERIALIZER.read(in);
+    final Uuid b = Uuid.SERIALIZER.read(in);
+
+    assertSame(known.root().root(), a.root());
+    assertSame(a.root(), b.root());
+    assertEquals(new Uuid(new Uuid(77), 2), b);
+  }
+
+  @Test
+  public void testReadDoesNotIntern() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Uuid.SERIALIZER.write(out, new Uuid(new Uuid(78), 1));
+    Uuid.SERIALIZER.write(out, new Uuid(new Uuid(78), 2));
+
+    // Ids from the network alone never make it into the table.
+    final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    final Uuid a = Uuid.SERIALIZER.read(in);
+    final Uuid b = Uuid.SERIALIZER.read(in);
+
+    assertNotSame(a.root(), b.root());
+    assertEquals(a.root(), b.root());
+  }
 }
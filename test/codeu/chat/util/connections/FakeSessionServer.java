@@ -0,0 +1,118 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.connections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+
+// FAKE SESSION SERVER
+//
+// A server on a free local port that accepts session connections and hands
+// each one to "serve" on its own thread. Counts how many sessions were opened
+// and how many have ended so tests can see what a connection source did.
+abstract class FakeSessionServer implements Closeable {
+
+  public final AtomicInteger opened = new AtomicInteger();
+  public final AtomicInteger ended = new AtomicInteger();
+
+  private final ServerSocket serverSocket = new ServerSocket(0);
+
+  public FakeSessionServer() throws IOException {
+
+    final Thread acceptor = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            handle(serverSocket.accept());
+          }
+        } catch (IOException ex) {
+          // Closed by the test.
+        }
+      }
+    };
+
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  // Wait up to a few seconds for "count" to reach "value".
+  public static boolean await(AtomicInteger count, int value) throws InterruptedException {
+    for (int i = 0; i < 500 && count.get() != value; i++) {
+      Thread.sleep(10);
+    }
+    return count.get() == value;
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  // Answer the frames of one session until the client closes it.
+  protected abstract void serve(InputStream in, OutputStream out) throws IOException;
+
+  // An echo: answer every frame with its own payload, in order.
+  protected static void echo(InputStream in, OutputStream out) throws IOException {
+    while (true) {
+      Frame.SERIALIZER.write(out, Frame.SERIALIZER.read(in));
+      out.flush();
+    }
+  }
+
+  private void handle(final Socket socket) {
+
+    opened.incrementAndGet();
+
+    final Thread session = new Thread() {
+      @Override
+      public void run() {
+        try {
+          final InputStream in = new BufferedInputStream(socket.getInputStream());
+          final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+          if (Serializers.INTEGER.read(in) == NetworkCode.SESSION_REQUEST) {
+            serve(in, out);
+          }
+        } catch (IOException ex) {
+          // The client went away.
+        }
+        try {
+          socket.close();
+        } catch (IOException ex) {
+          // Nothing left to do.
+        }
+        ended.incrementAndGet();
+      }
+    };
+
+    session.setDaemon(true);
+    session.start();
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.connections;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import codeu.chat.util.Serializers;
+
+public final class FrameTest {
+
+  @Test
+  public void testRoundTrip() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Frame.SERIALIZER.write(out, new Frame(7, new byte[] { 1, 2, 3 }));
+    Frame.SERIALIZER.write(out, new Frame(-1, new byte[0]));
+
+    final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+
+    final Frame first = Frame.SERIALIZER.read(in);
+    assertEquals(7, first.id);
+    assertArrayEquals(new byte[] { 1, 2, 3 }, first.payload);
+
+    final Frame second = Frame.SERIALIZER.read(in);
+    assertEquals(-1, second.id);
+    assertArrayEquals(new byte[0], second.payload);
+
+    try {
+      Frame.SERIALIZER.read(in);
+      fail("Expected the end of the stream");
+    } catch (EOFException ex) {
+      // A session ends like this.
+    }
+  }
+
+  @Test
+  public void testConnectionSendsOneFrame() throws IOException {
+
+    final List<byte[]> sent = new ArrayList<>();
+
+    final FrameConnection connection = new RecordingConnection(sent);
+
+    Serializers.INTEGER.write(connection.out(), 5);
+    Serializers.STRING.write(connection.out(), "request");
+
+    // Nothing goes out until the response is asked for.
+    assertTrue(sent.isEmpty());
+
+    assertEquals(5, (int) Serializers.INTEGER.read(connection.in()));
+    assertEquals("request", Serializers.STRING.read(connection.in()));
+
+    connection.close();
+
+    assertEquals(1, sent.size());
+  }
+
+  @Test
+  public void testCloseWithoutReadStillSends() throws IOException {
+
+    final List<byte[]> sent = new ArrayList<>();
+
+    final FrameConnection connection = new RecordingConnection(sent);
+    Serializers.INTEGER.write(connection.out(), 5);
+    connection.close();
+
+    assertEquals(1, sent.size());
+    assertEquals(5, (int) Serializers.INTEGER.read(new ByteArrayInputStream(sent.get(0))));
+  }
+
+  // Echoes every request and remembers what was sent.
+  private static final class RecordingConnection extends FrameConnection {
+
+    private final List<byte[]> sent;
+
+    public RecordingConnection(List<byte[]> sent) {
+      this.sent = sent;
+    }
+
+    @Override
+    protected byte[] exchange(byte[] payload) {
+      sent.add(payload);
+      return payload;
+    }
+
+    @Override
+    protected void release() { }
+  }
+}
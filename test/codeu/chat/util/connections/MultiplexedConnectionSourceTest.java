@@ -0,0 +1,117 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.connections;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import codeu.chat.util.Serializers;
+
+public final class MultiplexedConnectionSourceTest {
+
+  private FakeSessionServer server;
+  private MultiplexedConnectionSource source;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void doAfter() throws IOException {
+    executor.shutdownNow();
+    if (source != null) {
+      source.close();
+    }
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testResponsesOutOfOrder() throws Exception {
+
+    // Hold the first two requests and answer them newest first.
+    server = new FakeSessionServer() {
+      @Override
+      protected void serve(InputStream in, OutputStream out) throws IOException {
+        final Frame first = Frame.SERIALIZER.read(in);
+        final Frame second = Frame.SERIALIZER.read(in);
+        Frame.SERIALIZER.write(out, second);
+        Frame.SERIALIZER.write(out, first);
+        out.flush();
+        echo(in, out);
+      }
+    };
+
+    source = new MultiplexedConnectionSource("localhost", server.port());
+
+    final Future<String> a = executor.submit(request("a"));
+    final Future<String> b = executor.submit(request("b"));
+
+    assertEquals("a", a.get());
+    assertEquals("b", b.get());
+
+    // Later requests share the same session.
+    assertEquals("c", request("c").call());
+    assertEquals(1, server.opened.get());
+  }
+
+  @Test
+  public void testBrokenSessionFailsAndReopens() throws Exception {
+
+    // The first session dies without answering, later ones echo.
+    server = new FakeSessionServer() {
+      @Override
+      protected void serve(InputStream in, OutputStream out) throws IOException {
+        if (opened.get() > 1) {
+          echo(in, out);
+        } else {
+          Frame.SERIALIZER.read(in);
+        }
+      }
+    };
+
+    source = new MultiplexedConnectionSource("localhost", server.port());
+
+    try {
+      request("lost").call();
+      fail("Expected the request to fail with its session");
+    } catch (IOException ex) {
+      // The session closed before the response came.
+    }
+
+    assertEquals("again", request("again").call());
+    assertEquals(2, server.opened.get());
+  }
+
+  private Callable<String> request(final String text) {
+    return new Callable<String>() {
+      @Override
+      public String call() throws IOException {
+        try (final Connection connection = source.connect()) {
+          Serializers.STRING.write(connection.out(), text);
+          return Serializers.STRING.read(connection.in());
+        }
+      }
+    };
+  }
+}
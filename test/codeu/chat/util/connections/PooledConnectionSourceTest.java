@@ -0,0 +1,122 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.connections;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.Serializers;
+
+public final class PooledConnectionSourceTest {
+
+  private FakeSessionServer server;
+
+  @Before
+  public void doBefore() throws IOException {
+    server = new FakeSessionServer() {
+      @Override
+      protected void serve(InputStream in, OutputStream out) throws IOException {
+        echo(in, out);
+      }
+    };
+  }
+
+  @After
+  public void doAfter() throws IOException {
+    server.close();
+  }
+
+  @Test
+  public void testSessionReused() throws Exception {
+
+    final PooledConnectionSource source = new PooledConnectionSource("localhost", server.port(), 2);
+
+    try {
+      for (int i = 0; i < 5; i++) {
+        final Connection connection = source.connect();
+        assertEquals(i, exchange(connection, i));
+        connection.close();
+      }
+      assertEquals(1, server.opened.get());
+    } finally {
+      source.close();
+    }
+  }
+
+  @Test
+  public void testOverflowClosed() throws Exception {
+
+    final PooledConnectionSource source = new PooledConnectionSource("localhost", server.port(), 1);
+
+    try {
+
+      // Both are in use at once, so each gets a session of its own.
+      final Connection first = source.connect();
+      final Connection second = source.connect();
+      assertEquals(1, exchange(first, 1));
+      assertEquals(2, exchange(second, 2));
+      assertEquals(2, server.opened.get());
+
+      // Only one fits in the pool once they are given back.
+      first.close();
+      second.close();
+      assertTrue(FakeSessionServer.await(server.ended, 1));
+
+      final Connection third = source.connect();
+      assertEquals(3, exchange(third, 3));
+      third.close();
+      assertEquals(2, server.opened.get());
+
+    } finally {
+      source.close();
+    }
+
+    // Closing the source closes the idle session.
+    assertTrue(FakeSessionServer.await(server.ended, 2));
+  }
+
+  @Test
+  public void testClosedSource() throws Exception {
+
+    final PooledConnectionSource source = new PooledConnectionSource("localhost", server.port(), 1);
+    final Connection borrowed = source.connect();
+
+    source.close();
+
+    try {
+      source.connect();
+      fail("Expected a closed source to refuse connections");
+    } catch (IOException ex) {
+      // Closed.
+    }
+
+    // A session given back after the close is not kept.
+    assertEquals(4, exchange(borrowed, 4));
+    borrowed.close();
+    assertTrue(FakeSessionServer.await(server.ended, 1));
+  }
+
+  private static int exchange(Connection connection, int value) throws IOException {
+    Serializers.INTEGER.write(connection.out(), value);
+    return Serializers.INTEGER.read(connection.in());
+  }
+}
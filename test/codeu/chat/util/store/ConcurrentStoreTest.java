@@ -0,0 +1,188 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+public final class ConcurrentStoreTest {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) { return a.compareTo(b); }
+  };
+
+  private ConcurrentStore<Integer, Integer> store;
+
+  @Before
+  public void doBefore() {
+    store = new ConcurrentStore<>(COMPARATOR);
+  }
+
+  @Test
+  public void testOrderMixedInsert() {
+    store.insert(2, 20);
+    store.insert(0, 0);
+    store.insert(2, 21);
+    store.insert(1, 10);
+    store.insert(0, 1);
+
+    final int[] order = { 0, 1, 10, 20, 21 };
+    assertOrder(store.all(), order);
+  }
+
+  @Test
+  public void testAccessors() {
+    store.insert(0, 0);
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(2, 21);
+    store.insert(3, 30);
+    store.insert(4, 40);
+
+    assertOrder(store.at(2), new int[] { 20, 21 });
+    assertOrder(store.after(2), new int[] { 20, 21, 30, 40 });
+    assertOrder(store.before(2), new int[] { 0, 10, 20, 21 });
+    assertOrder(store.range(1, 3), new int[] { 10, 20, 21, 30 });
+    assertOrder(store.at(5), new int[0]);
+    assertOrder(store.before(-1), new int[0]);
+
+    assertTrue(store.first(2) == 20);
+    assertNull(store.first(5));
+  }
+
+  private static Map.Entry<Integer, Integer> entry(int key, int value) {
+    return new AbstractMap.SimpleImmutableEntry<>(key, value);
+  }
+
+  @Test
+  public void testLoadEmpty() {
+    store.load(Arrays.asList(entry(2, 20), entry(0, 0), entry(2, 21), entry(1, 10), entry(0, 1)));
+
+    // The same as inserting them one at a time.
+    assertOrder(store.all(), new int[] { 0, 1, 10, 20, 21 });
+    assertOrder(store.at(2), new int[] { 20, 21 });
+    assertTrue(store.first(0) == 0);
+  }
+
+  @Test
+  public void testLoadMerges() {
+    store.insert(1, 10);
+    store.insert(3, 30);
+
+    final Iterable<Integer> before = store.all();
+
+    store.load(Arrays.asList(entry(3, 31), entry(0, 0), entry(2, 20), entry(4, 40), entry(1, 11)));
+
+    assertOrder(store.all(), new int[] { 0, 10, 11, 20, 30, 31, 40 });
+    assertOrder(store.at(1), new int[] { 10, 11 });
+    assertOrder(store.range(2, 3), new int[] { 20, 30, 31 });
+
+    // A load is one change, an older snapshot sees none of it.
+    assertOrder(before, new int[] { 10, 30 });
+
+    store.insert(2, 21);
+    assertOrder(store.at(2), new int[] { 20, 21 });
+
+    assertEquals(8, store.size());
+  }
+
+  @Test
+  public void testIterationIsSnapshot() {
+    store.insert(1, 10);
+    store.insert(3, 30);
+
+    final Iterable<Integer> before = store.all();
+    final Iterator<Integer> started = store.range(0, 5).iterator();
+    assertTrue(started.next() == 10);
+
+    // Values added after the iterable was made are not seen, even ones that
+    // land in the part that has not been walked yet.
+    store.insert(0, 0);
+    store.insert(2, 20);
+    store.insert(3, 31);
+
+    assertOrder(before, new int[] { 10, 30 });
+
+    assertTrue(started.next() == 30);
+    assertFalse(started.hasNext());
+
+    assertOrder(store.all(), new int[] { 0, 10, 20, 30, 31 });
+  }
+
+  @Test
+  public void testReadWhileWriting() throws Exception {
+
+    final int count = 20000;
+    final AtomicReference<String> failure = new AtomicReference<>();
+
+    final Thread reader = new Thread() {
+      @Override
+      public void run() {
+        int seen = 0;
+        while (seen < count && failure.get() == null) {
+          // Keys are added in a mixed order, but every snapshot must still be
+          // sorted and must only grow.
+          int size = 0;
+          int previous = Integer.MIN_VALUE;
+          for (final Integer value : store.all()) {
+            if (value < previous) {
+              failure.set("Out of order: " + previous + " then " + value);
+            }
+            previous = value;
+            size += 1;
+          }
+          if (size < seen) {
+            failure.set("Snapshot shrank from " + seen + " to " + size);
+          }
+          seen = size;
+        }
+      }
+    };
+
+    reader.start();
+
+    for (int i = 0; i < count; i++) {
+      final int key = (i * 7919) % count;
+      store.insert(key, key);
+    }
+
+    reader.join();
+
+    assertNull(failure.get(), failure.get());
+  }
+
+  private static void assertOrder(Iterable<Integer> actual, int[] expected) {
+
+    int at = 0;
+
+    for (final Integer i : actual) {
+      assertTrue(at < expected.length);
+      assertTrue(i == expected[at]);
+      at += 1;
+    }
+
+    assertTrue(at == expected.length);
+  }
+}
@@ -147,6 +147,54 @@ public final class StoreTest {
     assertTrue(store.first(4) == 40);
   }
 
+  @Test
+  public void testManyDuplicates() {
+
+    final int[] order = new int[1000];
+    for (int i = 0; i < order.length; i++) {
+      store.insert(1, i);
+      order[i] = i;
+    }
+
+    assertOrder(store.at(1), order);
+    assertOrder(store.all(), order);
+    assertTrue(store.first(1) == 0);
+  }
+
+  @Test
+  public void testInterleavedDuplicates() {
+    store.insert(2, 20);
+    store.insert(0, 0);
+    store.insert(2, 21);
+    store.insert(1, 10);
+    store.insert(0, 1);
+    store.insert(2, 22);
+    store.insert(1, 11);
+
+    final int[] all = { 0, 1, 10, 11, 20, 21, 22 };
+    assertOrder(store.all(), all);
+
+    final int[] ones = { 10, 11 };
+    assertOrder(store.at(1), ones);
+
+    final int[] before = { 0, 1, 10, 11 };
+    assertOrder(store.before(1), before);
+
+    final int[] after = { 10, 11, 20, 21, 22 };
+    assertOrder(store.after(1), after);
+  }
+
+  @Test
+  public void testMissingKeys() {
+    store.insert(1, 10);
+    store.insert(3, 30);
+
+    assertOrder(store.at(2), new int[0]);
+    assertOrder(store.before(0), new int[0]);
+    assertOrder(store.after(4), new int[0]);
+    assertTrue(store.first(2) == null);
+  }
+
   private static void assertOrder(Iterable<Integer> actual, int[] expected) {
 
     int at = 0;